@@ -6,8 +6,13 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.Map;
 
+import org.example.analysis.FunctionSummary;
 import org.example.ast.ProgramNode;
+import org.example.codegen.BranchProfile;
+import org.example.codegen.CompileTimeEvaluator;
+import org.example.codegen.Inliner;
 import org.example.codegen.X86AssemblyGenerator;
 import org.example.semantic.symboltable.SemanticAnalyzer;
 import org.example.semantic.symboltable.SymbolTable;
@@ -27,6 +32,14 @@ public class Main_extended {
                 System.err.println("  -symbols   : mostrar tabla de símbolos");
                 System.err.println("  -asm       : generar código Assembly x86-64");
                 System.err.println("  -all       : hacer todo");
+                System.err.println("  -profile <archivo> : usar perfil de saltos para optimizar");
+                System.err.println("  -stats     : mostrar estadisticas de optimizacion");
+                System.err.println("  -fomit-frame-pointer : direccionar variables respecto de %rsp");
+                System.err.println("  -int-width <32|64> : ancho de int (64 por defecto)");
+                System.err.println("  -finline-growth <n> : crecimiento maximo por inlining, en % (100 por defecto)");
+                System.err.println("  -fno-inline : no expandir funciones");
+                System.err.println("  -feval-fuel <n> : pasos por llamada evaluada en compilacion (0: no evaluar)");
+                System.err.println("  -fmemoize : tabla de resultados para las funciones puras recursivas");
                 System.exit(1);
             }
 
@@ -36,6 +49,13 @@ public class Main_extended {
             boolean showTree = false;
             boolean showSymbols = false;
             boolean generateAssembly = false;
+            String profileFile = null;
+            boolean showStats = false;
+            boolean omitFramePointer = false;
+            int intBits = 64;
+            int inlineGrowth = Inliner.DEFAULT_GROWTH_PERCENT;
+            long evalFuel = CompileTimeEvaluator.DEFAULT_FUEL;
+            boolean memoize = false;
 
             for (int i = 1; i < args.length; i++) {
                 switch (args[i]) {
@@ -61,6 +81,46 @@ public class Main_extended {
                         showSymbols = true;
                         generateAssembly = true;
                         break;
+                    case "-stats":
+                        showStats = true;
+                        break;
+                    case "-fomit-frame-pointer":
+                        omitFramePointer = true;
+                        break;
+                    case "-int-width":
+                        if (i + 1 >= args.length || !(args[i + 1].equals("32") || args[i + 1].equals("64"))) {
+                            System.err.println("error: -int-width requiere 32 o 64");
+                            System.exit(1);
+                        }
+                        intBits = Integer.parseInt(args[++i]);
+                        break;
+                    case "-finline-growth":
+                        if (i + 1 >= args.length || !args[i + 1].matches("\\d+")) {
+                            System.err.println("error: -finline-growth requiere un porcentaje");
+                            System.exit(1);
+                        }
+                        inlineGrowth = Integer.parseInt(args[++i]);
+                        break;
+                    case "-fno-inline":
+                        inlineGrowth = -1;
+                        break;
+                    case "-feval-fuel":
+                        if (i + 1 >= args.length || !args[i + 1].matches("\\d{1,18}")) {
+                            System.err.println("error: -feval-fuel requiere una cantidad de pasos");
+                            System.exit(1);
+                        }
+                        evalFuel = Long.parseLong(args[++i]);
+                        break;
+                    case "-fmemoize":
+                        memoize = true;
+                        break;
+                    case "-profile":
+                        if (i + 1 >= args.length) {
+                            System.err.println("error: -profile requiere un archivo");
+                            System.exit(1);
+                        }
+                        profileFile = args[++i];
+                        break;
                     default:
                         System.err.println("opcion desconocida: " + args[i]);
                         break;
@@ -121,6 +181,19 @@ public class Main_extended {
 
             if (generateAssembly) {
                 X86AssemblyGenerator codeGen = new X86AssemblyGenerator(symbolTable);
+                codeGen.setOmitFramePointer(omitFramePointer);
+                codeGen.setIntBits(intBits);
+                codeGen.setInlineGrowth(inlineGrowth);
+                codeGen.setEvalFuel(evalFuel);
+                codeGen.setMemoize(memoize);
+                if (profileFile != null) {
+                    try {
+                        codeGen.setBranchProfile(BranchProfile.load(profileFile));
+                    } catch (IOException e) {
+                        System.err.println("error al leer el perfil: " + e.getMessage());
+                        System.exit(1);
+                    }
+                }
                 String assemblyCode = codeGen.generateCode(ast);
 
                 String outputFile = inputFile.replace(".txt", ".s");
@@ -130,6 +203,24 @@ public class Main_extended {
                     System.err.println("error al guardar el archivo: " + e.getMessage());
                     System.exit(1);
                 }
+
+                if (showStats) {
+                    System.out.println("\n" + "=".repeat(70));
+                    System.out.println("OPTIMIZACIONES");
+                    System.out.println("=".repeat(70));
+                    for (Map.Entry<String, Integer> entry : codeGen.getOptimizationStats().entrySet()) {
+                        System.out.println(String.format("  %-50s %6d", entry.getKey(), entry.getValue()));
+                    }
+                    System.out.println(String.format("  %-50s %6d", "semantica: funciones no alcanzables sin analizar",
+                            semanticAnalyzer.getSkippedFunctions()));
+                    System.out.println("=".repeat(70));
+                    System.out.println("FUNCIONES");
+                    System.out.println("=".repeat(70));
+                    for (FunctionSummary summary : codeGen.getFunctionSummaries().all()) {
+                        System.out.println("  " + summary);
+                    }
+                    System.out.println("=".repeat(70));
+                }
             }
 
             System.out.println("compilación exitosa: " + inputFile);
@@ -0,0 +1,215 @@
+package org.example.analysis;
+
+import java.util.*;
+import org.example.ast.*;
+
+/**
+ * Grafo de llamadas del programa, armado a partir de los FunctionCallNode
+ * de cada cuerpo, con sus componentes fuertemente conexas (Tarjan).
+ *
+ * Las componentes quedan en orden "de abajo hacia arriba": cada una aparece
+ * despues de todas las componentes a las que llama, asi un analisis que
+ * recorre getComponents() en orden ya conoce a los llamados. Una funcion es
+ * recursiva si su componente tiene mas de un miembro o si se llama a si
+ * misma.
+ */
+public class CallGraph {
+
+    public static final String MAIN = "main";
+
+    private final Map<String, Set<String>> callees;
+    private final Map<String, Set<String>> callers;
+    private final List<List<String>> components;
+    private final Map<String, List<String>> componentOf;
+
+    private CallGraph() {
+        this.callees = new LinkedHashMap<>();
+        this.callers = new LinkedHashMap<>();
+        this.components = new ArrayList<>();
+        this.componentOf = new HashMap<>();
+    }
+
+    public static CallGraph build(ProgramNode program) {
+        CallGraph graph = new CallGraph();
+        for (FunctionDeclarationNode function : program.getFunctions()) {
+            graph.addFunction(function.getIdentifier(), function.getBody());
+        }
+        graph.addFunction(MAIN, program.getMainFunction().getStatements());
+        graph.computeComponents();
+        return graph;
+    }
+
+    private void addFunction(String name, List<StatementNode> body) {
+        callees.put(name, new LinkedHashSet<>());
+        callers.putIfAbsent(name, new LinkedHashSet<>());
+        for (FunctionCallNode call : calls(body)) {
+            callees.get(name).add(call.getFunctionName());
+            callers.computeIfAbsent(call.getFunctionName(), k -> new LinkedHashSet<>()).add(name);
+        }
+    }
+
+    /** Funciones del programa en el orden en que se declararon (main al final). */
+    public Set<String> getFunctions() { return callees.keySet(); }
+
+    public Set<String> getCallees(String function) {
+        return callees.getOrDefault(function, Collections.emptySet());
+    }
+
+    public Set<String> getCallers(String function) {
+        return callers.getOrDefault(function, Collections.emptySet());
+    }
+
+    /** Componentes fuertemente conexas, los llamados antes que los que llaman. */
+    public List<List<String>> getComponents() { return components; }
+
+    public List<String> componentOf(String function) {
+        return componentOf.get(function);
+    }
+
+    /** La funcion esta definida en el programa (no es externa). */
+    public boolean isDefined(String function) {
+        return callees.containsKey(function);
+    }
+
+    public boolean isRecursive(String function) {
+        List<String> component = componentOf.get(function);
+        return component != null && (component.size() > 1 || getCallees(function).contains(function));
+    }
+
+    /** Funciones definidas que se alcanzan desde 'root' (incluida) siguiendo las llamadas. */
+    public Set<String> reachableFrom(String root) {
+        Set<String> reached = new LinkedHashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            String function = pending.pop();
+            if (isDefined(function) && reached.add(function)) {
+                for (String callee : getCallees(function)) {
+                    pending.push(callee);
+                }
+            }
+        }
+        return reached;
+    }
+
+    /** El programa sin las funciones que main no puede llamar, directa o indirectamente. */
+    public static ProgramNode reachableProgram(ProgramNode program) {
+        Set<String> reached = build(program).reachableFrom(MAIN);
+        List<FunctionDeclarationNode> kept = new ArrayList<>();
+        for (FunctionDeclarationNode function : program.getFunctions()) {
+            if (reached.contains(function.getIdentifier())) {
+                kept.add(function);
+            }
+        }
+        if (kept.size() == program.getFunctions().size()) {
+            return program;
+        }
+        return new ProgramNode(program.getReturnType(), kept, program.getMainFunction());
+    }
+
+    // ------------------------------------------------------------------
+    // Tarjan
+
+    private int index;
+    private Map<String, Integer> indices;
+    private Map<String, Integer> lowLinks;
+    private Deque<String> stack;
+    private Set<String> onStack;
+
+    private void computeComponents() {
+        index = 0;
+        indices = new HashMap<>();
+        lowLinks = new HashMap<>();
+        stack = new ArrayDeque<>();
+        onStack = new HashSet<>();
+        for (String function : callees.keySet()) {
+            if (!indices.containsKey(function)) {
+                strongConnect(function);
+            }
+        }
+    }
+
+    private void strongConnect(String function) {
+        indices.put(function, index);
+        lowLinks.put(function, index);
+        index++;
+        stack.push(function);
+        onStack.add(function);
+
+        for (String callee : getCallees(function)) {
+            if (!isDefined(callee)) {
+                continue;
+            }
+            if (!indices.containsKey(callee)) {
+                strongConnect(callee);
+                lowLinks.put(function, Math.min(lowLinks.get(function), lowLinks.get(callee)));
+            } else if (onStack.contains(callee)) {
+                lowLinks.put(function, Math.min(lowLinks.get(function), indices.get(callee)));
+            }
+        }
+
+        if (lowLinks.get(function).equals(indices.get(function))) {
+            List<String> component = new ArrayList<>();
+            String member;
+            do {
+                member = stack.pop();
+                onStack.remove(member);
+                component.add(member);
+                componentOf.put(member, component);
+            } while (!member.equals(function));
+            Collections.reverse(component);
+            components.add(component);
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // Recorrido del AST
+
+    /** Llamadas que aparecen en las sentencias, en orden de aparicion. */
+    public static List<FunctionCallNode> calls(List<StatementNode> statements) {
+        List<FunctionCallNode> result = new ArrayList<>();
+        collectCalls(statements, result);
+        return result;
+    }
+
+    private static void collectCalls(List<StatementNode> statements, List<FunctionCallNode> result) {
+        if (statements == null) {
+            return;
+        }
+        for (StatementNode stmt : statements) {
+            if (stmt instanceof AssignmentNode) {
+                collectCalls(((AssignmentNode) stmt).getExpression(), result);
+            } else if (stmt instanceof IfNode) {
+                collectCalls(((IfNode) stmt).getCondition(), result);
+                collectCalls(((IfNode) stmt).getThenBlock(), result);
+                collectCalls(((IfNode) stmt).getElseBlock(), result);
+            } else if (stmt instanceof WhileNode) {
+                collectCalls(((WhileNode) stmt).getCondition(), result);
+                collectCalls(((WhileNode) stmt).getBody(), result);
+            } else if (stmt instanceof ReturnNode) {
+                collectCalls(((ReturnNode) stmt).getExpression(), result);
+            } else if (stmt instanceof ExpressionStatementNode) {
+                collectCalls(((ExpressionStatementNode) stmt).getExpression(), result);
+            }
+        }
+    }
+
+    private static void collectCalls(ExpressionNode expression, List<FunctionCallNode> result) {
+        if (expression instanceof FunctionCallNode) {
+            FunctionCallNode call = (FunctionCallNode) expression;
+            for (ExpressionNode arg : call.getArguments()) {
+                collectCalls(arg, result);
+            }
+            result.add(call);
+        } else if (expression instanceof BinaryOpNode) {
+            collectCalls(((BinaryOpNode) expression).getLeft(), result);
+            collectCalls(((BinaryOpNode) expression).getRight(), result);
+        } else if (expression instanceof ComparisonNode) {
+            collectCalls(((ComparisonNode) expression).getLeft(), result);
+            collectCalls(((ComparisonNode) expression).getRight(), result);
+        } else if (expression instanceof LogicalOpNode) {
+            collectCalls(((LogicalOpNode) expression).getLeft(), result);
+            collectCalls(((LogicalOpNode) expression).getRight(), result);
+        }
+    }
+}
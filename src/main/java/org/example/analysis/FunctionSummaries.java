@@ -0,0 +1,402 @@
+package org.example.analysis;
+
+import java.util.*;
+import org.example.ast.*;
+
+/**
+ * Resumenes de todas las funciones del programa (ver FunctionSummary).
+ *
+ * Se calculan recorriendo las componentes del grafo de llamadas de abajo
+ * hacia arriba, asi cada funcion usa los resumenes ya terminados de sus
+ * llamados. Dentro de una componente recursiva el retorno constante y los
+ * parametros sin usar se iteran desde el supuesto optimista (todo
+ * constante, nada usado) hasta que no cambian.
+ */
+public class FunctionSummaries {
+
+    // Los valores constantes se limitan al rango de int de 32 bits para que
+    // no dependan del ancho de la aritmetica
+    private static final long MIN_VALUE = Integer.MIN_VALUE;
+    private static final long MAX_VALUE = Integer.MAX_VALUE;
+
+    /** Funcion a analizar: parametros y sentencias (main no tiene parametros). */
+    private static final class Body {
+        final String returnType;
+        final List<String> parameters;
+        final List<StatementNode> statements;
+
+        Body(String returnType, List<String> parameters, List<StatementNode> statements) {
+            this.returnType = returnType;
+            this.parameters = parameters;
+            this.statements = statements;
+        }
+    }
+
+    private final CallGraph callGraph;
+    private final Map<String, Body> bodies;
+    private final Map<String, FunctionSummary> summaries;
+
+    private FunctionSummaries(CallGraph callGraph) {
+        this.callGraph = callGraph;
+        this.bodies = new HashMap<>();
+        this.summaries = new LinkedHashMap<>();
+    }
+
+    public static FunctionSummaries compute(ProgramNode program, CallGraph callGraph) {
+        FunctionSummaries result = new FunctionSummaries(callGraph);
+        for (FunctionDeclarationNode function : program.getFunctions()) {
+            List<String> parameters = new ArrayList<>();
+            for (ParameterNode param : function.getParameters()) {
+                parameters.add(param.getIdentifier());
+            }
+            result.bodies.put(function.getIdentifier(),
+                    new Body(function.getReturnType(), parameters, function.getBody()));
+        }
+        result.bodies.put(CallGraph.MAIN, new Body(program.getReturnType(), Collections.emptyList(),
+                program.getMainFunction().getStatements()));
+
+        for (List<String> component : callGraph.getComponents()) {
+            result.summarize(component);
+        }
+        // Orden del fuente para mostrarlos
+        Map<String, FunctionSummary> ordered = new LinkedHashMap<>();
+        for (String name : callGraph.getFunctions()) {
+            ordered.put(name, result.summaries.get(name));
+        }
+        result.summaries.clear();
+        result.summaries.putAll(ordered);
+        return result;
+    }
+
+    public FunctionSummary get(String function) {
+        return summaries.get(function);
+    }
+
+    public Collection<FunctionSummary> all() {
+        return summaries.values();
+    }
+
+    public CallGraph getCallGraph() { return callGraph; }
+
+    private void summarize(List<String> component) {
+        boolean recursive = callGraph.isRecursive(component.get(0));
+
+        // Pureza y terminacion: la componente entera comparte el resultado
+        boolean pure = true;
+        boolean terminates = !recursive;
+        for (String name : component) {
+            for (FunctionCallNode call : CallGraph.calls(bodies.get(name).statements)) {
+                String callee = call.getFunctionName();
+                if (component.contains(callee)) {
+                    continue;
+                }
+                FunctionSummary summary = summaries.get(callee);
+                if (summary == null) {
+                    pure = false;
+                    terminates = false;
+                } else {
+                    pure &= summary.isPure();
+                    terminates &= summary.alwaysTerminates();
+                }
+            }
+            terminates &= !hasLoop(bodies.get(name).statements) && !mayFault(bodies.get(name).statements);
+        }
+
+        Map<String, Set<Integer>> unused = unusedParameters(component);
+        for (String name : component) {
+            // Solo una funcion que siempre termina devuelve algo en toda llamada
+            Long constant = terminates ? constantReturn(bodies.get(name)) : null;
+            summaries.put(name, new FunctionSummary(name, recursive, pure, terminates,
+                    constant, unused.get(name)));
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // Retorno constante
+
+    /**
+     * Valor que devuelven todos los return, o null. La funcion no es
+     * recursiva (siempre termina), asi que sus llamados ya tienen resumen.
+     */
+    private Long constantReturn(Body body) {
+        if (body.returnType.equals("void") || !alwaysReturns(body.statements)) {
+            return null;
+        }
+        Long value = null;
+        for (ReturnNode ret : returns(body.statements)) {
+            Long v = ret.getExpression() != null ? evaluate(ret.getExpression()) : null;
+            if (v == null || (value != null && !v.equals(value))) {
+                return null;
+            }
+            value = v;
+        }
+        return value;
+    }
+
+    /**
+     * Valor de una expresion hecha de constantes y llamadas a funciones de
+     * retorno constante, o null.
+     */
+    private Long evaluate(ExpressionNode expression) {
+        if (expression instanceof NumberNode) {
+            return (long) ((NumberNode) expression).getValue();
+        }
+        if (expression instanceof BooleanNode) {
+            return ((BooleanNode) expression).getValue() ? 1L : 0L;
+        }
+        if (expression instanceof FunctionCallNode) {
+            FunctionSummary summary = summaries.get(((FunctionCallNode) expression).getFunctionName());
+            return summary != null ? summary.getConstantReturn() : null;
+        }
+        if (expression instanceof BinaryOpNode) {
+            BinaryOpNode bin = (BinaryOpNode) expression;
+            Long left = evaluate(bin.getLeft());
+            Long right = evaluate(bin.getRight());
+            if (left == null || right == null) {
+                return null;
+            }
+            return fold(bin.getOperator(), left, right);
+        }
+        return null;
+    }
+
+    /**
+     * Operacion aritmetica entre constantes con la semantica del generador
+     * (division truncada hacia cero), o null si divide por cero o el
+     * resultado no entra en un int.
+     */
+    public static Long fold(String operator, long left, long right) {
+        long value;
+        switch (operator) {
+            case "+": value = left + right; break;
+            case "-": value = left - right; break;
+            case "*": value = left * right; break;
+            case "/":
+                if (right == 0) {
+                    return null;
+                }
+                value = left / right;
+                break;
+            default:
+                return null;
+        }
+        return value >= MIN_VALUE && value <= MAX_VALUE ? value : null;
+    }
+
+    /** No se puede llegar al final de las sentencias sin pasar por un return. */
+    public static boolean alwaysReturns(List<StatementNode> statements) {
+        if (statements == null) {
+            return false;
+        }
+        for (StatementNode stmt : statements) {
+            if (stmt instanceof ReturnNode) {
+                return true;
+            }
+            if (stmt instanceof IfNode) {
+                IfNode ifNode = (IfNode) stmt;
+                if (alwaysReturns(ifNode.getThenBlock()) && alwaysReturns(ifNode.getElseBlock())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static List<ReturnNode> returns(List<StatementNode> statements) {
+        List<ReturnNode> result = new ArrayList<>();
+        collectReturns(statements, result);
+        return result;
+    }
+
+    private static void collectReturns(List<StatementNode> statements, List<ReturnNode> result) {
+        if (statements == null) {
+            return;
+        }
+        for (StatementNode stmt : statements) {
+            if (stmt instanceof ReturnNode) {
+                result.add((ReturnNode) stmt);
+            } else if (stmt instanceof IfNode) {
+                collectReturns(((IfNode) stmt).getThenBlock(), result);
+                collectReturns(((IfNode) stmt).getElseBlock(), result);
+            } else if (stmt instanceof WhileNode) {
+                collectReturns(((WhileNode) stmt).getBody(), result);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // Parametros sin usar
+
+    /**
+     * Parte de "ningun parametro se usa" y marca como usado todo parametro
+     * que se lee, salvo cuando se pasa tal cual a una posicion todavia sin
+     * usar de una funcion de la componente (como n en f(n) dentro de f).
+     */
+    private Map<String, Set<Integer>> unusedParameters(List<String> component) {
+        Map<String, Set<Integer>> unused = new HashMap<>();
+        for (String name : component) {
+            Set<Integer> all = new HashSet<>();
+            for (int i = 0; i < bodies.get(name).parameters.size(); i++) {
+                all.add(i);
+            }
+            unused.put(name, all);
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (String name : component) {
+                Body body = bodies.get(name);
+                Set<String> read = new HashSet<>();
+                readsInStatements(body.statements, body.parameters, component, unused, read);
+                for (int i = 0; i < body.parameters.size(); i++) {
+                    if (read.contains(body.parameters.get(i)) && unused.get(name).remove(i)) {
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return unused;
+    }
+
+    private static void readsInStatements(List<StatementNode> statements, List<String> parameters,
+                                          List<String> component, Map<String, Set<Integer>> unused,
+                                          Set<String> read) {
+        if (statements == null) {
+            return;
+        }
+        for (StatementNode stmt : statements) {
+            if (stmt instanceof AssignmentNode) {
+                reads(((AssignmentNode) stmt).getExpression(), parameters, component, unused, read);
+            } else if (stmt instanceof IfNode) {
+                reads(((IfNode) stmt).getCondition(), parameters, component, unused, read);
+                readsInStatements(((IfNode) stmt).getThenBlock(), parameters, component, unused, read);
+                readsInStatements(((IfNode) stmt).getElseBlock(), parameters, component, unused, read);
+            } else if (stmt instanceof WhileNode) {
+                reads(((WhileNode) stmt).getCondition(), parameters, component, unused, read);
+                readsInStatements(((WhileNode) stmt).getBody(), parameters, component, unused, read);
+            } else if (stmt instanceof ReturnNode) {
+                reads(((ReturnNode) stmt).getExpression(), parameters, component, unused, read);
+            } else if (stmt instanceof ExpressionStatementNode) {
+                reads(((ExpressionStatementNode) stmt).getExpression(), parameters, component, unused, read);
+            }
+        }
+    }
+
+    private static void reads(ExpressionNode expression, List<String> parameters, List<String> component,
+                              Map<String, Set<Integer>> unused, Set<String> read) {
+        if (expression instanceof VariableNode) {
+            read.add(((VariableNode) expression).getIdentifier());
+        } else if (expression instanceof FunctionCallNode) {
+            FunctionCallNode call = (FunctionCallNode) expression;
+            Set<Integer> calleeUnused = unused.get(call.getFunctionName());
+            List<ExpressionNode> args = call.getArguments();
+            for (int i = 0; i < args.size(); i++) {
+                ExpressionNode arg = args.get(i);
+                boolean forwarded = arg instanceof VariableNode
+                        && parameters.contains(((VariableNode) arg).getIdentifier());
+                if (forwarded && calleeUnused != null && calleeUnused.contains(i)) {
+                    continue;
+                }
+                reads(arg, parameters, component, unused, read);
+            }
+        } else if (expression instanceof BinaryOpNode) {
+            reads(((BinaryOpNode) expression).getLeft(), parameters, component, unused, read);
+            reads(((BinaryOpNode) expression).getRight(), parameters, component, unused, read);
+        } else if (expression instanceof ComparisonNode) {
+            reads(((ComparisonNode) expression).getLeft(), parameters, component, unused, read);
+            reads(((ComparisonNode) expression).getRight(), parameters, component, unused, read);
+        } else if (expression instanceof LogicalOpNode) {
+            reads(((LogicalOpNode) expression).getLeft(), parameters, component, unused, read);
+            reads(((LogicalOpNode) expression).getRight(), parameters, component, unused, read);
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // Terminacion
+
+    private static boolean hasLoop(List<StatementNode> statements) {
+        if (statements == null) {
+            return false;
+        }
+        for (StatementNode stmt : statements) {
+            if (stmt instanceof WhileNode) {
+                return true;
+            }
+            if (stmt instanceof IfNode
+                    && (hasLoop(((IfNode) stmt).getThenBlock()) || hasLoop(((IfNode) stmt).getElseBlock()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Alguna division puede fallar (divisor que no es una constante distinta de 0 y de -1). */
+    private static boolean mayFault(List<StatementNode> statements) {
+        if (statements == null) {
+            return false;
+        }
+        for (StatementNode stmt : statements) {
+            boolean fault;
+            if (stmt instanceof AssignmentNode) {
+                fault = mayFault(((AssignmentNode) stmt).getExpression());
+            } else if (stmt instanceof IfNode) {
+                IfNode ifNode = (IfNode) stmt;
+                fault = mayFault(ifNode.getCondition())
+                        || mayFault(ifNode.getThenBlock()) || mayFault(ifNode.getElseBlock());
+            } else if (stmt instanceof WhileNode) {
+                fault = mayFault(((WhileNode) stmt).getCondition()) || mayFault(((WhileNode) stmt).getBody());
+            } else if (stmt instanceof ReturnNode) {
+                fault = mayFault(((ReturnNode) stmt).getExpression());
+            } else if (stmt instanceof ExpressionStatementNode) {
+                fault = mayFault(((ExpressionStatementNode) stmt).getExpression());
+            } else {
+                fault = false;
+            }
+            if (fault) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * idiv falla si el divisor es 0 y tambien con MIN / -1: una division solo
+     * es segura si el divisor es una constante distinta de 0 y de -1.
+     */
+    public static boolean divisionMayFault(BinaryOpNode bin) {
+        if (!bin.getOperator().equals("/")) {
+            return false;
+        }
+        if (!(bin.getRight() instanceof NumberNode)) {
+            return true;
+        }
+        int divisor = ((NumberNode) bin.getRight()).getValue();
+        return divisor == 0 || divisor == -1;
+    }
+
+    private static boolean mayFault(ExpressionNode expression) {
+        if (expression instanceof BinaryOpNode) {
+            BinaryOpNode bin = (BinaryOpNode) expression;
+            if (FunctionSummaries.divisionMayFault(bin)) {
+                return true;
+            }
+            return mayFault(bin.getLeft()) || mayFault(bin.getRight());
+        }
+        if (expression instanceof ComparisonNode) {
+            return mayFault(((ComparisonNode) expression).getLeft())
+                    || mayFault(((ComparisonNode) expression).getRight());
+        }
+        if (expression instanceof LogicalOpNode) {
+            return mayFault(((LogicalOpNode) expression).getLeft())
+                    || mayFault(((LogicalOpNode) expression).getRight());
+        }
+        if (expression instanceof FunctionCallNode) {
+            for (ExpressionNode arg : ((FunctionCallNode) expression).getArguments()) {
+                if (mayFault(arg)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
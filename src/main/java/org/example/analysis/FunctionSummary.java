@@ -0,0 +1,61 @@
+package org.example.analysis;
+
+import java.util.*;
+
+/**
+ * Lo que se sabe de una funcion mirando su cuerpo y el de sus llamados.
+ *
+ * - pura: no tiene efectos fuera de su frame (el lenguaje no tiene
+ *   globales ni E/S; solo una llamada a una funcion desconocida la ensucia)
+ * - siempre termina: no tiene while, no es recursiva, no puede dividir
+ *   por cero y sus llamados tambien terminan
+ * - retorno constante: siempre termina, todo return devuelve el mismo
+ *   valor y no se puede llegar al final del cuerpo sin un return
+ * - parametros sin usar: nunca se leen, salvo para pasarlos a la misma
+ *   posicion (tambien sin usar) de una funcion de su componente
+ */
+public class FunctionSummary {
+
+    private final String name;
+    private final boolean recursive;
+    private final boolean pure;
+    private final boolean terminates;
+    private final Long constantReturn;
+    private final Set<Integer> unusedParameters;
+
+    public FunctionSummary(String name, boolean recursive, boolean pure, boolean terminates,
+                           Long constantReturn, Set<Integer> unusedParameters) {
+        this.name = name;
+        this.recursive = recursive;
+        this.pure = pure;
+        this.terminates = terminates;
+        this.constantReturn = constantReturn;
+        this.unusedParameters = Collections.unmodifiableSet(new TreeSet<>(unusedParameters));
+    }
+
+    public String getName() { return name; }
+    public boolean isRecursive() { return recursive; }
+    public boolean isPure() { return pure; }
+    public boolean alwaysTerminates() { return terminates; }
+
+    /** Valor que devuelve siempre, o null si no es constante. */
+    public Long getConstantReturn() { return constantReturn; }
+
+    /** Posiciones (desde 0) de los parametros que la funcion no usa. */
+    public Set<Integer> getUnusedParameters() { return unusedParameters; }
+
+    /** Una llamada cuyo resultado no se usa se puede borrar sin cambiar nada. */
+    public boolean isRemovable() {
+        return pure && terminates;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %s%s%s%s%s", name,
+                pure ? "pura" : "con efectos",
+                terminates ? ", termina" : "",
+                recursive ? ", recursiva" : "",
+                constantReturn != null ? ", retorna " + constantReturn : "",
+                unusedParameters.isEmpty() ? "" : ", sin usar " + unusedParameters);
+    }
+}
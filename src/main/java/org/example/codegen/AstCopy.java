@@ -0,0 +1,317 @@
+package org.example.codegen;
+
+import java.util.*;
+import java.util.function.Function;
+import org.example.analysis.FunctionSummaries;
+import org.example.ast.*;
+
+/**
+ * Copias del AST para las transformaciones entre funciones.
+ *
+ * Las variables se sustituyen con un mapa nombre -> expresion hoja (otra
+ * variable o una constante); una asignacion a una variable sustituida pasa
+ * a la variable nueva. Cada if copiado recuerda el if del fuente del que
+ * sale, para seguir encontrando su entrada en el perfil de saltos.
+ */
+public class AstCopy {
+
+    private final Map<IfNode, IfNode> origins;
+
+    public AstCopy(Map<IfNode, IfNode> origins) {
+        this.origins = origins;
+    }
+
+    /** If del programa original del que sale 'node' (el mismo si no es copia). */
+    public IfNode origin(IfNode node) {
+        IfNode original = origins.get(node);
+        return original != null ? original : node;
+    }
+
+    /** If nuevo que reemplaza a 'old' conservando su origen. */
+    public IfNode newIf(IfNode old, ExpressionNode condition,
+                        List<StatementNode> thenBlock, List<StatementNode> elseBlock) {
+        IfNode node = new IfNode(condition, thenBlock, elseBlock);
+        origins.put(node, origin(old));
+        return node;
+    }
+
+    public List<StatementNode> statements(List<StatementNode> statements, Map<String, ExpressionNode> substitution) {
+        return statements(statements, substitution, ret -> Collections.singletonList(
+                new ReturnNode(expression(ret.getExpression(), substitution))));
+    }
+
+    /**
+     * Copia las sentencias; cada return se reemplaza por lo que devuelva
+     * 'onReturn' (que recibe el return original, sin copiar).
+     */
+    public List<StatementNode> statements(List<StatementNode> statements, Map<String, ExpressionNode> substitution,
+                                          Function<ReturnNode, List<StatementNode>> onReturn) {
+        if (statements == null) {
+            return null;
+        }
+        List<StatementNode> copy = new ArrayList<>();
+        for (StatementNode stmt : statements) {
+            if (stmt instanceof AssignmentNode) {
+                AssignmentNode assignment = (AssignmentNode) stmt;
+                copy.add(new AssignmentNode(rename(assignment.getIdentifier(), substitution),
+                        expression(assignment.getExpression(), substitution)));
+            } else if (stmt instanceof IfNode) {
+                IfNode ifNode = (IfNode) stmt;
+                copy.add(newIf(ifNode, expression(ifNode.getCondition(), substitution),
+                        statements(ifNode.getThenBlock(), substitution, onReturn),
+                        statements(ifNode.getElseBlock(), substitution, onReturn)));
+            } else if (stmt instanceof WhileNode) {
+                WhileNode whileNode = (WhileNode) stmt;
+                copy.add(new WhileNode(expression(whileNode.getCondition(), substitution),
+                        statements(whileNode.getBody(), substitution, onReturn)));
+            } else if (stmt instanceof ReturnNode) {
+                copy.addAll(onReturn.apply((ReturnNode) stmt));
+            } else if (stmt instanceof ExpressionStatementNode) {
+                copy.add(new ExpressionStatementNode(
+                        expression(((ExpressionStatementNode) stmt).getExpression(), substitution)));
+            } else {
+                copy.add(stmt);
+            }
+        }
+        return copy;
+    }
+
+    private static String rename(String name, Map<String, ExpressionNode> substitution) {
+        ExpressionNode replacement = substitution.get(name);
+        if (replacement == null) {
+            return name;
+        }
+        if (!(replacement instanceof VariableNode)) {
+            throw new RuntimeException("Asignacion a un parametro reemplazado por constante: " + name);
+        }
+        return ((VariableNode) replacement).getIdentifier();
+    }
+
+    public static ExpressionNode expression(ExpressionNode expression, Map<String, ExpressionNode> substitution) {
+        if (expression == null) {
+            return null;
+        }
+        if (expression instanceof VariableNode) {
+            String name = ((VariableNode) expression).getIdentifier();
+            ExpressionNode replacement = substitution.get(name);
+            return leaf(replacement != null ? replacement : expression);
+        }
+        if (expression instanceof NumberNode || expression instanceof BooleanNode) {
+            return leaf(expression);
+        }
+        if (expression instanceof BinaryOpNode) {
+            BinaryOpNode bin = (BinaryOpNode) expression;
+            return new BinaryOpNode(expression(bin.getLeft(), substitution), bin.getOperator(),
+                    expression(bin.getRight(), substitution));
+        }
+        if (expression instanceof ComparisonNode) {
+            ComparisonNode cmp = (ComparisonNode) expression;
+            return new ComparisonNode(expression(cmp.getLeft(), substitution), cmp.getOperator(),
+                    expression(cmp.getRight(), substitution));
+        }
+        if (expression instanceof LogicalOpNode) {
+            LogicalOpNode logical = (LogicalOpNode) expression;
+            if (logical.isUnary()) {
+                return new LogicalOpNode(logical.getOperator(), expression(logical.getLeft(), substitution));
+            }
+            return new LogicalOpNode(expression(logical.getLeft(), substitution), logical.getOperator(),
+                    expression(logical.getRight(), substitution));
+        }
+        if (expression instanceof FunctionCallNode) {
+            FunctionCallNode call = (FunctionCallNode) expression;
+            List<ExpressionNode> args = new ArrayList<>();
+            for (ExpressionNode arg : call.getArguments()) {
+                args.add(expression(arg, substitution));
+            }
+            return new FunctionCallNode(call.getFunctionName(), args);
+        }
+        throw new RuntimeException("Expresion no soportada: " + expression);
+    }
+
+    /** Nodo nuevo para una hoja (cada uso en el arbol es un objeto distinto). */
+    private static ExpressionNode leaf(ExpressionNode expression) {
+        if (expression instanceof VariableNode) {
+            return new VariableNode(((VariableNode) expression).getIdentifier());
+        }
+        if (expression instanceof NumberNode) {
+            return new NumberNode(((NumberNode) expression).getValue());
+        }
+        if (expression instanceof BooleanNode) {
+            return new BooleanNode(((BooleanNode) expression).getValue());
+        }
+        throw new RuntimeException("Sustitucion que no es una hoja: " + expression);
+    }
+
+    /**
+     * Reescribe el bloque para que despues de un return no siga nada: lo
+     * que sigue a un if cuya rama then siempre retorna pasa a la rama else
+     * (y al reves); lo que sigue a un return se descarta. Devuelve null si
+     * no se puede (un return dentro de un while, o uno que no cierra su rama
+     * con algo despues del if).
+     */
+    public List<StatementNode> tailReturns(List<StatementNode> statements) {
+        List<StatementNode> result = new ArrayList<>();
+        if (statements == null) {
+            return result;
+        }
+        for (int i = 0; i < statements.size(); i++) {
+            StatementNode stmt = statements.get(i);
+            List<StatementNode> rest = statements.subList(i + 1, statements.size());
+            if (stmt instanceof ReturnNode) {
+                result.add(stmt);
+                return result;
+            }
+            if (stmt instanceof WhileNode) {
+                if (containsReturn(((WhileNode) stmt).getBody())) {
+                    return null;
+                }
+                result.add(stmt);
+            } else if (stmt instanceof IfNode) {
+                IfNode ifNode = (IfNode) stmt;
+                List<StatementNode> thenBlock = tailReturns(ifNode.getThenBlock());
+                List<StatementNode> elseBlock = tailReturns(ifNode.getElseBlock());
+                if (thenBlock == null || elseBlock == null) {
+                    return null;
+                }
+                boolean thenReturns = FunctionSummaries.alwaysReturns(thenBlock);
+                boolean elseReturns = FunctionSummaries.alwaysReturns(elseBlock);
+                if (!rest.isEmpty() && thenReturns != elseReturns) {
+                    List<StatementNode> joined = new ArrayList<>(thenReturns ? elseBlock : thenBlock);
+                    joined.addAll(rest);
+                    joined = tailReturns(joined);
+                    if (joined == null) {
+                        return null;
+                    }
+                    result.add(newIf(ifNode, ifNode.getCondition(),
+                            thenReturns ? thenBlock : joined, thenReturns ? joined : elseBlock));
+                    return result;
+                }
+                result.add(newIf(ifNode, ifNode.getCondition(), thenBlock, elseBlock));
+                if (thenReturns && elseReturns) {
+                    return result;
+                }
+                if (containsReturn(thenBlock) || containsReturn(elseBlock)) {
+                    if (!rest.isEmpty()) {
+                        // Un return que no cierra su rama y algo despues del if
+                        return null;
+                    }
+                }
+            } else {
+                result.add(stmt);
+            }
+        }
+        return result;
+    }
+
+    public static boolean containsReturn(List<StatementNode> statements) {
+        if (statements == null) {
+            return false;
+        }
+        for (StatementNode stmt : statements) {
+            if (stmt instanceof ReturnNode) {
+                return true;
+            }
+            if (stmt instanceof IfNode
+                    && (containsReturn(((IfNode) stmt).getThenBlock()) || containsReturn(((IfNode) stmt).getElseBlock()))) {
+                return true;
+            }
+            if (stmt instanceof WhileNode && containsReturn(((WhileNode) stmt).getBody())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Tamaño en nodos del AST, la medida de costo de las transformaciones. */
+    public static int size(List<StatementNode> statements) {
+        int size = 0;
+        if (statements == null) {
+            return size;
+        }
+        for (StatementNode stmt : statements) {
+            size++;
+            if (stmt instanceof AssignmentNode) {
+                size += size(((AssignmentNode) stmt).getExpression());
+            } else if (stmt instanceof IfNode) {
+                IfNode ifNode = (IfNode) stmt;
+                size += size(ifNode.getCondition()) + size(ifNode.getThenBlock()) + size(ifNode.getElseBlock());
+            } else if (stmt instanceof WhileNode) {
+                size += size(((WhileNode) stmt).getCondition()) + size(((WhileNode) stmt).getBody());
+            } else if (stmt instanceof ReturnNode) {
+                size += size(((ReturnNode) stmt).getExpression());
+            } else if (stmt instanceof ExpressionStatementNode) {
+                size += size(((ExpressionStatementNode) stmt).getExpression());
+            }
+        }
+        return size;
+    }
+
+    public static int size(ExpressionNode expression) {
+        if (expression == null) {
+            return 0;
+        }
+        if (expression instanceof BinaryOpNode) {
+            return 1 + size(((BinaryOpNode) expression).getLeft()) + size(((BinaryOpNode) expression).getRight());
+        }
+        if (expression instanceof ComparisonNode) {
+            return 1 + size(((ComparisonNode) expression).getLeft()) + size(((ComparisonNode) expression).getRight());
+        }
+        if (expression instanceof LogicalOpNode) {
+            return 1 + size(((LogicalOpNode) expression).getLeft()) + size(((LogicalOpNode) expression).getRight());
+        }
+        if (expression instanceof FunctionCallNode) {
+            int size = 1;
+            for (ExpressionNode arg : ((FunctionCallNode) expression).getArguments()) {
+                size += size(arg);
+            }
+            return size;
+        }
+        return 1;
+    }
+
+    /** La expresion llama a una funcion o tiene una division que puede fallar (divisor 0 o MIN / -1). */
+    public static boolean mayFault(ExpressionNode expression) {
+        if (expression instanceof FunctionCallNode) {
+            return true;
+        }
+        if (expression instanceof BinaryOpNode) {
+            BinaryOpNode bin = (BinaryOpNode) expression;
+            if (FunctionSummaries.divisionMayFault(bin)) {
+                return true;
+            }
+            return mayFault(bin.getLeft()) || mayFault(bin.getRight());
+        }
+        if (expression instanceof ComparisonNode) {
+            return mayFault(((ComparisonNode) expression).getLeft())
+                    || mayFault(((ComparisonNode) expression).getRight());
+        }
+        if (expression instanceof LogicalOpNode) {
+            return mayFault(((LogicalOpNode) expression).getLeft())
+                    || mayFault(((LogicalOpNode) expression).getRight());
+        }
+        return false;
+    }
+
+    /** Variables que reciben alguna asignacion en las sentencias. */
+    public static Set<String> assignedVariables(List<StatementNode> statements) {
+        Set<String> assigned = new HashSet<>();
+        collectAssigned(statements, assigned);
+        return assigned;
+    }
+
+    private static void collectAssigned(List<StatementNode> statements, Set<String> assigned) {
+        if (statements == null) {
+            return;
+        }
+        for (StatementNode stmt : statements) {
+            if (stmt instanceof AssignmentNode) {
+                assigned.add(((AssignmentNode) stmt).getIdentifier());
+            } else if (stmt instanceof IfNode) {
+                collectAssigned(((IfNode) stmt).getThenBlock(), assigned);
+                collectAssigned(((IfNode) stmt).getElseBlock(), assigned);
+            } else if (stmt instanceof WhileNode) {
+                collectAssigned(((WhileNode) stmt).getBody(), assigned);
+            }
+        }
+    }
+}
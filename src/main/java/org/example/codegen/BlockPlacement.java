@@ -0,0 +1,305 @@
+package org.example.codegen;
+
+import java.util.*;
+import org.example.codegen.mir.*;
+
+/**
+ * Ubicacion estatica de bloques basicos.
+ *
+ * Con la frecuencia estimada de cada bloque (BlockFrequency) encadena los
+ * bloques siguiendo las aristas mas pesadas para que la caida siga el
+ * camino probable, rota los lazos para
+ * que la condicion quede al final, alinea las cabeceras de lazo y manda
+ * los bloques frios al final de la funcion. Por ultimo corrige los saltos
+ * para el orden nuevo.
+ */
+public class BlockPlacement {
+
+    // Un bloque que corre menos que esta fraccion de la entrada es frio
+    private static final double COLD_FRACTION = 0.3;
+    private static final double HOT_LOOP_FREQUENCY = 2.0;
+    private static final int LOOP_ALIGNMENT = 4;
+
+    private MachineFunction function;
+    private Map<String, BasicBlock> byLabel;
+    private Set<String> tableTargets;
+    private BlockFrequency estimate;
+    private int labelCounter;
+
+    private int movedBlocks;
+    private int coldBlocks;
+    private int rotatedLoops;
+    private int alignedLoops;
+
+    public int getMovedBlocks() { return movedBlocks; }
+    public int getColdBlocks() { return coldBlocks; }
+    public int getRotatedLoops() { return rotatedLoops; }
+    public int getAlignedLoops() { return alignedLoops; }
+
+    public void run(MachineProgram program) {
+        movedBlocks = 0;
+        coldBlocks = 0;
+        rotatedLoops = 0;
+        alignedLoops = 0;
+        tableTargets = new LinkedHashSet<>();
+        for (JumpTable table : program.getJumpTables()) {
+            tableTargets.addAll(table.getTargets());
+        }
+        for (MachineFunction f : program.getFunctions()) {
+            function = f;
+            labelCounter = 0;
+            place();
+        }
+    }
+
+    private void place() {
+        List<BasicBlock> blocks = function.getBlocks();
+        if (blocks.size() < 2) {
+            return;
+        }
+        byLabel = function.blocksByLabel();
+        estimate = new BlockFrequency(function, tableTargets);
+
+        List<BasicBlock> layout = layout();
+        for (int i = 0; i < layout.size(); i++) {
+            if (layout.get(i) != blocks.get(i)) {
+                movedBlocks++;
+            }
+        }
+        blocks.clear();
+        blocks.addAll(layout);
+        fixBranches();
+        alignLoops();
+    }
+
+    private boolean isCold(BasicBlock block) {
+        if (block == function.getEntry()) {
+            return false;
+        }
+        // Un retorno desde dentro de un lazo corre a lo sumo una vez por llamada
+        if (BlockFrequency.returns(block) && estimate.loopOf(block) != null) {
+            return true;
+        }
+        return estimate.frequency(block) < COLD_FRACTION;
+    }
+
+    // ------------------------------------------------------------------
+    // Cadenas y orden final
+    // ------------------------------------------------------------------
+
+    private List<BasicBlock> layout() {
+        List<BasicBlock> blocks = function.getBlocks();
+        Map<BasicBlock, Integer> position = new HashMap<>();
+        Map<BasicBlock, List<BasicBlock>> chainOf = new HashMap<>();
+        for (int i = 0; i < blocks.size(); i++) {
+            BasicBlock block = blocks.get(i);
+            position.put(block, i);
+            List<BasicBlock> chain = new ArrayList<>();
+            chain.add(block);
+            chainOf.put(block, chain);
+        }
+
+        // Aristas de mas pesada a mas liviana; empate por orden original
+        List<BasicBlock[]> edges = new ArrayList<>();
+        Map<BasicBlock[], Double> weight = new HashMap<>();
+        for (BasicBlock block : blocks) {
+            List<BasicBlock> succ = estimate.successors(block);
+            if (block.getLast() != null && block.getLast().isIndirectJump()) {
+                continue;
+            }
+            for (int i = 0; i < succ.size(); i++) {
+                BasicBlock[] edge = { block, succ.get(i) };
+                edges.add(edge);
+                weight.put(edge, estimate.frequency(block) * estimate.probabilities(block).get(i));
+            }
+        }
+        edges.sort((a, b) -> {
+            int byWeight = Double.compare(weight.get(b), weight.get(a));
+            if (byWeight != 0) {
+                return byWeight;
+            }
+            int bySource = Integer.compare(position.get(a[0]), position.get(b[0]));
+            return bySource != 0 ? bySource : Integer.compare(position.get(a[1]), position.get(b[1]));
+        });
+
+        BasicBlock entry = function.getEntry();
+        for (BasicBlock[] edge : edges) {
+            List<BasicBlock> from = chainOf.get(edge[0]);
+            List<BasicBlock> to = chainOf.get(edge[1]);
+            if (from == to || edge[1] == entry
+                    || from.get(from.size() - 1) != edge[0] || to.get(0) != edge[1]
+                    || isCold(edge[0]) != isCold(edge[1])) {
+                continue;
+            }
+            from.addAll(to);
+            for (BasicBlock block : to) {
+                chainOf.put(block, from);
+            }
+        }
+
+        List<List<BasicBlock>> chains = new ArrayList<>();
+        for (BasicBlock block : blocks) {
+            List<BasicBlock> chain = chainOf.get(block);
+            if (!chains.contains(chain)) {
+                chains.add(chain);
+            }
+        }
+        for (List<BasicBlock> chain : chains) {
+            rotateLoops(chain);
+        }
+
+        // La cadena de la entrada primero; despues la que sigue mas
+        // probablemente a la ultima ubicada, o la primera en el orden original
+        List<BasicBlock> layout = new ArrayList<>();
+        Set<List<BasicBlock>> placed = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<BasicBlock> current = chainOf.get(entry);
+        while (current != null) {
+            layout.addAll(current);
+            placed.add(current);
+            current = nextChain(current.get(current.size() - 1), chains, chainOf, placed);
+        }
+        for (List<BasicBlock> chain : chains) {
+            if (!placed.contains(chain)) {
+                layout.addAll(chain);
+                coldBlocks += chain.size();
+            }
+        }
+        return layout;
+    }
+
+    private List<BasicBlock> nextChain(BasicBlock tail, List<List<BasicBlock>> chains,
+                                       Map<BasicBlock, List<BasicBlock>> chainOf,
+                                       Set<List<BasicBlock>> placed) {
+        List<BasicBlock> best = null;
+        double bestProbability = -1;
+        List<BasicBlock> succ = estimate.successors(tail);
+        for (int i = 0; i < succ.size(); i++) {
+            List<BasicBlock> chain = chainOf.get(succ.get(i));
+            double p = estimate.probabilities(tail).get(i);
+            if (!placed.contains(chain) && chain.get(0) == succ.get(i) && !isColdChain(chain) && p > bestProbability) {
+                best = chain;
+                bestProbability = p;
+            }
+        }
+        if (best != null) {
+            return best;
+        }
+        for (List<BasicBlock> chain : chains) {
+            if (!placed.contains(chain) && !isColdChain(chain)) {
+                return chain;
+            }
+        }
+        return null;
+    }
+
+    private boolean isColdChain(List<BasicBlock> chain) {
+        for (BasicBlock block : chain) {
+            if (!isCold(block)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Dentro de una cadena, un lazo que va de su cabecera (que solo decide
+     * la salida) al bloque que vuelve a ella con un jmp se rota: la cabecera
+     * pasa al final y cada vuelta ejecuta un jcc hacia atras en vez de un
+     * jcc mas un jmp. Entrar al lazo cuesta un jmp, una sola vez.
+     */
+    private void rotateLoops(List<BasicBlock> chain) {
+        Set<BasicBlock> rotated = new HashSet<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int h = 0; h < chain.size() && !changed; h++) {
+                BasicBlock header = chain.get(h);
+                if (rotated.contains(header) || !canRotate(header)) {
+                    continue;
+                }
+                Set<BasicBlock> loop = estimate.loopOf(header);
+                for (int l = h + 1; l < chain.size() && loop.contains(chain.get(l)); l++) {
+                    Instruction back = chain.get(l).getLast();
+                    if (back != null && back.is(Opcode.JMP) && header.getLabel().equals(back.getTarget())) {
+                        chain.remove(h);
+                        chain.add(l, header);
+                        rotated.add(header);
+                        rotatedLoops++;
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean canRotate(BasicBlock header) {
+        Instruction exit = header.getLast();
+        if (!estimate.getHeaders().contains(header) || header == function.getEntry()
+                || exit == null || !exit.is(Opcode.JCC)) {
+            return false;
+        }
+        Set<BasicBlock> loop = estimate.loopOf(header);
+        BasicBlock target = byLabel.get(exit.getTarget());
+        return loop != null && target != null && !loop.contains(target);
+    }
+
+    /**
+     * Ajusta los saltos al orden nuevo: invierte el jcc cuyo destino quedo
+     * a continuacion, quita los jmp al bloque siguiente y agrega un jmp
+     * donde se perdio una caida.
+     */
+    private void fixBranches() {
+        List<BasicBlock> blocks = function.getBlocks();
+        for (int i = 0; i < blocks.size(); i++) {
+            BasicBlock block = blocks.get(i);
+            BasicBlock next = i + 1 < blocks.size() ? blocks.get(i + 1) : null;
+            BasicBlock fall = estimate.fallThrough(block);
+            Instruction last = block.getLast();
+
+            if (last != null && last.is(Opcode.JMP) && !last.isIndirectJump()
+                    && next != null && next.getLabel().equals(last.getTarget())) {
+                block.getInstructions().remove(block.size() - 1);
+                continue;
+            }
+            if (fall == null || fall == next) {
+                continue;
+            }
+            if (last != null && last.is(Opcode.JCC)) {
+                if (next != null && next.getLabel().equals(last.getTarget())) {
+                    block.getInstructions().set(block.size() - 1,
+                            Instruction.branch(last.getCondition().negate(), fall.getLabel()));
+                } else {
+                    BasicBlock jump = new BasicBlock(".L" + function.getName() + "_p" + labelCounter++);
+                    jump.add(Instruction.jump(fall.getLabel()));
+                    blocks.add(i + 1, jump);
+                    i++;
+                }
+            } else {
+                block.add(Instruction.jump(fall.getLabel()));
+            }
+        }
+    }
+
+    /**
+     * Alinea a 16 bytes el primer bloque de cada lazo caliente en el orden
+     * final, que es el destino del salto hacia atras.
+     */
+    private void alignLoops() {
+        for (BasicBlock header : estimate.getHeaders()) {
+            Set<BasicBlock> loop = estimate.loopOf(header);
+            if (loop == null || estimate.frequency(header) < HOT_LOOP_FREQUENCY) {
+                continue;
+            }
+            for (BasicBlock block : function.getBlocks()) {
+                if (loop.contains(block)) {
+                    if (block.getAlignment() < LOOP_ALIGNMENT) {
+                        block.setAlignment(LOOP_ALIGNMENT);
+                        alignedLoops++;
+                    }
+                    break;
+                }
+            }
+        }
+    }
+}
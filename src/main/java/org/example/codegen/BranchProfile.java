@@ -0,0 +1,92 @@
+package org.example.codegen;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.*;
+import org.example.ast.*;
+
+/**
+ * Perfil de saltos leido de un archivo de texto con una linea por if:
+ *
+ *   # funcion indice veces_then veces_else
+ *   main 0 120 880
+ *
+ * El indice es la posicion del if dentro de su funcion contando en orden
+ * de aparicion en el codigo fuente (incluidos los ifs anidados).
+ */
+public class BranchProfile {
+
+    private final Map<String, long[]> counts;
+
+    public BranchProfile() {
+        this.counts = new HashMap<>();
+    }
+
+    public static BranchProfile load(String path) throws IOException {
+        BranchProfile profile = new BranchProfile();
+        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\\s+");
+                if (parts.length != 4) {
+                    throw new IOException("perfil invalido en linea " + lineNumber + ": " + line);
+                }
+                try {
+                    profile.record(parts[0], Integer.parseInt(parts[1]),
+                            Long.parseLong(parts[2]), Long.parseLong(parts[3]));
+                } catch (NumberFormatException e) {
+                    throw new IOException("perfil invalido en linea " + lineNumber + ": " + line);
+                }
+            }
+        }
+        return profile;
+    }
+
+    public void record(String function, int ifIndex, long thenCount, long elseCount) {
+        counts.put(function + "#" + ifIndex, new long[] { thenCount, elseCount });
+    }
+
+    /**
+     * Probabilidad observada de ejecutar la rama then, o null si el if no
+     * aparece en el perfil o nunca se ejecuto.
+     */
+    public Double getThenProbability(String function, int ifIndex) {
+        long[] c = counts.get(function + "#" + ifIndex);
+        if (c == null || c[0] + c[1] == 0) {
+            return null;
+        }
+        return (double) c[0] / (c[0] + c[1]);
+    }
+
+    /**
+     * Numera los ifs de un cuerpo de funcion en orden de aparicion.
+     */
+    public static Map<IfNode, Integer> numberIfs(List<StatementNode> body) {
+        Map<IfNode, Integer> indices = new IdentityHashMap<>();
+        numberIfs(body, indices);
+        return indices;
+    }
+
+    private static void numberIfs(List<StatementNode> block, Map<IfNode, Integer> indices) {
+        if (block == null) {
+            return;
+        }
+        for (StatementNode stmt : block) {
+            if (stmt instanceof IfNode) {
+                IfNode ifNode = (IfNode) stmt;
+                indices.put(ifNode, indices.size());
+                numberIfs(ifNode.getThenBlock(), indices);
+                numberIfs(ifNode.getElseBlock(), indices);
+            } else if (stmt instanceof WhileNode) {
+                numberIfs(((WhileNode) stmt).getBody(), indices);
+            }
+        }
+    }
+}
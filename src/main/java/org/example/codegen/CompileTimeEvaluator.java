@@ -0,0 +1,336 @@
+package org.example.codegen;
+
+import java.util.*;
+import org.example.analysis.CallGraph;
+import org.example.analysis.FunctionSummaries;
+import org.example.analysis.FunctionSummary;
+import org.example.ast.*;
+
+/**
+ * Evaluacion en compilacion de llamadas puras con argumentos constantes.
+ *
+ * Un interprete del AST ejecuta la llamada con la misma aritmetica que el
+ * codigo generado (int de 32 o 64 bits que desborda) y la reemplaza por el
+ * resultado, que despues se sigue plegando: fib(20) / 1000 queda en 6.
+ * Cada llamada tiene 'fuel' pasos; si se agotan, si la ejecucion divide
+ * por cero, recurre mas de MAX_DEPTH niveles, el resultado no entra en
+ * 32 bits o un bool no da 0 ni 1, la llamada queda como estaba. Los resultados de las llamadas
+ * internas se recuerdan (las funciones son puras), asi una recursion como
+ * fib cuesta pasos lineales. Una llamada a una funcion de retorno
+ * constante (segun FunctionSummaries) se reemplaza aunque sus argumentos
+ * no sean constantes, si evaluarlos no puede fallar.
+ */
+public class CompileTimeEvaluator {
+
+    public static final long DEFAULT_FUEL = 1_000_000L;
+    public static final int MAX_DEPTH = 256;
+
+    private final long fuelPerCall;
+    private final int intBits;
+    private final ConstantFolder folder;
+
+    private Map<String, FunctionDeclarationNode> functions;
+    private FunctionSummaries summaries;
+    private Map<String, Long> results;
+    private Set<String> failed;
+    private long fuel;
+    private int depth;
+
+    private int evaluatedCalls;
+    private int exhaustedCalls;
+    private int constantCalls;
+
+    /**
+     * Detiene la evaluacion de una llamada (la llamada no se reemplaza).
+     * 'retry': el motivo depende de donde empezo la evaluacion (combustible
+     * o profundidad), no de los argumentos.
+     */
+    private static class Stop extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final boolean retry;
+
+        Stop(String message) {
+            this(message, false);
+        }
+
+        Stop(String message, boolean retry) {
+            super(message);
+            this.retry = retry;
+        }
+    }
+
+    public CompileTimeEvaluator(long fuelPerCall, int intBits, Map<IfNode, IfNode> origins) {
+        this.fuelPerCall = fuelPerCall;
+        this.intBits = intBits;
+        this.folder = new ConstantFolder(new AstCopy(origins));
+    }
+
+    public int getEvaluatedCalls() { return evaluatedCalls; }
+    public int getExhaustedCalls() { return exhaustedCalls; }
+    public int getConstantCalls() { return constantCalls; }
+    public int getFoldedExpressions() { return folder.getFoldedExpressions(); }
+    public int getRemovedBranches() { return folder.getRemovedBranches(); }
+
+    public ProgramNode run(ProgramNode program) {
+        functions = new HashMap<>();
+        for (FunctionDeclarationNode function : program.getFunctions()) {
+            functions.put(function.getIdentifier(), function);
+        }
+        summaries = FunctionSummaries.compute(program, CallGraph.build(program));
+        results = new HashMap<>();
+        failed = new HashSet<>();
+
+        List<FunctionDeclarationNode> rewritten = new ArrayList<>();
+        for (FunctionDeclarationNode function : program.getFunctions()) {
+            rewritten.add(new FunctionDeclarationNode(function.getReturnType(), function.getIdentifier(),
+                    function.getParameters(), function.getLocalDeclarations(),
+                    folder.fold(function.getBody(), this::replace)));
+        }
+        MainFunctionNode main = program.getMainFunction();
+        return new ProgramNode(program.getReturnType(), rewritten,
+                new MainFunctionNode(main.getDeclarations(), folder.fold(main.getStatements(), this::replace)));
+    }
+
+    /** El resultado de la llamada si se pudo calcular; si no, la llamada. */
+    private ExpressionNode replace(FunctionCallNode call) {
+        FunctionDeclarationNode function = functions.get(call.getFunctionName());
+        FunctionSummary summary = summaries.get(call.getFunctionName());
+        if (function == null || summary == null || !summary.isPure() || function.getReturnType().equals("void")) {
+            return call;
+        }
+        if (summary.getConstantReturn() != null && withoutFaults(call.getArguments())) {
+            // Siempre termina y devuelve lo mismo: no hace falta ejecutarla
+            ExpressionNode constant = constant(function, summary.getConstantReturn());
+            if (constant != null) {
+                constantCalls++;
+                return constant;
+            }
+        }
+        List<Long> args = new ArrayList<>();
+        for (ExpressionNode arg : call.getArguments()) {
+            if (arg instanceof NumberNode) {
+                args.add((long) ((NumberNode) arg).getValue());
+            } else if (arg instanceof BooleanNode) {
+                args.add(((BooleanNode) arg).getValue() ? 1L : 0L);
+            } else {
+                return call;
+            }
+        }
+        fuel = fuelPerCall;
+        depth = 0;
+        long value;
+        try {
+            value = call(function, args);
+        } catch (Stop stop) {
+            if (fuel < 0) {
+                exhaustedCalls++;
+            }
+            return call;
+        }
+        ExpressionNode constant = constant(function, value);
+        if (constant == null) {
+            return call;
+        }
+        evaluatedCalls++;
+        return constant;
+    }
+
+    /**
+     * Constante que reemplaza al resultado, o null si no se puede: un bool
+     * puede devolver cualquier int y el codigo generado lo deja tal cual.
+     */
+    private static ExpressionNode constant(FunctionDeclarationNode function, long value) {
+        if (function.getReturnType().equals("bool")) {
+            return value == 0 || value == 1 ? new BooleanNode(value == 1) : null;
+        }
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            return null;
+        }
+        return new NumberNode((int) value);
+    }
+
+    /** Los argumentos se pueden dejar de evaluar sin perder una division que falla. */
+    private static boolean withoutFaults(List<ExpressionNode> args) {
+        for (ExpressionNode arg : args) {
+            if (AstCopy.mayFault(arg)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ------------------------------------------------------------------
+    // Interprete
+
+    private long call(FunctionDeclarationNode function, List<Long> args) {
+        String key = function.getIdentifier() + args;
+        Long known = results.get(key);
+        if (known != null) {
+            return known;
+        }
+        if (failed.contains(key)) {
+            throw new Stop("ya fallo");
+        }
+        if (depth >= MAX_DEPTH) {
+            throw new Stop("demasiada profundidad", true);
+        }
+        Map<String, Long> variables = new HashMap<>();
+        for (int i = 0; i < function.getParameters().size(); i++) {
+            variables.put(function.getParameters().get(i).getIdentifier(), args.get(i));
+        }
+        for (DeclarationNode decl : function.getLocalDeclarations()) {
+            variables.put(decl.getIdentifier(), 0L);
+        }
+        Long value;
+        depth++;
+        try {
+            value = execute(function.getBody(), variables);
+        } catch (Stop stop) {
+            if (!stop.retry) {
+                failed.add(key);
+            }
+            throw stop;
+        } finally {
+            depth--;
+        }
+        if (value == null) {
+            if (!function.getReturnType().equals("void")) {
+                throw new Stop("termina sin return");
+            }
+            value = 0L;
+        }
+        results.put(key, value);
+        return value;
+    }
+
+    /** Valor del return ejecutado, o null si las sentencias terminan sin return. */
+    private Long execute(List<StatementNode> statements, Map<String, Long> variables) {
+        if (statements == null) {
+            return null;
+        }
+        for (StatementNode stmt : statements) {
+            step();
+            if (stmt instanceof AssignmentNode) {
+                AssignmentNode assignment = (AssignmentNode) stmt;
+                variables.put(assignment.getIdentifier(), evaluate(assignment.getExpression(), variables));
+            } else if (stmt instanceof IfNode) {
+                IfNode ifNode = (IfNode) stmt;
+                Long value = execute(evaluate(ifNode.getCondition(), variables) != 0
+                        ? ifNode.getThenBlock() : ifNode.getElseBlock(), variables);
+                if (value != null) {
+                    return value;
+                }
+            } else if (stmt instanceof WhileNode) {
+                WhileNode whileNode = (WhileNode) stmt;
+                while (evaluate(whileNode.getCondition(), variables) != 0) {
+                    Long value = execute(whileNode.getBody(), variables);
+                    if (value != null) {
+                        return value;
+                    }
+                    step();
+                }
+            } else if (stmt instanceof ReturnNode) {
+                ExpressionNode expression = ((ReturnNode) stmt).getExpression();
+                return expression != null ? evaluate(expression, variables) : 0L;
+            } else if (stmt instanceof ExpressionStatementNode) {
+                evaluate(((ExpressionStatementNode) stmt).getExpression(), variables);
+            } else {
+                throw new Stop("sentencia no soportada");
+            }
+        }
+        return null;
+    }
+
+    private long evaluate(ExpressionNode expression, Map<String, Long> variables) {
+        step();
+        if (expression instanceof NumberNode) {
+            return wrap(((NumberNode) expression).getValue());
+        }
+        if (expression instanceof BooleanNode) {
+            return ((BooleanNode) expression).getValue() ? 1 : 0;
+        }
+        if (expression instanceof VariableNode) {
+            Long value = variables.get(((VariableNode) expression).getIdentifier());
+            if (value == null) {
+                throw new Stop("variable desconocida");
+            }
+            return value;
+        }
+        if (expression instanceof BinaryOpNode) {
+            BinaryOpNode bin = (BinaryOpNode) expression;
+            return arithmetic(bin.getOperator(), evaluate(bin.getLeft(), variables), evaluate(bin.getRight(), variables));
+        }
+        if (expression instanceof ComparisonNode) {
+            ComparisonNode cmp = (ComparisonNode) expression;
+            long l = evaluate(cmp.getLeft(), variables);
+            long r = evaluate(cmp.getRight(), variables);
+            return compare(cmp.getOperator(), l, r) ? 1 : 0;
+        }
+        if (expression instanceof LogicalOpNode) {
+            LogicalOpNode logical = (LogicalOpNode) expression;
+            boolean left = evaluate(logical.getLeft(), variables) != 0;
+            if (logical.isUnary()) {
+                return left ? 0 : 1;
+            }
+            boolean isAnd = logical.getOperator().equals("&&");
+            if (left != isAnd) {
+                return left ? 1 : 0;
+            }
+            return evaluate(logical.getRight(), variables) != 0 ? 1 : 0;
+        }
+        if (expression instanceof FunctionCallNode) {
+            FunctionCallNode call = (FunctionCallNode) expression;
+            FunctionDeclarationNode function = functions.get(call.getFunctionName());
+            if (function == null) {
+                throw new Stop("funcion desconocida");
+            }
+            List<Long> args = new ArrayList<>();
+            for (ExpressionNode arg : call.getArguments()) {
+                args.add(evaluate(arg, variables));
+            }
+            return call(function, args);
+        }
+        throw new Stop("expresion no soportada");
+    }
+
+    /** Aritmetica del codigo generado: idiv falla con divisor 0 o MIN / -1. */
+    private long arithmetic(String op, long l, long r) {
+        switch (op) {
+            case "+": return wrap(l + r);
+            case "-": return wrap(l - r);
+            case "*": return wrap(l * r);
+            case "/":
+                long min = intBits == 32 ? Integer.MIN_VALUE : Long.MIN_VALUE;
+                if (r == 0 || (l == min && r == -1)) {
+                    throw new Stop("division invalida");
+                }
+                return wrap(l / r);
+            default:
+                throw new Stop("operador no soportado");
+        }
+    }
+
+    private static boolean compare(String op, long l, long r) {
+        switch (op) {
+            case "==": return l == r;
+            case "!=": return l != r;
+            case "<":  return l < r;
+            case "<=": return l <= r;
+            case ">":  return l > r;
+            case ">=": return l >= r;
+            default:
+                throw new Stop("comparacion no soportada");
+        }
+    }
+
+    private long wrap(long value) {
+        return intBits == 32 ? (int) value : value;
+    }
+
+    private void step() {
+        if (--fuel < 0) {
+            throw new Stop("combustible agotado", true);
+        }
+    }
+}
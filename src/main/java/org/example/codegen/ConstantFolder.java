@@ -0,0 +1,201 @@
+package org.example.codegen;
+
+import java.util.*;
+import java.util.function.Function;
+import org.example.analysis.FunctionSummaries;
+import org.example.ast.*;
+
+/**
+ * Plegado de constantes sobre el AST.
+ *
+ * Las operaciones entre constantes se calculan (si el resultado entra en
+ * 32 bits, asi vale con cualquier ancho de int), se simplifican los
+ * neutros (x + 0, x * 1, x / 1, true && c, ...) y un if o while con
+ * condicion constante se reemplaza por la rama que corresponde. x * 0 y
+ * c && false solo se pliegan si x o c no llaman a nada ni tienen una
+ * division que puede fallar (por 0 o MIN / -1).
+ */
+public class ConstantFolder {
+
+    private final AstCopy copier;
+
+    private int foldedExpressions;
+    private int removedBranches;
+
+    public ConstantFolder(AstCopy copier) {
+        this.copier = copier;
+    }
+
+    public int getFoldedExpressions() { return foldedExpressions; }
+    public int getRemovedBranches() { return removedBranches; }
+
+    public List<StatementNode> fold(List<StatementNode> statements) {
+        return fold(statements, call -> call);
+    }
+
+    /**
+     * Pliega las sentencias; cada llamada (con sus argumentos ya plegados)
+     * se reemplaza por lo que devuelva 'onCall'. Una sentencia que queda
+     * reducida a una constante se descarta.
+     */
+    public List<StatementNode> fold(List<StatementNode> statements, Function<FunctionCallNode, ExpressionNode> onCall) {
+        if (statements == null) {
+            return null;
+        }
+        List<StatementNode> result = new ArrayList<>();
+        for (StatementNode stmt : statements) {
+            if (stmt instanceof AssignmentNode) {
+                AssignmentNode assignment = (AssignmentNode) stmt;
+                result.add(new AssignmentNode(assignment.getIdentifier(), fold(assignment.getExpression(), onCall)));
+            } else if (stmt instanceof IfNode) {
+                IfNode ifNode = (IfNode) stmt;
+                ExpressionNode condition = fold(ifNode.getCondition(), onCall);
+                if (condition instanceof BooleanNode) {
+                    removedBranches++;
+                    List<StatementNode> taken = ((BooleanNode) condition).getValue()
+                            ? ifNode.getThenBlock() : ifNode.getElseBlock();
+                    if (taken != null) {
+                        result.addAll(fold(taken, onCall));
+                    }
+                } else {
+                    result.add(copier.newIf(ifNode, condition,
+                            fold(ifNode.getThenBlock(), onCall), fold(ifNode.getElseBlock(), onCall)));
+                }
+            } else if (stmt instanceof WhileNode) {
+                WhileNode whileNode = (WhileNode) stmt;
+                ExpressionNode condition = fold(whileNode.getCondition(), onCall);
+                if (condition instanceof BooleanNode && !((BooleanNode) condition).getValue()) {
+                    removedBranches++;
+                } else {
+                    result.add(new WhileNode(condition, fold(whileNode.getBody(), onCall)));
+                }
+            } else if (stmt instanceof ReturnNode) {
+                result.add(new ReturnNode(fold(((ReturnNode) stmt).getExpression(), onCall)));
+            } else if (stmt instanceof ExpressionStatementNode) {
+                ExpressionNode expression = fold(((ExpressionStatementNode) stmt).getExpression(), onCall);
+                if (!(expression instanceof NumberNode || expression instanceof BooleanNode)) {
+                    result.add(new ExpressionStatementNode(expression));
+                }
+            } else {
+                result.add(stmt);
+            }
+        }
+        return result;
+    }
+
+    private ExpressionNode fold(ExpressionNode expression, Function<FunctionCallNode, ExpressionNode> onCall) {
+        if (expression instanceof BinaryOpNode) {
+            BinaryOpNode bin = (BinaryOpNode) expression;
+            return arithmetic(fold(bin.getLeft(), onCall), bin.getOperator(), fold(bin.getRight(), onCall));
+        }
+        if (expression instanceof ComparisonNode) {
+            ComparisonNode cmp = (ComparisonNode) expression;
+            ExpressionNode left = fold(cmp.getLeft(), onCall);
+            ExpressionNode right = fold(cmp.getRight(), onCall);
+            Long l = constant(left);
+            Long r = constant(right);
+            if (l != null && r != null) {
+                foldedExpressions++;
+                return new BooleanNode(compare(cmp.getOperator(), l, r));
+            }
+            return new ComparisonNode(left, cmp.getOperator(), right);
+        }
+        if (expression instanceof LogicalOpNode) {
+            return logical((LogicalOpNode) expression, onCall);
+        }
+        if (expression instanceof FunctionCallNode) {
+            FunctionCallNode call = (FunctionCallNode) expression;
+            List<ExpressionNode> args = new ArrayList<>();
+            for (ExpressionNode arg : call.getArguments()) {
+                args.add(fold(arg, onCall));
+            }
+            return onCall.apply(new FunctionCallNode(call.getFunctionName(), args));
+        }
+        return expression;
+    }
+
+    private ExpressionNode arithmetic(ExpressionNode left, String op, ExpressionNode right) {
+        Long l = number(left);
+        Long r = number(right);
+        if (l != null && r != null) {
+            Long value = FunctionSummaries.fold(op, l, r);
+            if (value != null) {
+                foldedExpressions++;
+                return new NumberNode(value.intValue());
+            }
+        }
+        ExpressionNode simplified = null;
+        if ((op.equals("+") && isNumber(r, 0)) || (op.equals("-") && isNumber(r, 0))
+                || (op.equals("*") && isNumber(r, 1)) || (op.equals("/") && isNumber(r, 1))) {
+            simplified = left;
+        } else if ((op.equals("+") && isNumber(l, 0)) || (op.equals("*") && isNumber(l, 1))) {
+            simplified = right;
+        } else if (op.equals("*") && ((isNumber(r, 0) && !AstCopy.mayFault(left))
+                || (isNumber(l, 0) && !AstCopy.mayFault(right)))) {
+            simplified = new NumberNode(0);
+        }
+        if (simplified != null) {
+            foldedExpressions++;
+            return simplified;
+        }
+        return new BinaryOpNode(left, op, right);
+    }
+
+    private ExpressionNode logical(LogicalOpNode logical, Function<FunctionCallNode, ExpressionNode> onCall) {
+        ExpressionNode left = fold(logical.getLeft(), onCall);
+        if (logical.isUnary()) {
+            if (left instanceof BooleanNode) {
+                foldedExpressions++;
+                return new BooleanNode(!((BooleanNode) left).getValue());
+            }
+            return new LogicalOpNode(logical.getOperator(), left);
+        }
+        ExpressionNode right = fold(logical.getRight(), onCall);
+        boolean isAnd = logical.getOperator().equals("&&");
+        if (left instanceof BooleanNode) {
+            // true && c = c, false && c = false (c no se evalua)
+            foldedExpressions++;
+            return ((BooleanNode) left).getValue() == isAnd ? right : new BooleanNode(!isAnd);
+        }
+        if (right instanceof BooleanNode) {
+            if (((BooleanNode) right).getValue() == isAnd) {
+                foldedExpressions++;
+                return left;
+            }
+            if (!AstCopy.mayFault(left)) {
+                foldedExpressions++;
+                return new BooleanNode(!isAnd);
+            }
+        }
+        return new LogicalOpNode(left, logical.getOperator(), right);
+    }
+
+    private static boolean compare(String op, long l, long r) {
+        switch (op) {
+            case "==": return l == r;
+            case "!=": return l != r;
+            case "<":  return l < r;
+            case "<=": return l <= r;
+            case ">":  return l > r;
+            case ">=": return l >= r;
+            default:
+                throw new RuntimeException("Operador de comparacion desconocido: " + op);
+        }
+    }
+
+    private static Long number(ExpressionNode expression) {
+        return expression instanceof NumberNode ? (long) ((NumberNode) expression).getValue() : null;
+    }
+
+    /** Valor de una constante entera o booleana (true = 1). */
+    private static Long constant(ExpressionNode expression) {
+        if (expression instanceof BooleanNode) {
+            return ((BooleanNode) expression).getValue() ? 1L : 0L;
+        }
+        return number(expression);
+    }
+
+    private static boolean isNumber(Long value, long expected) {
+        return value != null && value == expected;
+    }
+}
@@ -0,0 +1,236 @@
+package org.example.codegen;
+
+import java.util.*;
+import org.example.analysis.CallGraph;
+import org.example.analysis.FunctionSummaries;
+import org.example.analysis.FunctionSummary;
+import org.example.ast.*;
+
+/**
+ * Eliminacion de argumentos muertos y de resultados que nadie usa.
+ *
+ *   int log(int x, int level) {              void log(int x) {
+ *       total(x);                    =>          total(x);
+ *       return x;                                return;
+ *   }                                        }
+ *   ... log(a, 3); log(b, 4);                ... log(a); log(b);
+ *
+ * Un parametro que la funcion no lee (segun FunctionSummaries) se quita de
+ * la funcion y de todas sus llamadas, siempre que en ninguna el argumento
+ * pueda tener efectos: solo variables, constantes, operaciones sin
+ * divisiones que puedan fallar y llamadas a funciones puras que siempre
+ * terminan. Si el cuerpo asigna el parametro, pasa a ser un local.
+ *
+ * Una funcion cuyas llamadas son todas sentencias sueltas (o su propio
+ * return f(..)) pasa a ser void: sus return dejan de calcular el valor,
+ * salvo lo que puede tener efectos, que queda como sentencia.
+ *
+ * Quitar un argumento puede dejar sin leer un parametro del llamador, asi
+ * que se repite hasta que no cambia nada.
+ */
+public class DeadArgumentElimination {
+
+    private final AstCopy copier;
+
+    private FunctionSummaries summaries;
+    // Posiciones de argumento que se quitan, por funcion
+    private Map<String, Set<Integer>> deadPositions;
+
+    private int removedParameters;
+    private int voidFunctions;
+
+    public DeadArgumentElimination(Map<IfNode, IfNode> origins) {
+        this.copier = new AstCopy(origins);
+    }
+
+    public int getRemovedParameters() { return removedParameters; }
+    public int getVoidFunctions() { return voidFunctions; }
+
+    public ProgramNode run(ProgramNode program) {
+        while (true) {
+            summaries = FunctionSummaries.compute(program, CallGraph.build(program));
+            deadPositions = deadParameters(program);
+            Set<String> ignored = ignoredResults(program);
+            if (deadPositions.isEmpty() && ignored.isEmpty()) {
+                return program;
+            }
+            program = rewrite(program, ignored);
+        }
+    }
+
+    private ProgramNode rewrite(ProgramNode program, Set<String> ignored) {
+        ConstantFolder folder = new ConstantFolder(copier);
+        List<FunctionDeclarationNode> functions = new ArrayList<>();
+        for (FunctionDeclarationNode function : program.getFunctions()) {
+            String name = function.getIdentifier();
+            List<ParameterNode> params = new ArrayList<>();
+            List<DeclarationNode> locals = new ArrayList<>(function.getLocalDeclarations());
+            Set<Integer> dead = deadPositions.getOrDefault(name, Collections.emptySet());
+            Set<String> assigned = AstCopy.assignedVariables(function.getBody());
+            for (int i = 0; i < function.getParameters().size(); i++) {
+                ParameterNode param = function.getParameters().get(i);
+                if (!dead.contains(i)) {
+                    params.add(param);
+                } else if (assigned.contains(param.getIdentifier())) {
+                    locals.add(new VariableDeclarationNode(param.getType(), param.getIdentifier()));
+                }
+            }
+            removedParameters += dead.size();
+
+            String returnType = function.getReturnType();
+            List<StatementNode> body = function.getBody();
+            if (ignored.contains(name)) {
+                returnType = "void";
+                body = copier.statements(body, Collections.emptyMap(), this::voidReturn);
+                voidFunctions++;
+            }
+            functions.add(new FunctionDeclarationNode(returnType, name, params, locals,
+                    folder.fold(body, this::dropArguments)));
+        }
+        MainFunctionNode main = program.getMainFunction();
+        return new ProgramNode(program.getReturnType(), functions,
+                new MainFunctionNode(main.getDeclarations(), folder.fold(main.getStatements(), this::dropArguments)));
+    }
+
+    /** return e; de una funcion que pasa a void: queda lo que e puede hacer. */
+    private List<StatementNode> voidReturn(ReturnNode ret) {
+        List<StatementNode> result = new ArrayList<>();
+        if (ret.getExpression() != null && AstCopy.mayFault(ret.getExpression())) {
+            result.add(new ExpressionStatementNode(ret.getExpression()));
+        }
+        result.add(new ReturnNode(null));
+        return result;
+    }
+
+    private FunctionCallNode dropArguments(FunctionCallNode call) {
+        Set<Integer> dead = deadPositions.get(call.getFunctionName());
+        if (dead == null) {
+            return call;
+        }
+        List<ExpressionNode> args = new ArrayList<>();
+        for (int i = 0; i < call.getArguments().size(); i++) {
+            if (!dead.contains(i)) {
+                args.add(call.getArguments().get(i));
+            }
+        }
+        return new FunctionCallNode(call.getFunctionName(), args);
+    }
+
+    // ------------------------------------------------------------------
+    // Analisis
+
+    /** Parametros sin leer cuyo argumento se puede dejar de evaluar en todas las llamadas. */
+    private Map<String, Set<Integer>> deadParameters(ProgramNode program) {
+        Map<String, Set<Integer>> dead = new HashMap<>();
+        for (FunctionDeclarationNode function : program.getFunctions()) {
+            Set<Integer> unused = summaries.get(function.getIdentifier()).getUnusedParameters();
+            if (!unused.isEmpty()) {
+                dead.put(function.getIdentifier(), new HashSet<>(unused));
+            }
+        }
+        for (List<StatementNode> body : bodies(program)) {
+            for (FunctionCallNode call : CallGraph.calls(body)) {
+                Set<Integer> positions = dead.get(call.getFunctionName());
+                if (positions == null) {
+                    continue;
+                }
+                for (int i = 0; i < call.getArguments().size(); i++) {
+                    if (!withoutEffects(call.getArguments().get(i))) {
+                        positions.remove(i);
+                    }
+                }
+            }
+        }
+        dead.values().removeIf(Set::isEmpty);
+        return dead;
+    }
+
+    /** Funciones con resultado cuyas llamadas son todas sentencias o su propio return. */
+    private Set<String> ignoredResults(ProgramNode program) {
+        Map<String, Integer> calls = new HashMap<>();
+        Map<String, Integer> ignoredCalls = new HashMap<>();
+        for (FunctionDeclarationNode function : program.getFunctions()) {
+            countIgnored(function.getBody(), function.getIdentifier(), ignoredCalls);
+        }
+        countIgnored(program.getMainFunction().getStatements(), CallGraph.MAIN, ignoredCalls);
+        for (List<StatementNode> body : bodies(program)) {
+            for (FunctionCallNode call : CallGraph.calls(body)) {
+                calls.merge(call.getFunctionName(), 1, Integer::sum);
+            }
+        }
+        Set<String> ignored = new HashSet<>();
+        for (FunctionDeclarationNode function : program.getFunctions()) {
+            String name = function.getIdentifier();
+            if (!function.getReturnType().equals("void") && calls.containsKey(name)
+                    && calls.get(name).equals(ignoredCalls.get(name))) {
+                ignored.add(name);
+            }
+        }
+        return ignored;
+    }
+
+    private static void countIgnored(List<StatementNode> statements, String owner, Map<String, Integer> ignored) {
+        if (statements == null) {
+            return;
+        }
+        for (StatementNode stmt : statements) {
+            if (stmt instanceof IfNode) {
+                countIgnored(((IfNode) stmt).getThenBlock(), owner, ignored);
+                countIgnored(((IfNode) stmt).getElseBlock(), owner, ignored);
+            } else if (stmt instanceof WhileNode) {
+                countIgnored(((WhileNode) stmt).getBody(), owner, ignored);
+            } else if (stmt instanceof ExpressionStatementNode
+                    && ((ExpressionStatementNode) stmt).getExpression() instanceof FunctionCallNode) {
+                ignored.merge(((FunctionCallNode) ((ExpressionStatementNode) stmt).getExpression()).getFunctionName(),
+                        1, Integer::sum);
+            } else if (stmt instanceof ReturnNode && ((ReturnNode) stmt).getExpression() instanceof FunctionCallNode
+                    && ((FunctionCallNode) ((ReturnNode) stmt).getExpression()).getFunctionName().equals(owner)) {
+                // return f(..) dentro de f: se usa solo si se usa el de f
+                ignored.merge(owner, 1, Integer::sum);
+            }
+        }
+    }
+
+    /** Evaluar la expresion no puede fallar, colgarse ni tener otro efecto que su valor. */
+    private boolean withoutEffects(ExpressionNode expression) {
+        if (expression instanceof FunctionCallNode) {
+            FunctionCallNode call = (FunctionCallNode) expression;
+            FunctionSummary summary = summaries.get(call.getFunctionName());
+            if (summary == null || !summary.isPure() || !summary.alwaysTerminates()) {
+                return false;
+            }
+            for (ExpressionNode arg : call.getArguments()) {
+                if (!withoutEffects(arg)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (expression instanceof BinaryOpNode) {
+            BinaryOpNode bin = (BinaryOpNode) expression;
+            if (FunctionSummaries.divisionMayFault(bin)) {
+                return false;
+            }
+            return withoutEffects(bin.getLeft()) && withoutEffects(bin.getRight());
+        }
+        if (expression instanceof ComparisonNode) {
+            return withoutEffects(((ComparisonNode) expression).getLeft())
+                    && withoutEffects(((ComparisonNode) expression).getRight());
+        }
+        if (expression instanceof LogicalOpNode) {
+            LogicalOpNode logical = (LogicalOpNode) expression;
+            return withoutEffects(logical.getLeft())
+                    && (logical.getRight() == null || withoutEffects(logical.getRight()));
+        }
+        return true;
+    }
+
+    private static List<List<StatementNode>> bodies(ProgramNode program) {
+        List<List<StatementNode>> bodies = new ArrayList<>();
+        for (FunctionDeclarationNode function : program.getFunctions()) {
+            bodies.add(function.getBody());
+        }
+        bodies.add(program.getMainFunction().getStatements());
+        return bodies;
+    }
+}
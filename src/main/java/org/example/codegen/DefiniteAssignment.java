@@ -0,0 +1,120 @@
+package org.example.codegen;
+
+import java.util.*;
+import org.example.ast.*;
+
+/**
+ * Analisis de asignacion definida sobre el cuerpo de una funcion.
+ *
+ * Recorre las sentencias llevando el conjunto de variables que seguro
+ * fueron asignadas en todos los caminos (interseccion al unir las ramas de
+ * un if; un while puede no ejecutarse y despues de un return no se llega).
+ * Una variable que se lee fuera de ese conjunto puede ver su valor inicial
+ * y necesita el cero de la declaracion; las demas no.
+ */
+public class DefiniteAssignment {
+
+    private final Set<String> declared;
+    private final Set<String> needsDefault;
+
+    private DefiniteAssignment(Set<String> declared) {
+        this.declared = declared;
+        this.needsDefault = new HashSet<>();
+    }
+
+    /**
+     * Variables declaradas que alguna lectura puede ver sin asignar.
+     */
+    public static Set<String> readBeforeAssigned(List<DeclarationNode> declarations, List<StatementNode> body) {
+        Set<String> declared = new HashSet<>();
+        for (DeclarationNode decl : declarations) {
+            declared.add(decl.getIdentifier());
+        }
+        DefiniteAssignment analysis = new DefiniteAssignment(declared);
+        analysis.block(body, new HashSet<>());
+        return analysis.needsDefault;
+    }
+
+    /** Devuelve las asignadas al salir del bloque (null si no se sale). */
+    private Set<String> block(List<StatementNode> statements, Set<String> assigned) {
+        if (statements == null) {
+            return assigned;
+        }
+        for (StatementNode stmt : statements) {
+            assigned = statement(stmt, assigned);
+            if (assigned == null) {
+                return null;
+            }
+        }
+        return assigned;
+    }
+
+    private Set<String> statement(StatementNode stmt, Set<String> assigned) {
+        if (stmt instanceof AssignmentNode) {
+            AssignmentNode assignment = (AssignmentNode) stmt;
+            reads(assignment.getExpression(), assigned);
+            Set<String> after = new HashSet<>(assigned);
+            after.add(assignment.getIdentifier());
+            return after;
+        }
+        if (stmt instanceof IfNode) {
+            IfNode ifNode = (IfNode) stmt;
+            reads(ifNode.getCondition(), assigned);
+            Set<String> thenOut = block(ifNode.getThenBlock(), assigned);
+            Set<String> elseOut = block(ifNode.getElseBlock(), assigned);
+            if (thenOut == null) {
+                return elseOut;
+            }
+            if (elseOut == null) {
+                return thenOut;
+            }
+            Set<String> both = new HashSet<>(thenOut);
+            both.retainAll(elseOut);
+            return both;
+        }
+        if (stmt instanceof WhileNode) {
+            WhileNode whileNode = (WhileNode) stmt;
+            reads(whileNode.getCondition(), assigned);
+            // Las asignaciones solo crecen dentro del cuerpo: la primera
+            // vuelta es la que menos tiene asignado
+            block(whileNode.getBody(), assigned);
+            return assigned;
+        }
+        if (stmt instanceof ReturnNode) {
+            ReturnNode ret = (ReturnNode) stmt;
+            if (ret.hasExpression()) {
+                reads(ret.getExpression(), assigned);
+            }
+            return null;
+        }
+        if (stmt instanceof ExpressionStatementNode) {
+            reads(((ExpressionStatementNode) stmt).getExpression(), assigned);
+        }
+        return assigned;
+    }
+
+    private void reads(ExpressionNode expression, Set<String> assigned) {
+        if (expression instanceof VariableNode) {
+            String name = ((VariableNode) expression).getIdentifier();
+            if (declared.contains(name) && !assigned.contains(name)) {
+                needsDefault.add(name);
+            }
+        } else if (expression instanceof BinaryOpNode) {
+            reads(((BinaryOpNode) expression).getLeft(), assigned);
+            reads(((BinaryOpNode) expression).getRight(), assigned);
+        } else if (expression instanceof ComparisonNode) {
+            reads(((ComparisonNode) expression).getLeft(), assigned);
+            reads(((ComparisonNode) expression).getRight(), assigned);
+        } else if (expression instanceof LogicalOpNode) {
+            LogicalOpNode logical = (LogicalOpNode) expression;
+            reads(logical.getLeft(), assigned);
+            if (!logical.isUnary()) {
+                reads(logical.getRight(), assigned);
+            }
+        } else if (expression instanceof FunctionCallNode) {
+            for (ExpressionNode arg : ((FunctionCallNode) expression).getArguments()) {
+                reads(arg, assigned);
+            }
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package org.example.codegen;
+
+import java.util.*;
+import org.example.codegen.mir.*;
+
+import static org.example.codegen.mir.Operand.*;
+import static org.example.codegen.mir.Register.*;
+
+/**
+ * Omision del frame pointer (-fomit-frame-pointer).
+ *
+ * Reescribe cada acceso -k(%rbp) como un desplazamiento respecto de %rsp,
+ * que se calcula con la profundidad de la pila en ese punto (push, pop y
+ * ajustes de %rsp alrededor de las llamadas). El prologo queda reducido a
+ * un subq y el epilogo a un leaq, que no toca las banderas.
+ *
+ * Una funcion hoja sin push/pop y con a lo sumo 128 bytes de variables
+ * usa la red zone de System V: sus variables viven debajo de %rsp sin
+ * reservarlas y no tiene prologo ni epilogo.
+ *
+ * Corre al final, cuando ya ningun pass mueve instrucciones entre push y pop.
+ */
+public class FramePointerElimination {
+
+    private static final int RED_ZONE = 128;
+
+    private int omittedFrames;
+    private int redZoneLeaves;
+
+    public int getOmittedFrames() { return omittedFrames; }
+    public int getRedZoneLeaves() { return redZoneLeaves; }
+
+    public void run(MachineProgram program) {
+        omittedFrames = 0;
+        redZoneLeaves = 0;
+        Set<String> tableTargets = new HashSet<>();
+        for (JumpTable table : program.getJumpTables()) {
+            tableTargets.addAll(table.getTargets());
+        }
+        for (MachineFunction function : program.getFunctions()) {
+            rewrite(function, tableTargets);
+        }
+    }
+
+    private void rewrite(MachineFunction function, Set<String> tableTargets) {
+        BasicBlock entry = function.getEntry();
+        List<Instruction> prologue = entry.getInstructions();
+        int pushIndex = indexOf(prologue, Instruction.unary(Opcode.PUSH, Width.QUAD, reg(RBP)), 0);
+        int movIndex = indexOf(prologue, Instruction.of(Opcode.MOV, Width.QUAD, reg(RSP), reg(RBP)), pushIndex);
+        if (pushIndex < 0 || movIndex < 0) {
+            return;
+        }
+        int subIndex = -1;
+        long frameSize = 0;
+        for (int i = movIndex + 1; i < prologue.size(); i++) {
+            Instruction ins = prologue.get(i);
+            if (ins.is(Opcode.SUB) && ins.getSource().isImmediate() && ins.getDestination().isRegister(RSP)) {
+                subIndex = i;
+                frameSize = ins.getSource().getValue();
+                break;
+            }
+            if (ins.defs().contains(RSP) || ins.readsMemory() || ins.writesMemory()) {
+                break;
+            }
+        }
+
+        boolean redZone = isRedZoneLeaf(function, function.getFrameSlots());
+
+        // Se quitan push %rbp, mov %rsp,%rbp y el subq del prologo
+        prologue.remove(Math.max(subIndex, movIndex));
+        if (subIndex >= 0) {
+            prologue.remove(movIndex);
+        }
+        prologue.remove(pushIndex);
+        Instruction frameSetup = null;
+        if (!redZone) {
+            frameSetup = Instruction.of(Opcode.SUB, Width.QUAD, imm(frameSize + 8), reg(RSP));
+            prologue.add(0, frameSetup);
+        }
+
+        Map<BasicBlock, Integer> depthIn = stackDepths(function, tableTargets, frameSetup);
+        for (BasicBlock block : function.getBlocks()) {
+            Integer depth = depthIn.get(block);
+            if (depth == null) {
+                continue;
+            }
+            List<Instruction> instructions = block.getInstructions();
+            int d = depth;
+            for (int i = 0; i < instructions.size(); i++) {
+                Instruction ins = instructions.get(i);
+                if (ins == frameSetup) {
+                    continue;
+                }
+                if (ins.equals(Instruction.of(Opcode.MOV, Width.QUAD, reg(RBP), reg(RSP)))) {
+                    // Epilogo: %rsp vuelve a la direccion de retorno
+                    if (redZone) {
+                        instructions.remove(i--);
+                    } else {
+                        instructions.set(i, Instruction.of(Opcode.LEA, Width.QUAD,
+                                mem(RSP, frameSize + 8 + d), reg(RSP)));
+                    }
+                    d = 0;
+                    continue;
+                }
+                if (ins.equals(Instruction.unary(Opcode.POP, Width.QUAD, reg(RBP)))) {
+                    instructions.remove(i--);
+                    continue;
+                }
+                instructions.set(i, ins.withOperands(
+                        relocate(ins.getSource(), frameSize, d, redZone),
+                        relocate(ins.getDestination(), frameSize, d, redZone)));
+                d += stackEffect(ins);
+            }
+        }
+
+        if (redZone) {
+            // Las variables quedan 8 bytes mas arriba que con el frame
+            for (Map.Entry<String, Integer> slot : function.getFrameSlots().entrySet()) {
+                if (slot.getValue() > 0) {
+                    slot.setValue(slot.getValue() - 8);
+                }
+            }
+            redZoneLeaves++;
+        }
+        omittedFrames++;
+    }
+
+    /**
+     * Sin llamadas, sin push/pop propios y con las variables dentro de los
+     * 128 bytes que hay debajo de %rsp a la entrada (con las ubicaciones
+     * dadas en 'slots').
+     */
+    static boolean isRedZoneLeaf(MachineFunction function, Map<String, Integer> slots) {
+        int maxSlot = 0;
+        for (int offset : slots.values()) {
+            maxSlot = Math.max(maxSlot, offset);
+        }
+        if (maxSlot > RED_ZONE) {
+            return false;
+        }
+        for (BasicBlock block : function.getBlocks()) {
+            for (Instruction ins : block.getInstructions()) {
+                if (ins.is(Opcode.CALL)) {
+                    return false;
+                }
+                boolean frameRegister = (ins.getSource() != null && ins.getSource().isRegister(RBP))
+                        || (ins.getDestination() != null && ins.getDestination().isRegister(RBP));
+                if ((ins.is(Opcode.PUSH) || ins.is(Opcode.POP)) && !frameRegister) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static Operand relocate(Operand operand, long frameSize, int depth, boolean redZone) {
+        if (operand == null || !operand.isMemory() || operand.getRegister() != RBP) {
+            return operand;
+        }
+        long displacement = operand.getValue();
+        if (redZone) {
+            // Variables en -k(%rsp), parametros de pila en 8+8i(%rsp)
+            displacement = displacement < 0 ? displacement : displacement - 8;
+        } else {
+            displacement = frameSize + displacement + depth;
+        }
+        return mem(RSP, operand.getIndex(), operand.getScale(), displacement);
+    }
+
+    /** Bytes que la instruccion agrega a la pila (negativo si los quita). */
+    private static int stackEffect(Instruction ins) {
+        switch (ins.getOpcode()) {
+            case PUSH:
+                return 8;
+            case POP:
+                return -8;
+            case SUB:
+            case ADD:
+                if (ins.getDestination().isRegister(RSP)) {
+                    if (!ins.getSource().isImmediate()) {
+                        throw new RuntimeException("Ajuste de %rsp no constante: " + ins);
+                    }
+                    long bytes = ins.getSource().getValue();
+                    return (int) (ins.is(Opcode.SUB) ? bytes : -bytes);
+                }
+                return 0;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Profundidad de la pila (bytes por debajo del frame) a la entrada de
+     * cada bloque; todos los caminos a un bloque deben coincidir.
+     */
+    private static Map<BasicBlock, Integer> stackDepths(MachineFunction function, Set<String> tableTargets,
+                                                        Instruction frameSetup) {
+        Map<String, BasicBlock> byLabel = function.blocksByLabel();
+        Map<BasicBlock, Integer> depthIn = new HashMap<>();
+        Deque<BasicBlock> work = new ArrayDeque<>();
+        depthIn.put(function.getEntry(), 0);
+        work.add(function.getEntry());
+        while (!work.isEmpty()) {
+            BasicBlock block = work.poll();
+            int d = depthIn.get(block);
+            for (Instruction ins : block.getInstructions()) {
+                if (ins == frameSetup) {
+                    continue;
+                }
+                if (ins.is(Opcode.RET)) {
+                    d = 0;
+                } else if (!ins.is(Opcode.POP) || !ins.getDestination().isRegister(RBP)) {
+                    d += stackEffect(ins);
+                }
+            }
+            List<BasicBlock> successors = new ArrayList<>();
+            Instruction last = block.getLast();
+            if (last != null && last.isIndirectJump()) {
+                for (String label : tableTargets) {
+                    if (byLabel.containsKey(label)) {
+                        successors.add(byLabel.get(label));
+                    }
+                }
+            } else {
+                for (String label : block.getBranchTargets()) {
+                    if (byLabel.containsKey(label)) {
+                        successors.add(byLabel.get(label));
+                    }
+                }
+                if (block.fallsThrough() && function.next(block) != null) {
+                    successors.add(function.next(block));
+                }
+            }
+            for (BasicBlock successor : successors) {
+                Integer known = depthIn.get(successor);
+                if (known == null) {
+                    depthIn.put(successor, d);
+                    work.add(successor);
+                } else if (known != d) {
+                    throw new RuntimeException("Profundidad de pila inconsistente en " + successor.getLabel());
+                }
+            }
+        }
+        return depthIn;
+    }
+
+    private static int indexOf(List<Instruction> instructions, Instruction wanted, int from) {
+        if (from < 0) {
+            return -1;
+        }
+        for (int i = from; i < instructions.size(); i++) {
+            if (instructions.get(i).equals(wanted)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
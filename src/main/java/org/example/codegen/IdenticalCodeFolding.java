@@ -0,0 +1,144 @@
+package org.example.codegen;
+
+import java.util.*;
+import org.example.analysis.CallGraph;
+import org.example.codegen.mir.*;
+
+/**
+ * Plegado de funciones identicas sobre el codigo de maquina final.
+ *
+ * Dos funciones son iguales si tienen las mismas instrucciones en los
+ * mismos bloques, comparando las etiquetas de bloque por su posicion y una
+ * llamada a si misma como tal (fib y fib2 con el mismo cuerpo coinciden).
+ * Las tablas de saltos que carga cada funcion tambien se comparan por
+ * posicion, junto con sus destinos. De cada grupo queda la primera; las
+ * demas se eliminan junto con sus tablas, sus llamadas y saltos pasan a la
+ * que queda y su nombre queda como alias (.set). Al
+ * redirigir llamadas pueden aparecer nuevas funciones iguales, asi que se
+ * repite hasta que no cambia nada. main no se pliega.
+ */
+public class IdenticalCodeFolding {
+
+    private static final String SELF = "<self>";
+
+    private int foldedFunctions;
+    private int savedInstructions;
+
+    public int getFoldedFunctions() { return foldedFunctions; }
+    public int getSavedInstructions() { return savedInstructions; }
+
+    public void run(MachineProgram program) {
+        foldedFunctions = 0;
+        savedInstructions = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            Map<String, String> canonical = new HashMap<>();
+            Map<String, String> replacements = new HashMap<>();
+            Map<String, JumpTable> tables = new HashMap<>();
+            for (JumpTable table : program.getJumpTables()) {
+                tables.put(table.getLabel(), table);
+            }
+            for (MachineFunction function : program.getFunctions()) {
+                if (function.getName().equals(CallGraph.MAIN)) {
+                    continue;
+                }
+                String kept = canonical.putIfAbsent(key(function, tables), function.getName());
+                if (kept != null) {
+                    replacements.put(function.getName(), kept);
+                }
+            }
+            if (replacements.isEmpty()) {
+                break;
+            }
+            Set<String> removedTables = new HashSet<>();
+            Iterator<MachineFunction> it = program.getFunctions().iterator();
+            while (it.hasNext()) {
+                MachineFunction function = it.next();
+                String kept = replacements.get(function.getName());
+                if (kept != null) {
+                    removedTables.addAll(ownTables(function, tables).keySet());
+                    program.getAliases().put(function.getName(), kept);
+                    savedInstructions += function.instructionCount();
+                    foldedFunctions++;
+                    it.remove();
+                    changed = true;
+                }
+            }
+            program.getJumpTables().removeIf(table -> removedTables.contains(table.getLabel()));
+            // Un alias anterior que apuntaba a una funcion recien plegada
+            for (Map.Entry<String, String> alias : program.getAliases().entrySet()) {
+                alias.setValue(replacements.getOrDefault(alias.getValue(), alias.getValue()));
+            }
+            redirect(program, replacements);
+        }
+    }
+
+    private static void redirect(MachineProgram program, Map<String, String> replacements) {
+        for (MachineFunction function : program.getFunctions()) {
+            for (BasicBlock block : function.getBlocks()) {
+                List<Instruction> instructions = block.getInstructions();
+                for (int i = 0; i < instructions.size(); i++) {
+                    String target = instructions.get(i).getTarget();
+                    if (target != null && replacements.containsKey(target)) {
+                        instructions.set(i, instructions.get(i).withTarget(replacements.get(target)));
+                    }
+                }
+            }
+        }
+    }
+
+    /** Tablas de saltos que carga la funcion, con su nombre por posicion. */
+    private static Map<String, String> ownTables(MachineFunction function, Map<String, JumpTable> tables) {
+        Map<String, String> own = new LinkedHashMap<>();
+        for (BasicBlock block : function.getBlocks()) {
+            for (String data : block.getDataReferences()) {
+                if (tables.containsKey(data) && !own.containsKey(data)) {
+                    own.put(data, "T" + own.size());
+                }
+            }
+        }
+        return own;
+    }
+
+    /** Texto de la funcion y sus tablas con las etiquetas reemplazadas por posicion. */
+    private static String key(MachineFunction function, Map<String, JumpTable> tables) {
+        Map<String, String> local = new HashMap<>();
+        for (BasicBlock block : function.getBlocks()) {
+            local.put(block.getLabel(), "L" + local.size());
+        }
+        local.put(function.getName(), SELF);
+        Map<String, String> own = ownTables(function, tables);
+        StringBuilder key = new StringBuilder();
+        for (BasicBlock block : function.getBlocks()) {
+            key.append(block.getAlignment()).append(' ').append(local.get(block.getLabel())).append(":\n");
+            for (Instruction instruction : block.getInstructions()) {
+                String target = instruction.getTarget();
+                if (target != null && local.containsKey(target)) {
+                    instruction = instruction.withTarget(local.get(target));
+                }
+                if (!own.isEmpty()) {
+                    instruction = instruction.withOperands(
+                            tableOperand(instruction.getSource(), own),
+                            tableOperand(instruction.getDestination(), own));
+                }
+                key.append(instruction).append('\n');
+            }
+        }
+        for (Map.Entry<String, String> table : own.entrySet()) {
+            key.append(table.getValue()).append(':');
+            for (String target : tables.get(table.getKey()).getTargets()) {
+                key.append(' ').append(local.getOrDefault(target, target));
+            }
+            key.append('\n');
+        }
+        return key.toString();
+    }
+
+    private static Operand tableOperand(Operand operand, Map<String, String> own) {
+        if (operand != null && operand.isMemory() && own.containsKey(operand.getLabel())) {
+            return Operand.ripRelative(own.get(operand.getLabel()), operand.getValue());
+        }
+        return operand;
+    }
+}
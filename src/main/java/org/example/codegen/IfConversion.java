@@ -0,0 +1,177 @@
+package org.example.codegen;
+
+import java.util.*;
+import org.example.ast.*;
+
+/**
+ * If-conversion de diamantes y triangulos pequeños:
+ *
+ *   if (x > y) { m = x; } else { m = y; }   (diamante)
+ *   if (m > 25) { m = 25; }                 (triangulo)
+ *
+ * Cuando ambas ramas son asignaciones puras y baratas se evaluan las dos y
+ * el resultado se elige con cmovcc, evitando un salto dependiente de datos
+ * que el predictor no puede acertar. Un modelo de costos (ajustado con el
+ * perfil de saltos si existe) decide si conviene.
+ */
+public class IfConversion {
+
+    public static final int MAX_ASSIGNMENTS = 2;
+    public static final int MAX_ARM_COST = 12;
+    // Costos aproximados en ciclos para el modelo
+    public static final int BRANCH_COST = 2;
+    public static final int MISPREDICT_PENALTY = 15;
+    public static final int SELECT_COST = 2;
+
+    private final ComparisonNode condition;
+    private final boolean negated;
+    private final List<String> variables;
+    private final Map<String, ExpressionNode> thenValues;
+    private final Map<String, ExpressionNode> elseValues;
+
+    private IfConversion(ComparisonNode condition, boolean negated, List<String> variables,
+                         Map<String, ExpressionNode> thenValues, Map<String, ExpressionNode> elseValues) {
+        this.condition = condition;
+        this.negated = negated;
+        this.variables = variables;
+        this.thenValues = thenValues;
+        this.elseValues = elseValues;
+    }
+
+    /**
+     * Devuelve la conversion del if dado, o null si no tiene la forma
+     * adecuada o el modelo de costos prefiere mantener el salto.
+     *
+     * @param thenProbability probabilidad de la rama then segun el perfil,
+     *                        o null si no hay datos de perfil
+     */
+    public static IfConversion match(IfNode node, Double thenProbability) {
+        ExpressionNode cond = node.getCondition();
+        boolean negated = false;
+        while (cond instanceof LogicalOpNode && ((LogicalOpNode) cond).isUnary()) {
+            cond = ((LogicalOpNode) cond).getLeft();
+            negated = !negated;
+        }
+        if (!(cond instanceof ComparisonNode)) {
+            return null;
+        }
+
+        Map<String, ExpressionNode> thenValues = pureAssignments(node.getThenBlock());
+        Map<String, ExpressionNode> elseValues = node.hasElse()
+                ? pureAssignments(node.getElseBlock())
+                : new LinkedHashMap<>();
+        if (thenValues == null || elseValues == null || thenValues.isEmpty()) {
+            return null;
+        }
+
+        // La rama que no asigna una variable conserva su valor actual
+        List<String> variables = new ArrayList<>(thenValues.keySet());
+        for (String var : elseValues.keySet()) {
+            if (!variables.contains(var)) {
+                variables.add(var);
+            }
+        }
+        if (variables.size() > MAX_ASSIGNMENTS) {
+            return null;
+        }
+        for (String var : variables) {
+            thenValues.putIfAbsent(var, new VariableNode(var));
+            elseValues.putIfAbsent(var, new VariableNode(var));
+        }
+
+        int thenCost = armCost(thenValues);
+        int elseCost = armCost(elseValues);
+        if (thenCost > MAX_ARM_COST || elseCost > MAX_ARM_COST) {
+            return null;
+        }
+
+        // Sin perfil se asume un salto impredecible (50%); con perfil la tasa
+        // de fallos se estima como la probabilidad de la rama menos frecuente
+        double p = thenProbability != null ? thenProbability : 0.5;
+        double mispredictRate = Math.min(p, 1 - p);
+        double branchCost = BRANCH_COST + p * thenCost + (1 - p) * elseCost
+                + MISPREDICT_PENALTY * mispredictRate;
+        double selectCost = thenCost + elseCost + SELECT_COST * variables.size();
+        if (selectCost > branchCost) {
+            return null;
+        }
+
+        return new IfConversion((ComparisonNode) cond, negated, variables, thenValues, elseValues);
+    }
+
+    /**
+     * Asignaciones de una rama como variable -> valor, o null si la rama
+     * contiene algo que no sea una asignacion pura o si una asignacion lee
+     * una variable escrita antes en la misma rama (ambas ramas se evaluan
+     * con los valores previos al if).
+     */
+    private static Map<String, ExpressionNode> pureAssignments(List<StatementNode> block) {
+        Map<String, ExpressionNode> values = new LinkedHashMap<>();
+        for (StatementNode stmt : block) {
+            if (!(stmt instanceof AssignmentNode)) {
+                return null;
+            }
+            AssignmentNode assignment = (AssignmentNode) stmt;
+            if (values.containsKey(assignment.getIdentifier())
+                    || cost(assignment.getExpression()) < 0
+                    || readsAny(assignment.getExpression(), values.keySet())) {
+                return null;
+            }
+            values.put(assignment.getIdentifier(), assignment.getExpression());
+        }
+        return values;
+    }
+
+    private static int armCost(Map<String, ExpressionNode> values) {
+        int total = 0;
+        for (ExpressionNode value : values.values()) {
+            total += cost(value);
+        }
+        return total;
+    }
+
+    /**
+     * Costo estimado de evaluar la expresion, o -1 si no se puede evaluar
+     * especulativamente (division que puede fallar, llamadas, etc.).
+     */
+    static int cost(ExpressionNode expr) {
+        if (expr instanceof NumberNode || expr instanceof BooleanNode || expr instanceof VariableNode) {
+            return 1;
+        }
+        if (expr instanceof BinaryOpNode) {
+            BinaryOpNode bin = (BinaryOpNode) expr;
+            int left = cost(bin.getLeft());
+            int right = cost(bin.getRight());
+            if (left < 0 || right < 0) {
+                return -1;
+            }
+            switch (bin.getOperator()) {
+                case "+":
+                case "-":
+                    return left + right + 4;
+                case "*":
+                    return left + right + 6;
+                default:
+                    return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean readsAny(ExpressionNode expr, Set<String> names) {
+        if (expr instanceof VariableNode) {
+            return names.contains(((VariableNode) expr).getIdentifier());
+        }
+        if (expr instanceof BinaryOpNode) {
+            BinaryOpNode bin = (BinaryOpNode) expr;
+            return readsAny(bin.getLeft(), names) || readsAny(bin.getRight(), names);
+        }
+        return false;
+    }
+
+    public ComparisonNode getCondition() { return condition; }
+    public boolean isNegated() { return negated; }
+    public List<String> getVariables() { return variables; }
+    public ExpressionNode getThenValue(String variable) { return thenValues.get(variable); }
+    public ExpressionNode getElseValue(String variable) { return elseValues.get(variable); }
+}
@@ -0,0 +1,325 @@
+package org.example.codegen;
+
+import java.util.*;
+import org.example.analysis.CallGraph;
+import org.example.analysis.FunctionSummaries;
+import org.example.ast.*;
+
+/**
+ * Inlining de funciones sobre el AST, de abajo hacia arriba en el grafo de
+ * llamadas (cuando se procesa una funcion sus llamados ya tienen expandidas
+ * sus propias llamadas).
+ *
+ *   int sq(int x) { return x * x; }          y = sq(a) + 1;
+ *                                       =>   sq.1 = a * a;
+ *                                            y = sq.1 + 1;
+ *
+ * Los parametros y locales del llamado se renombran a "f.x.N" y el
+ * resultado queda en "f.N", nombres que el lexer no acepta y por lo tanto
+ * no chocan con nada del fuente. Un argumento constante o variable
+ * reemplaza directamente al parametro si el llamado no lo modifica; el
+ * resto se asigna antes. Los return pasan a ser asignaciones al resultado,
+ * para lo cual el cuerpo se reescribe antes de forma que todo return
+ * quede al final de su camino.
+ *
+ * Se expanden las funciones chicas (el limite sube con cada argumento
+ * constante) y las que se llaman desde un solo lugar, mientras el programa
+ * no crezca mas que el porcentaje indicado. Las llamadas en la condicion de
+ * un while o dentro de un && / || no se tocan: se evaluarian una vez fuera
+ * de lugar. Las funciones cuyas llamadas se expandieron todas se eliminan.
+ */
+public class Inliner {
+
+    public static final int SMALL_FUNCTION_SIZE = 12;
+    public static final int CONSTANT_ARGUMENT_BONUS = 6;
+    public static final int MAX_SINGLE_CALLER_SIZE = 400;
+    public static final int DEFAULT_GROWTH_PERCENT = 100;
+
+    private final int growthPercent;
+    private final AstCopy copier;
+
+    private CallGraph callGraph;
+    private Map<String, FunctionDeclarationNode> functions;
+    private Map<String, List<StatementNode>> prepared;
+    private Map<String, Integer> callSites;
+    private int budget;
+    private int growth;
+    private int counter;
+
+    // Funcion en la que se esta expandiendo
+    private String caller;
+    private List<DeclarationNode> callerDeclarations;
+
+    private int inlinedCalls;
+    private int removedFunctions;
+
+    public Inliner(int growthPercent, Map<IfNode, IfNode> origins) {
+        this.growthPercent = growthPercent;
+        this.copier = new AstCopy(origins);
+    }
+
+    public int getInlinedCalls() { return inlinedCalls; }
+    public int getRemovedFunctions() { return removedFunctions; }
+    public int getGrowth() { return growth; }
+
+    public ProgramNode run(ProgramNode program) {
+        callGraph = CallGraph.build(program);
+        functions = new LinkedHashMap<>();
+        prepared = new HashMap<>();
+        callSites = new HashMap<>();
+        int size = AstCopy.size(program.getMainFunction().getStatements());
+        for (FunctionDeclarationNode function : program.getFunctions()) {
+            functions.put(function.getIdentifier(), function);
+            size += AstCopy.size(function.getBody());
+        }
+        for (String name : callGraph.getFunctions()) {
+            List<StatementNode> body = name.equals(CallGraph.MAIN)
+                    ? program.getMainFunction().getStatements() : functions.get(name).getBody();
+            for (FunctionCallNode call : CallGraph.calls(body)) {
+                callSites.merge(call.getFunctionName(), 1, Integer::sum);
+            }
+        }
+        budget = size * growthPercent / 100;
+
+        MainFunctionNode main = program.getMainFunction();
+        for (List<String> component : callGraph.getComponents()) {
+            for (String name : component) {
+                caller = name;
+                if (name.equals(CallGraph.MAIN)) {
+                    callerDeclarations = new ArrayList<>(main.getDeclarations());
+                    List<StatementNode> body = block(main.getStatements());
+                    main = new MainFunctionNode(callerDeclarations, body);
+                } else {
+                    FunctionDeclarationNode function = functions.get(name);
+                    callerDeclarations = new ArrayList<>(function.getLocalDeclarations());
+                    List<StatementNode> body = block(function.getBody());
+                    functions.put(name, new FunctionDeclarationNode(function.getReturnType(), name,
+                            function.getParameters(), callerDeclarations, body));
+                }
+            }
+        }
+
+        // Las funciones que se llamaban y ya no se llaman desde ningun lado
+        ProgramNode inlined = new ProgramNode(program.getReturnType(), new ArrayList<>(functions.values()), main);
+        CallGraph after = CallGraph.build(inlined);
+        List<FunctionDeclarationNode> kept = new ArrayList<>();
+        for (FunctionDeclarationNode function : functions.values()) {
+            String name = function.getIdentifier();
+            if (callSites.containsKey(name) && after.getCallers(name).isEmpty()) {
+                removedFunctions++;
+            } else {
+                kept.add(function);
+            }
+        }
+        return new ProgramNode(program.getReturnType(), kept, main);
+    }
+
+    // ------------------------------------------------------------------
+    // Recorrido del llamador
+
+    private List<StatementNode> block(List<StatementNode> statements) {
+        if (statements == null) {
+            return null;
+        }
+        List<StatementNode> result = new ArrayList<>();
+        for (StatementNode stmt : statements) {
+            result.addAll(statement(stmt));
+        }
+        return result;
+    }
+
+    private List<StatementNode> statement(StatementNode stmt) {
+        List<StatementNode> result = new ArrayList<>();
+        if (stmt instanceof AssignmentNode) {
+            AssignmentNode assignment = (AssignmentNode) stmt;
+            ExpressionNode expression = expression(assignment.getExpression(), result);
+            result.add(expression == assignment.getExpression()
+                    ? stmt : new AssignmentNode(assignment.getIdentifier(), expression));
+        } else if (stmt instanceof ReturnNode) {
+            ReturnNode ret = (ReturnNode) stmt;
+            ExpressionNode expression = expression(ret.getExpression(), result);
+            result.add(expression == ret.getExpression() ? stmt : new ReturnNode(expression));
+        } else if (stmt instanceof ExpressionStatementNode) {
+            ExpressionNode expression = ((ExpressionStatementNode) stmt).getExpression();
+            if (expression instanceof FunctionCallNode) {
+                // Llamada como sentencia: el resultado no se usa
+                FunctionCallNode call = arguments((FunctionCallNode) expression, result);
+                if (shouldInline(call)) {
+                    expand(call, false, result);
+                } else {
+                    result.add(call == expression ? stmt : new ExpressionStatementNode(call));
+                }
+            } else {
+                ExpressionNode rewritten = expression(expression, result);
+                result.add(rewritten == expression ? stmt : new ExpressionStatementNode(rewritten));
+            }
+        } else if (stmt instanceof IfNode) {
+            IfNode ifNode = (IfNode) stmt;
+            ExpressionNode condition = expression(ifNode.getCondition(), result);
+            result.add(copier.newIf(ifNode, condition, block(ifNode.getThenBlock()), block(ifNode.getElseBlock())));
+        } else if (stmt instanceof WhileNode) {
+            WhileNode whileNode = (WhileNode) stmt;
+            result.add(new WhileNode(whileNode.getCondition(), block(whileNode.getBody())));
+        } else {
+            result.add(stmt);
+        }
+        return result;
+    }
+
+    /**
+     * Reescribe la expresion expandiendo sus llamadas (primero las de los
+     * argumentos); el codigo expandido se agrega a 'before'. Devuelve la
+     * misma expresion si no cambio nada.
+     */
+    private ExpressionNode expression(ExpressionNode expression, List<StatementNode> before) {
+        if (expression instanceof FunctionCallNode) {
+            FunctionCallNode call = arguments((FunctionCallNode) expression, before);
+            if (shouldInline(call)) {
+                return expand(call, true, before);
+            }
+            return call;
+        }
+        if (expression instanceof BinaryOpNode) {
+            BinaryOpNode bin = (BinaryOpNode) expression;
+            ExpressionNode left = expression(bin.getLeft(), before);
+            ExpressionNode right = expression(bin.getRight(), before);
+            return left == bin.getLeft() && right == bin.getRight()
+                    ? expression : new BinaryOpNode(left, bin.getOperator(), right);
+        }
+        if (expression instanceof ComparisonNode) {
+            ComparisonNode cmp = (ComparisonNode) expression;
+            ExpressionNode left = expression(cmp.getLeft(), before);
+            ExpressionNode right = expression(cmp.getRight(), before);
+            return left == cmp.getLeft() && right == cmp.getRight()
+                    ? expression : new ComparisonNode(left, cmp.getOperator(), right);
+        }
+        // && y || evaluan su derecha solo a veces: no se adelanta nada
+        return expression;
+    }
+
+    private FunctionCallNode arguments(FunctionCallNode call, List<StatementNode> before) {
+        List<ExpressionNode> args = new ArrayList<>();
+        boolean changed = false;
+        for (ExpressionNode arg : call.getArguments()) {
+            ExpressionNode rewritten = expression(arg, before);
+            changed |= rewritten != arg;
+            args.add(rewritten);
+        }
+        return changed ? new FunctionCallNode(call.getFunctionName(), args) : call;
+    }
+
+    // ------------------------------------------------------------------
+    // Decision
+
+    private boolean shouldInline(FunctionCallNode call) {
+        String callee = call.getFunctionName();
+        if (!functions.containsKey(callee) || callGraph.isRecursive(callee)
+                || callGraph.componentOf(caller).contains(callee)) {
+            return false;
+        }
+        List<StatementNode> body = prepared(callee);
+        if (body == null) {
+            return false;
+        }
+        int size = AstCopy.size(body);
+        if (callSites.get(callee) == 1 && size <= MAX_SINGLE_CALLER_SIZE) {
+            // La funcion desaparece: el programa no crece
+            return true;
+        }
+        int constants = 0;
+        for (ExpressionNode arg : call.getArguments()) {
+            if (arg instanceof NumberNode || arg instanceof BooleanNode) {
+                constants++;
+            }
+        }
+        if (size > SMALL_FUNCTION_SIZE + CONSTANT_ARGUMENT_BONUS * constants || growth + size > budget) {
+            return false;
+        }
+        growth += size;
+        return true;
+    }
+
+    /**
+     * Cuerpo del llamado con los return al final de cada camino, o null si
+     * no se puede expandir (return dentro de un while, o una funcion que
+     * devuelve un valor y puede terminar sin return).
+     */
+    private List<StatementNode> prepared(String callee) {
+        if (!prepared.containsKey(callee)) {
+            FunctionDeclarationNode function = functions.get(callee);
+            List<StatementNode> body = copier.tailReturns(function.getBody());
+            if (body != null && !function.getReturnType().equals("void")
+                    && !FunctionSummaries.alwaysReturns(body)) {
+                body = null;
+            }
+            prepared.put(callee, body);
+        }
+        return prepared.get(callee);
+    }
+
+    // ------------------------------------------------------------------
+    // Expansion
+
+    /**
+     * Agrega a 'before' el cuerpo del llamado y devuelve la variable con el
+     * resultado (null si no se usa).
+     */
+    private ExpressionNode expand(FunctionCallNode call, boolean valueUsed, List<StatementNode> before) {
+        String callee = call.getFunctionName();
+        FunctionDeclarationNode function = functions.get(callee);
+        List<StatementNode> body = prepared(callee);
+        int id = ++counter;
+
+        Map<String, ExpressionNode> substitution = new HashMap<>();
+        Set<String> assigned = AstCopy.assignedVariables(body);
+        List<ParameterNode> params = function.getParameters();
+        for (int i = 0; i < params.size(); i++) {
+            ParameterNode param = params.get(i);
+            ExpressionNode arg = call.getArguments().get(i);
+            boolean leaf = arg instanceof NumberNode || arg instanceof BooleanNode || arg instanceof VariableNode;
+            if (leaf && !assigned.contains(param.getIdentifier())) {
+                substitution.put(param.getIdentifier(), arg);
+            } else {
+                String name = declare(callee, param.getIdentifier(), id, param.getType());
+                before.add(new AssignmentNode(name, arg));
+                substitution.put(param.getIdentifier(), new VariableNode(name));
+            }
+        }
+        // Los locales arrancan en cero: hace falta asignarlo solo si alguna
+        // lectura puede verlo (la expansion puede quedar dentro de un lazo)
+        Set<String> needsZero = DefiniteAssignment.readBeforeAssigned(function.getLocalDeclarations(), body);
+        for (DeclarationNode decl : function.getLocalDeclarations()) {
+            String name = declare(callee, decl.getIdentifier(), id, decl.getType());
+            substitution.put(decl.getIdentifier(), new VariableNode(name));
+            if (needsZero.contains(decl.getIdentifier())) {
+                before.add(new AssignmentNode(name, decl.getType().equals("bool")
+                        ? new BooleanNode(false) : new NumberNode(0)));
+            }
+        }
+        String result = valueUsed && !function.getReturnType().equals("void")
+                ? declare(callee + "." + id, function.getReturnType()) : null;
+
+        before.addAll(copier.statements(body, substitution, ret -> {
+            ExpressionNode value = AstCopy.expression(ret.getExpression(), substitution);
+            if (result != null) {
+                return Collections.singletonList(new AssignmentNode(result, value));
+            }
+            if (value != null && AstCopy.mayFault(value)) {
+                // El valor no se usa pero la evaluacion puede no terminar
+                return Collections.singletonList(new ExpressionStatementNode(value));
+            }
+            return Collections.emptyList();
+        }));
+        inlinedCalls++;
+        return result != null ? new VariableNode(result) : null;
+    }
+
+    private String declare(String callee, String name, int id, String type) {
+        return declare(callee + "." + name + "." + id, type);
+    }
+
+    private String declare(String fresh, String type) {
+        callerDeclarations.add(new VariableDeclarationNode(type, fresh));
+        return fresh;
+    }
+}
@@ -0,0 +1,675 @@
+package org.example.codegen;
+
+import java.util.*;
+import org.example.codegen.mir.*;
+
+/**
+ * Scheduler de listas por bloque basico sobre el codigo de maquina.
+ *
+ * Arma el grafo de dependencias del bloque (registros, banderas y memoria),
+ * le da prioridad a las instrucciones con el camino critico mas largo y las
+ * emite ciclo a ciclo respetando las latencias y los puertos de ejecucion
+ * de un nucleo x86-64 tipico (tabla de abajo, valores aproximados de la
+ * familia Skylake). Asi las cadenas de imul/idiv se intercalan con trabajo
+ * independiente.
+ *
+ * El cmp/test que alimenta al jcc final se deja justo antes del salto para
+ * que el procesador pueda fusionar el par (macro-fusion). Como corre despues
+ * de la asignacion de registros no puede agregar spills; cuando hay muchos
+ * valores vivos prefiere las instrucciones que liberan registros.
+ *
+ * Un bloque solo se reordena si el orden nuevo termina antes segun el modelo.
+ */
+public class InstructionScheduler {
+
+    private static final int ISSUE_WIDTH = 4;
+    private static final int PRESSURE_LIMIT = 6;
+    private static final int LOAD_LATENCY = 5;
+    private static final int STORE_FORWARD_LATENCY = 5;
+
+    /** Grupos de puertos de ejecucion y cuantas uops aceptan por ciclo. */
+    private enum Port {
+        ALU(4),     // p0156
+        P06(2),     // shifts, setcc, cmov, saltos
+        P15(2),     // lea
+        MUL(1),     // p1
+        DIV(1),     // divisor (p0), no segmentado
+        LOAD(2),    // p23
+        STORE(1);   // p4
+
+        private final int capacity;
+
+        Port(int capacity) {
+            this.capacity = capacity;
+        }
+    }
+
+    /** Latencia, puertos y ciclos que la unidad queda ocupada. */
+    private static final class Timing {
+        private final int latency;
+        private final Port port;
+        private final int occupancy;
+
+        Timing(int latency, Port port, int occupancy) {
+            this.latency = latency;
+            this.port = port;
+            this.occupancy = occupancy;
+        }
+    }
+
+    private static final Map<Opcode, Timing> TABLE = new EnumMap<>(Opcode.class);
+
+    static {
+        for (Opcode op : new Opcode[] { Opcode.MOV, Opcode.MOVZB, Opcode.MOVSLQ, Opcode.ADD, Opcode.SUB,
+                Opcode.AND, Opcode.OR, Opcode.XOR, Opcode.INC, Opcode.DEC, Opcode.NEG,
+                Opcode.CMP, Opcode.TEST, Opcode.CQTO, Opcode.CLTD }) {
+            TABLE.put(op, new Timing(1, Port.ALU, 1));
+        }
+        for (Opcode op : new Opcode[] { Opcode.SAL, Opcode.SAR, Opcode.SHR, Opcode.SETCC, Opcode.CMOVCC,
+                Opcode.JCC, Opcode.JMP, Opcode.RET }) {
+            TABLE.put(op, new Timing(1, Port.P06, 1));
+        }
+        TABLE.put(Opcode.LEA, new Timing(1, Port.P15, 1));
+        TABLE.put(Opcode.IMUL, new Timing(3, Port.MUL, 1));
+        TABLE.put(Opcode.IDIV, new Timing(42, Port.DIV, 24));
+        TABLE.put(Opcode.PUSH, new Timing(1, Port.STORE, 1));
+        TABLE.put(Opcode.POP, new Timing(LOAD_LATENCY, Port.LOAD, 1));
+        TABLE.put(Opcode.CALL, new Timing(1, Port.P06, 1));
+    }
+
+    // idiv de 32 bits: bastante mas rapido que el de 64
+    private static final Timing IDIV_LONG = new Timing(26, Port.DIV, 6);
+
+    private static final class Edge {
+        private final Node to;
+        private final int latency;
+
+        Edge(Node to, int latency) {
+            this.to = to;
+            this.latency = latency;
+        }
+    }
+
+    /** Un valor de registro dentro del bloque: cuantas lecturas le faltan. */
+    private static final class Value {
+        private int readers;
+        private int remaining;
+        private boolean liveOut;
+        private boolean started;
+
+        boolean isLive() {
+            return started && (remaining > 0 || liveOut);
+        }
+    }
+
+    private static final class Node {
+        private final int index;
+        private final Instruction instruction;
+        private final List<Edge> successors = new ArrayList<>();
+        private final Set<Node> predecessors = new HashSet<>();
+        private final Set<Value> reads = new HashSet<>();
+        private final Set<Value> writes = new HashSet<>();
+        private int incoming;
+        private int height;
+        private int pending;
+        private int earliest;
+
+        Node(int index, Instruction instruction) {
+            this.index = index;
+            this.instruction = instruction;
+        }
+    }
+
+    private int reorderedBlocks;
+    private int fusedPairs;
+    private int savedCycles;
+
+    public int getReorderedBlocks() { return reorderedBlocks; }
+    public int getFusedPairs() { return fusedPairs; }
+    public int getSavedCycles() { return savedCycles; }
+
+    public void run(MachineProgram program) {
+        reorderedBlocks = 0;
+        fusedPairs = 0;
+        savedCycles = 0;
+        Set<String> tableTargets = new HashSet<>();
+        for (JumpTable table : program.getJumpTables()) {
+            tableTargets.addAll(table.getTargets());
+        }
+        for (MachineFunction function : program.getFunctions()) {
+            Liveness liveness = new Liveness(function, tableTargets);
+            for (BasicBlock block : function.getBlocks()) {
+                if (block.size() > 1) {
+                    schedule(block, liveness);
+                }
+            }
+        }
+    }
+
+    private void schedule(BasicBlock block, Liveness liveness) {
+        List<Instruction> instructions = block.getInstructions();
+        int last = instructions.size() - 1;
+        List<Node> nodes = buildGraph(instructions,
+                liveness.liveAfter(block, last), liveness.flagsLiveAfter(block, last));
+        Node terminator = block.isTerminated() ? nodes.get(last) : null;
+        Node fused = fusionCandidate(nodes, terminator);
+
+        List<Node> order = listSchedule(nodes, terminator, fused);
+        int before = estimateCycles(nodes);
+        int after = estimateCycles(order);
+        boolean fusedBefore = fused != null && nodes.get(last - 1) == fused;
+        boolean fusedAfter = fused != null && order.get(last - 1) == fused;
+        boolean fusible = fused != null && canMacroFuse(fused.instruction, terminator.instruction);
+        if (after > before || (after == before && (fusedBefore || !fusedAfter))) {
+            if (fusedBefore && fusible) {
+                fusedPairs++;
+            }
+            return;
+        }
+        if (fusedAfter && fusible) {
+            fusedPairs++;
+        }
+        savedCycles += before - after;
+        reorderedBlocks++;
+        instructions.clear();
+        for (Node node : order) {
+            instructions.add(node.instruction);
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // Grafo de dependencias
+    // ------------------------------------------------------------------
+
+    private List<Node> buildGraph(List<Instruction> instructions, Set<Register> liveOut, boolean flagsLiveOut) {
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < instructions.size(); i++) {
+            nodes.add(new Node(i, instructions.get(i)));
+        }
+
+        Map<Register, Node> lastDef = new EnumMap<>(Register.class);
+        Map<Register, List<Node>> readers = new EnumMap<>(Register.class);
+        Map<Register, Value> values = new EnumMap<>(Register.class);
+        boolean[] flagsRead = flagsReadAfterWrite(instructions, flagsLiveOut);
+        Node flagWriter = null;
+        List<Node> flagReaders = new ArrayList<>();
+        List<Node> floatingWriters = new ArrayList<>();
+        List<Node> memoryNodes = new ArrayList<>();
+
+        for (Node node : nodes) {
+            Instruction instruction = node.instruction;
+
+            for (Register r : instruction.uses()) {
+                Node def = lastDef.get(r);
+                if (def != null) {
+                    addEdge(def, node, latency(def.instruction));
+                }
+                readers.computeIfAbsent(r, k -> new ArrayList<>()).add(node);
+                if (tracked(r)) {
+                    Value value = values.computeIfAbsent(r, k -> liveInValue());
+                    value.readers++;
+                    node.reads.add(value);
+                }
+            }
+            for (Register r : instruction.defs()) {
+                for (Node reader : readers.getOrDefault(r, Collections.emptyList())) {
+                    addEdge(reader, node, 0);
+                }
+                Node def = lastDef.get(r);
+                if (def != null) {
+                    addEdge(def, node, 0);
+                }
+                lastDef.put(r, node);
+                readers.put(r, new ArrayList<>());
+                if (tracked(r)) {
+                    Value value = new Value();
+                    values.put(r, value);
+                    node.writes.add(value);
+                }
+            }
+
+            // Banderas: solo se ordenan las escrituras que alguien lee; las
+            // demas pueden moverse mientras no caigan entre un par escritura/lectura
+            Opcode op = instruction.getOpcode();
+            if (op.readsFlags()) {
+                // Sin escritura previa lee las banderas de entrada al bloque:
+                // igual ninguna escritura posterior puede subir por encima
+                if (flagWriter != null) {
+                    addEdge(flagWriter, node, latency(flagWriter.instruction));
+                }
+                flagReaders.add(node);
+            }
+            if (op.writesFlags()) {
+                for (Node reader : flagReaders) {
+                    addEdge(reader, node, 0);
+                }
+                if (flagsRead[node.index]) {
+                    for (Node floating : floatingWriters) {
+                        addEdge(floating, node, 0);
+                    }
+                    if (flagWriter != null) {
+                        addEdge(flagWriter, node, 0);
+                    }
+                    floatingWriters.clear();
+                    flagReaders.clear();
+                    flagWriter = node;
+                } else {
+                    floatingWriters.add(node);
+                }
+            }
+
+            if (instruction.readsMemory() || instruction.writesMemory() || movesStack(instruction)) {
+                for (Node other : memoryNodes) {
+                    Instruction previous = other.instruction;
+                    boolean conflict = writesMemory(previous) || writesMemory(instruction);
+                    if (conflict && mayAlias(previous, instruction)) {
+                        int latency = previous.writesMemory() && instruction.readsMemory() ? STORE_FORWARD_LATENCY : 0;
+                        addEdge(other, node, latency);
+                    }
+                }
+                memoryNodes.add(node);
+            }
+        }
+
+        for (Map.Entry<Register, Value> entry : values.entrySet()) {
+            entry.getValue().liveOut = liveOut.contains(entry.getKey());
+        }
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            Node node = nodes.get(i);
+            int height = latency(node.instruction);
+            for (Edge edge : node.successors) {
+                height = Math.max(height, edge.latency + edge.to.height);
+            }
+            node.height = height;
+        }
+        return nodes;
+    }
+
+    /** Para cada instruccion indica si las banderas que escribe se leen despues. */
+    private static boolean[] flagsReadAfterWrite(List<Instruction> instructions, boolean flagsLiveOut) {
+        boolean[] result = new boolean[instructions.size()];
+        boolean live = flagsLiveOut;
+        for (int i = instructions.size() - 1; i >= 0; i--) {
+            Opcode op = instructions.get(i).getOpcode();
+            if (op.writesFlags()) {
+                result[i] = live;
+                live = false;
+            }
+            if (op.readsFlags()) {
+                live = true;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Mover %rsp cambia que parte del frame esta reservada: ningun acceso a
+     * memoria cruza esa instruccion.
+     */
+    private static boolean movesStack(Instruction instruction) {
+        return instruction.defs().contains(Register.RSP);
+    }
+
+    private static boolean writesMemory(Instruction instruction) {
+        return instruction.writesMemory() || movesStack(instruction);
+    }
+
+    private static void addEdge(Node from, Node to, int latency) {
+        if (from == to) {
+            return;
+        }
+        from.successors.add(new Edge(to, latency));
+        to.predecessors.add(from);
+        to.incoming++;
+    }
+
+    private static boolean tracked(Register r) {
+        return r != Register.RSP && r != Register.RBP && r != Register.RIP;
+    }
+
+    private static Value liveInValue() {
+        Value value = new Value();
+        value.started = true;
+        return value;
+    }
+
+    /**
+     * Dos accesos a memoria no se pisan si usan el mismo registro base sin
+     * indice y sus rangos de bytes son disjuntos. Cualquier otra cosa (push,
+     * pop, call, tablas de saltos) se trata como posible alias.
+     */
+    private static boolean mayAlias(Instruction a, Instruction b) {
+        Operand x = memoryOperand(a);
+        Operand y = memoryOperand(b);
+        if (x == null || y == null || x.getIndex() != null || y.getIndex() != null
+                || x.getRegister() == Register.RIP || x.getRegister() != y.getRegister()) {
+            return true;
+        }
+        long startX = x.getValue();
+        long startY = y.getValue();
+        return startX < startY + accessSize(b) && startY < startX + accessSize(a);
+    }
+
+    private static Operand memoryOperand(Instruction instruction) {
+        Opcode op = instruction.getOpcode();
+        if (op == Opcode.PUSH || op == Opcode.POP || op == Opcode.CALL || op == Opcode.RET) {
+            return null;
+        }
+        Operand source = instruction.getSource();
+        if (source != null && source.isMemory() && op != Opcode.LEA) {
+            return source;
+        }
+        Operand destination = instruction.getDestination();
+        return destination != null && destination.isMemory() ? destination : null;
+    }
+
+    private static int accessSize(Instruction instruction) {
+        switch (instruction.getOpcode()) {
+            case MOVZB:
+                return 1;
+            case MOVSLQ:
+                return 4;
+            default:
+                return instruction.getWidth() != null ? instruction.getWidth().getBytes() : 8;
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // Modelo de la maquina
+    // ------------------------------------------------------------------
+
+    private static Timing timing(Instruction instruction) {
+        if (instruction.is(Opcode.IDIV) && instruction.getWidth() != Width.QUAD) {
+            return IDIV_LONG;
+        }
+        return TABLE.get(instruction.getOpcode());
+    }
+
+    /** Ciclos hasta que el resultado esta disponible para quien lo lee. */
+    private static int latency(Instruction instruction) {
+        int latency = timing(instruction).latency;
+        Opcode op = instruction.getOpcode();
+        if (op != Opcode.POP && memoryOperand(instruction) != null && instruction.readsMemory()) {
+            latency += LOAD_LATENCY;
+        }
+        return latency;
+    }
+
+    /** Uops de la instruccion, por grupo de puertos. */
+    private static List<Port> uops(Instruction instruction) {
+        List<Port> ports = new ArrayList<>();
+        Operand memory = memoryOperand(instruction);
+        boolean move = instruction.is(Opcode.MOV) || instruction.is(Opcode.MOVZB) || instruction.is(Opcode.MOVSLQ);
+        if (memory != null && instruction.readsMemory()) {
+            ports.add(Port.LOAD);
+        }
+        if (memory == null || !move) {
+            ports.add(timing(instruction).port);
+        }
+        if (memory != null && instruction.writesMemory()) {
+            ports.add(Port.STORE);
+        }
+        return ports;
+    }
+
+    /** Ocupacion de los puertos en el ciclo actual. */
+    private static final class Resources {
+        private final int[] used = new int[Port.values().length];
+        private int issued;
+        private int dividerFreeAt;
+
+        void nextCycle() {
+            Arrays.fill(used, 0);
+            issued = 0;
+        }
+
+        boolean fits(Instruction instruction, int cycle) {
+            List<Port> ports = uops(instruction);
+            if (issued + ports.size() > ISSUE_WIDTH && issued > 0) {
+                return false;
+            }
+            int[] demand = new int[used.length];
+            for (Port port : ports) {
+                demand[port.ordinal()]++;
+                if (used[port.ordinal()] + demand[port.ordinal()] > port.capacity) {
+                    return false;
+                }
+                if (port == Port.DIV && cycle < dividerFreeAt) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void take(Instruction instruction, int cycle) {
+            for (Port port : uops(instruction)) {
+                used[port.ordinal()]++;
+                issued++;
+                if (port == Port.DIV) {
+                    dividerFreeAt = cycle + timing(instruction).occupancy;
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // Scheduling
+    // ------------------------------------------------------------------
+
+    /**
+     * El cmp/test que decide el jcc final, si puede quedar pegado al salto
+     * (nada de lo que resta del bloque depende de el).
+     */
+    private static Node fusionCandidate(List<Node> nodes, Node terminator) {
+        if (terminator == null || !terminator.instruction.is(Opcode.JCC)) {
+            return null;
+        }
+        Node producer = null;
+        for (Node pred : terminator.predecessors) {
+            if (pred.instruction.getOpcode().writesFlags()
+                    && (producer == null || pred.index > producer.index)) {
+                producer = pred;
+            }
+        }
+        if (producer == null || !isFusible(producer.instruction)) {
+            return null;
+        }
+        for (Edge edge : producer.successors) {
+            if (edge.to != terminator) {
+                return null;
+            }
+        }
+        return producer;
+    }
+
+    private static boolean isFusible(Instruction instruction) {
+        switch (instruction.getOpcode()) {
+            case CMP:
+            case TEST:
+            case ADD:
+            case SUB:
+            case AND:
+            case INC:
+            case DEC:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Reglas de macro-fusion de los nucleos Intel recientes: cmp/test no se
+     * fusionan con memoria e inmediato a la vez, e inc/dec no se fusionan
+     * con condiciones sin signo.
+     */
+    private static boolean canMacroFuse(Instruction producer, Instruction jump) {
+        Operand source = producer.getSource();
+        Operand destination = producer.getDestination();
+        boolean memory = (source != null && source.isMemory()) || (destination != null && destination.isMemory());
+        boolean immediate = source != null && source.isImmediate();
+        if (memory && immediate) {
+            return false;
+        }
+        if (producer.is(Opcode.INC) || producer.is(Opcode.DEC)) {
+            switch (jump.getCondition()) {
+                case A:
+                case AE:
+                case B:
+                case BE:
+                    return false;
+                default:
+                    return true;
+            }
+        }
+        return true;
+    }
+
+    private static List<Node> listSchedule(List<Node> nodes, Node terminator, Node fused) {
+        for (Node node : nodes) {
+            node.pending = node.incoming;
+            node.earliest = 0;
+        }
+        List<Node> order = new ArrayList<>();
+        List<Node> ready = new ArrayList<>();
+        for (Node node : nodes) {
+            if (node.pending == 0) {
+                ready.add(node);
+            }
+        }
+        Resources resources = new Resources();
+        int cycle = 0;
+        int pressure = 0;
+        for (Node node : nodes) {
+            for (Value value : node.reads) {
+                value.remaining = value.readers;
+            }
+        }
+        Set<Value> counted = new HashSet<>();
+        for (Node node : nodes) {
+            for (Value value : node.reads) {
+                if (value.isLive() && counted.add(value)) {
+                    pressure++;
+                }
+            }
+        }
+
+        while (order.size() < nodes.size()) {
+            int remaining = nodes.size() - order.size();
+            List<Node> candidates = new ArrayList<>();
+            for (Node node : ready) {
+                if (node.earliest > cycle) {
+                    continue;
+                }
+                if (node == terminator && remaining > 1) {
+                    continue;
+                }
+                // El cmp del salto espera a que solo quede el salto
+                if (node == fused && remaining > 2) {
+                    continue;
+                }
+                candidates.add(node);
+            }
+            final boolean highPressure = pressure >= PRESSURE_LIMIT;
+            candidates.sort((a, b) -> {
+                if (highPressure) {
+                    int byPressure = Integer.compare(pressureDelta(a), pressureDelta(b));
+                    if (byPressure != 0) {
+                        return byPressure;
+                    }
+                }
+                if (a.height != b.height) {
+                    return Integer.compare(b.height, a.height);
+                }
+                return Integer.compare(a.index, b.index);
+            });
+
+            Node chosen = null;
+            for (Node candidate : candidates) {
+                if (resources.fits(candidate.instruction, cycle)) {
+                    chosen = candidate;
+                    break;
+                }
+            }
+            if (chosen == null) {
+                cycle++;
+                resources.nextCycle();
+                continue;
+            }
+
+            resources.take(chosen.instruction, cycle);
+            pressure += pressureDelta(chosen);
+            for (Value value : chosen.reads) {
+                value.remaining--;
+            }
+            for (Value value : chosen.writes) {
+                value.started = true;
+            }
+            ready.remove(chosen);
+            order.add(chosen);
+            for (Edge edge : chosen.successors) {
+                Node next = edge.to;
+                next.earliest = Math.max(next.earliest, cycle + edge.latency);
+                if (--next.pending == 0) {
+                    ready.add(next);
+                }
+            }
+        }
+        return order;
+    }
+
+    /** Cuantos valores vivos de mas deja la instruccion al emitirse. */
+    private static int pressureDelta(Node node) {
+        int delta = 0;
+        for (Value value : node.writes) {
+            if (value.readers > 0 || value.liveOut) {
+                delta++;
+            }
+        }
+        for (Value value : node.reads) {
+            if (value.remaining == 1 && !value.liveOut && !node.writes.contains(value)) {
+                delta--;
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * Ciclos que tarda el bloque si el procesador emitiera las instrucciones
+     * en el orden dado (modelo en orden, con los mismos puertos y latencias).
+     * Un par cmp+jcc contiguo cuenta como una sola uop.
+     */
+    private static int estimateCycles(List<Node> order) {
+        Map<Node, Integer> issuedAt = new HashMap<>();
+        Resources resources = new Resources();
+        int cycle = 0;
+        int finish = 0;
+        Node previous = null;
+        for (Node node : order) {
+            int start = cycle;
+            for (Node pred : node.predecessors) {
+                for (Edge edge : pred.successors) {
+                    if (edge.to == node) {
+                        start = Math.max(start, issuedAt.get(pred) + edge.latency);
+                    }
+                }
+            }
+            boolean fusedJump = node.instruction.is(Opcode.JCC) && previous != null
+                    && isFusible(previous.instruction) && node.predecessors.contains(previous)
+                    && canMacroFuse(previous.instruction, node.instruction);
+            if (fusedJump) {
+                start = Math.max(start, issuedAt.get(previous));
+            } else {
+                while (start > cycle || !resources.fits(node.instruction, cycle)) {
+                    cycle++;
+                    resources.nextCycle();
+                }
+                resources.take(node.instruction, cycle);
+                start = cycle;
+            }
+            issuedAt.put(node, start);
+            finish = Math.max(finish, start + latency(node.instruction));
+            previous = node;
+        }
+        return finish;
+    }
+}
@@ -0,0 +1,820 @@
+package org.example.codegen;
+
+import java.util.*;
+import org.example.ast.*;
+import org.example.codegen.mir.*;
+
+import static org.example.codegen.mir.Operand.*;
+import static org.example.codegen.mir.Register.*;
+
+/**
+ * Seleccion de instrucciones para expresiones por "maximal munch": cada
+ * nodo se cubre con el tile mas grande que lo abarca, y cuando hay varios
+ * tiles para el mismo patron se elige el de menor costo.
+ *
+ *   x = x + 1        incq -8(%rbp)                  (tile de lectura-modificacion)
+ *   y = x * 5        movq -8(%rbp), %rax
+ *                    leaq (%rax,%rax,4), %rax       (lea en vez de imul)
+ *   if (x < 10)      cmpq $10, -8(%rbp)             (inmediato y memoria en cmp)
+ *
+ * Las constantes y las variables se usan directamente como operandos
+ * inmediatos y de memoria; los resultados intermedios van a registros
+ * temporales de un pool en lugar de pasar por la pila. Los subarboles se
+ * evaluan en orden de Sethi-Ullman (el mas exigente primero) y solo si el
+ * pool no alcanza se guarda un temporal en la pila.
+ */
+public class InstructionSelector {
+
+    /**
+     * Registros temporales en orden de preferencia. Son todos caller-saved;
+     * %rdx va al final porque idiv lo necesita.
+     */
+    private static final Register[] SCRATCH = { RAX, RCX, RSI, RDI, R8, R9, R10, R11, RDX };
+
+    // Costos aproximados en ciclos para elegir entre tiles del mismo patron
+    static final int COST_ALU = 1;
+    static final int COST_LEA = 1;
+    static final int COST_SHIFT = 1;
+    static final int COST_IMUL = 3;
+    static final int COST_IDIV = 25;
+
+    /**
+     * Lo que el selector necesita del generador.
+     */
+    public interface Target {
+        void emit(Instruction instruction);
+
+        /** Operando de memoria de una variable local o parametro. */
+        Operand variable(String name);
+
+        /** Ancho del slot de la variable (BYTE para los bool empaquetados). */
+        Width width(String name);
+
+        /** Genera una expresion que el selector no cubre dejando el resultado en %rax. */
+        void generateOther(ExpressionNode expression);
+
+        /**
+         * Registros que modifica la funcion del programa (resumen del grafo
+         * de llamadas), o null si no se conoce.
+         */
+        Set<Register> clobbers(String function);
+    }
+
+    private final Target target;
+    private final Set<Register> busy;
+    // Ancho de la aritmetica de int (QUAD, o LONG con -int-width 32)
+    private Width intWidth;
+    // Bytes apilados por encima del frame (alineado a 16) en este punto
+    private int stackDepth;
+    // Registro que conviene usar en la proxima asignacion (destino final)
+    private Register preferred;
+    // Temporales que sobrevivieron a una llamada sin push/pop
+    private int preservedAcrossCalls;
+
+    public InstructionSelector(Target target) {
+        this.target = target;
+        this.busy = EnumSet.noneOf(Register.class);
+        this.intWidth = Width.QUAD;
+    }
+
+    public void setIntWidth(Width intWidth) {
+        this.intWidth = intWidth;
+    }
+
+    public int getPreservedAcrossCalls() { return preservedAcrossCalls; }
+
+    public void setPreservedAcrossCalls(int preservedAcrossCalls) {
+        this.preservedAcrossCalls = preservedAcrossCalls;
+    }
+
+    // ------------------------------------------------------------------
+    // Interfaz para el generador
+
+    /** Evalua la expresion y deja el resultado en el registro indicado. */
+    public void evaluateInto(ExpressionNode expression, Register destination) {
+        // Las hojas se cargan directamente en el destino
+        Long constant = constantValue(expression);
+        if (constant != null) {
+            loadConstant(constant, destination);
+            return;
+        }
+        if (expression instanceof VariableNode) {
+            loadVariable(expression, destination);
+            return;
+        }
+        preferred = busy.contains(destination) ? null : destination;
+        Register r = toRegister(expression);
+        preferred = null;
+        if (r != destination) {
+            emit(Opcode.MOV, intWidth, reg(r), reg(destination));
+        }
+        release(r);
+    }
+
+    /**
+     * Evalua la expresion en un registro temporal que queda ocupado hasta
+     * llamar a release.
+     */
+    public Register evaluate(ExpressionNode expression) {
+        return toRegister(expression);
+    }
+
+    public void release(Register register) {
+        busy.remove(register);
+    }
+
+    /**
+     * Operando para leer el valor: memoria si es una variable, un registro
+     * temporal ocupado (que se libera con release) en otro caso.
+     */
+    public Operand evaluateOperand(ExpressionNode expression) {
+        if (isMemory(expression)) {
+            return variableOperand(expression);
+        }
+        return reg(toRegister(expression));
+    }
+
+    public void release(Operand operand) {
+        if (operand.isRegister()) {
+            release(operand.getRegister());
+        }
+    }
+
+    /**
+     * Asignacion a una variable con tiles de almacenamiento directo
+     * (mov $c, mem) y de lectura-modificacion (add/sub/inc/dec sobre mem).
+     */
+    public void assign(String variable, ExpressionNode expression) {
+        Operand destination = target.variable(variable);
+        Width width = target.width(variable);
+
+        Long constant = constantValue(expression);
+        if (constant != null && fitsImmediate(constant)) {
+            emit(Opcode.MOV, width, imm(constant), destination);
+            return;
+        }
+
+        if (expression instanceof BinaryOpNode && width == intWidth) {
+            BinaryOpNode bin = (BinaryOpNode) expression;
+            String op = bin.getOperator();
+            ExpressionNode other = null;
+            if ((op.equals("+") || op.equals("-")) && isVariable(bin.getLeft(), variable)) {
+                other = bin.getRight();
+            } else if (op.equals("+") && isVariable(bin.getRight(), variable)) {
+                other = bin.getLeft();
+            }
+            if (other != null) {
+                Opcode opcode = op.equals("+") ? Opcode.ADD : Opcode.SUB;
+                Long c = constantValue(other);
+                if (c != null && fitsImmediate(c)) {
+                    emitImmediateOp(opcode, c, destination);
+                } else {
+                    Register r = toRegister(other);
+                    emit(opcode, intWidth, reg(r), destination);
+                    release(r);
+                }
+                return;
+            }
+        }
+
+        Register r = toRegister(expression);
+        store(r, variable);
+        release(r);
+    }
+
+    /** Guarda un registro en la variable con el ancho de su slot. */
+    public void store(Register register, String variable) {
+        emit(Opcode.MOV, target.width(variable), reg(register), target.variable(variable));
+    }
+
+    /**
+     * Fija las banderas comparando los operandos y devuelve la condicion que
+     * corresponde al operador (puede quedar invertida si se intercambiaron).
+     */
+    public Condition compare(ComparisonNode node) {
+        ExpressionNode left = node.getLeft();
+        ExpressionNode right = node.getRight();
+        Condition cc = Condition.fromOperator(node.getOperator());
+
+        // La constante siempre a la derecha: cmp $c, x
+        if (isImmediate(left) && !isImmediate(right)) {
+            ExpressionNode tmp = left;
+            left = right;
+            right = tmp;
+            cc = cc.swap();
+        }
+
+        if (isImmediate(right)) {
+            long c = constantValue(right);
+            if (isMemory(left)) {
+                emit(Opcode.CMP, intWidth, imm(c), variableOperand(left));
+            } else if (left instanceof VariableNode && c >= -128 && c <= 127) {
+                // Un bool de un byte vale 0 o 1: alcanza con cmpb
+                emit(Opcode.CMP, Width.BYTE, imm(c), variableOperand(left));
+            } else {
+                Register r = toRegister(left);
+                if (c == 0) {
+                    emit(Opcode.TEST, intWidth, reg(r), reg(r));
+                } else {
+                    emit(Opcode.CMP, intWidth, imm(c), reg(r));
+                }
+                release(r);
+            }
+            return cc;
+        }
+
+        if (isMemory(right)) {
+            Register r = toRegister(left);
+            emit(Opcode.CMP, intWidth, variableOperand(right), reg(r));
+            release(r);
+            return cc;
+        }
+        if (isMemory(left)) {
+            Register r = toRegister(right);
+            emit(Opcode.CMP, intWidth, reg(r), variableOperand(left));
+            release(r);
+            return cc;
+        }
+
+        Register[] regs = evaluateBoth(left, right);
+        emit(Opcode.CMP, intWidth, reg(regs[1]), reg(regs[0]));
+        release(regs[0]);
+        release(regs[1]);
+        return cc;
+    }
+
+    /**
+     * Fija las banderas segun el valor de la expresion: la condicion NE
+     * significa verdadero.
+     */
+    public Condition test(ExpressionNode expression) {
+        if (expression instanceof VariableNode) {
+            emit(Opcode.CMP, widthOf(expression), imm(0), variableOperand(expression));
+            return Condition.NE;
+        }
+        Register r = toRegister(expression);
+        emit(Opcode.TEST, intWidth, reg(r), reg(r));
+        release(r);
+        return Condition.NE;
+    }
+
+    // ------------------------------------------------------------------
+    // Cobertura de expresiones
+
+    private Register toRegister(ExpressionNode expression) {
+        Long constant = constantValue(expression);
+        if (constant != null) {
+            Register r = allocate();
+            loadConstant(constant, r);
+            return r;
+        }
+        if (expression instanceof VariableNode) {
+            Register r = allocate();
+            loadVariable(expression, r);
+            return r;
+        }
+        if (expression instanceof BinaryOpNode) {
+            return binary((BinaryOpNode) expression);
+        }
+        if (expression instanceof ComparisonNode) {
+            Condition cc = compare((ComparisonNode) expression);
+            Register r = allocate();
+            emit(Instruction.set(cc, r));
+            emit(Opcode.MOVZB, Width.LONG, reg(r), reg(r));
+            return r;
+        }
+        if (expression instanceof FunctionCallNode) {
+            return call((FunctionCallNode) expression);
+        }
+        return clobbering(allCallerSaved(), () -> target.generateOther(expression));
+    }
+
+    private Register binary(BinaryOpNode node) {
+        String op = node.getOperator();
+        ExpressionNode left = node.getLeft();
+        ExpressionNode right = node.getRight();
+
+        // Operaciones conmutativas: la hoja queda como operando derecho
+        if ((op.equals("+") || op.equals("*")) && isLeaf(left) && !isLeaf(right)) {
+            ExpressionNode tmp = left;
+            left = right;
+            right = tmp;
+        }
+
+        if (op.equals("/")) {
+            return divide(left, right);
+        }
+
+        Long c = constantValue(right);
+        if (op.equals("*") && c != null) {
+            return multiplyByConstant(left, c);
+        }
+
+        Opcode opcode;
+        switch (op) {
+            case "+": opcode = Opcode.ADD; break;
+            case "-": opcode = Opcode.SUB; break;
+            case "*": opcode = Opcode.IMUL; break;
+            default:
+                throw new RuntimeException("Operador desconocido: " + op);
+        }
+
+        if (c != null && fitsImmediate(c)) {
+            Register r = toRegister(left);
+            emitImmediateOp(opcode, c, reg(r));
+            return r;
+        }
+        if (isMemory(right)) {
+            Register r = toRegister(left);
+            emit(opcode, intWidth, variableOperand(right), reg(r));
+            return r;
+        }
+
+        Register[] regs = evaluateBoth(left, right);
+        emit(opcode, intWidth, reg(regs[1]), reg(regs[0]));
+        release(regs[1]);
+        return regs[0];
+    }
+
+    /**
+     * add/sub con inmediato; +1/-1 con inc/dec (codificacion mas corta).
+     */
+    private void emitImmediateOp(Opcode opcode, long c, Operand destination) {
+        if (opcode == Opcode.IMUL) {
+            emit(opcode, intWidth, imm(c), destination);
+        } else if (c == 1 || c == -1) {
+            boolean increment = (opcode == Opcode.ADD) == (c == 1);
+            emit(Instruction.unary(increment ? Opcode.INC : Opcode.DEC, intWidth, destination));
+        } else if (c != 0) {
+            emit(opcode, intWidth, imm(c), destination);
+        }
+    }
+
+    /**
+     * Multiplicacion por constante eligiendo el tile mas barato entre imul,
+     * desplazamiento (potencias de dos) y lea (3, 5 y 9).
+     */
+    private Register multiplyByConstant(ExpressionNode left, long c) {
+        Register r = toRegister(left);
+        int shift = Long.numberOfTrailingZeros(c);
+
+        if (c == 1) {
+            return r;
+        }
+        if (c == 0) {
+            emit(Opcode.XOR, Width.LONG, reg(r), reg(r));
+        } else if (c > 0 && Long.bitCount(c) == 1 && COST_SHIFT < COST_IMUL) {
+            if (c == 2) {
+                emit(Opcode.ADD, intWidth, reg(r), reg(r));
+            } else {
+                emit(Opcode.SAL, intWidth, imm(shift), reg(r));
+            }
+        } else if ((c == 3 || c == 5 || c == 9) && COST_LEA < COST_IMUL) {
+            emit(Opcode.LEA, intWidth, mem(r, r, (int) c - 1, 0), reg(r));
+        } else if (fitsImmediate(c)) {
+            emit(Opcode.IMUL, intWidth, imm(c), reg(r));
+        } else {
+            Register k = allocate();
+            loadConstant(c, k);
+            emit(Opcode.IMUL, intWidth, reg(k), reg(r));
+            release(k);
+        }
+        return r;
+    }
+
+    /**
+     * Division con signo. Un divisor potencia de dos se resuelve con
+     * desplazamientos (redondeando hacia cero); el resto usa idiv, que
+     * exige el dividendo en %rax y destruye %rdx.
+     */
+    private Register divide(ExpressionNode left, ExpressionNode right) {
+        Long c = constantValue(right);
+        if (c != null && c > 0 && Long.bitCount(c) == 1) {
+            Register r = toRegister(left);
+            int k = Long.numberOfTrailingZeros(c);
+            if (k > 0) {
+                Register t = allocate();
+                emit(Opcode.MOV, intWidth, reg(r), reg(t));
+                int bits = 8 * intWidth.getBytes();
+                emit(Opcode.SAR, intWidth, imm(bits - 1), reg(t));
+                emit(Opcode.SHR, intWidth, imm(bits - k), reg(t));
+                emit(Opcode.ADD, intWidth, reg(t), reg(r));
+                emit(Opcode.SAR, intWidth, imm(k), reg(r));
+                release(t);
+            }
+            return r;
+        }
+
+        Register dividend;
+        Operand divisor;
+        Register divisorRegister = null;
+        if (isMemory(right)) {
+            dividend = toRegister(left);
+            divisor = variableOperand(right);
+        } else {
+            Register[] regs = evaluateBoth(left, right);
+            dividend = regs[0];
+            divisorRegister = regs[1];
+            divisor = reg(divisorRegister);
+        }
+
+        // El divisor no puede quedar en %rax ni en %rdx
+        if (divisorRegister == RAX || divisorRegister == RDX) {
+            Register moved = allocateExcept(RAX, RDX);
+            emit(Opcode.MOV, intWidth, divisor, reg(moved));
+            release(divisorRegister);
+            divisorRegister = moved;
+            divisor = reg(moved);
+        }
+
+        boolean saveRax = busy.contains(RAX) && dividend != RAX;
+        boolean saveRdx = busy.contains(RDX) && dividend != RDX;
+        if (saveRax) {
+            push(reg(RAX));
+        }
+        if (saveRdx) {
+            push(reg(RDX));
+        }
+        if (dividend != RAX) {
+            emit(Opcode.MOV, intWidth, reg(dividend), reg(RAX));
+        }
+        emit(Instruction.nullary(intWidth == Width.LONG ? Opcode.CLTD : Opcode.CQTO));
+        emit(Instruction.unary(Opcode.IDIV, intWidth, divisor));
+        if (dividend != RAX) {
+            emit(Opcode.MOV, intWidth, reg(RAX), reg(dividend));
+        }
+        if (saveRdx) {
+            pop(RDX);
+        }
+        if (saveRax) {
+            pop(RAX);
+        }
+        if (divisorRegister != null) {
+            release(divisorRegister);
+        }
+        return dividend;
+    }
+
+    /**
+     * Llamada segun System V: los seis primeros argumentos en %rdi, %rsi,
+     * %rdx, %rcx, %r8 y %r9 y el resto en la pila (de derecha a izquierda),
+     * con %rsp alineado a 16 en el call. Los argumentos que contienen otra
+     * llamada se evaluan antes y esperan en la pila, asi ninguna llamada
+     * anidada pisa un registro de argumento ya cargado.
+     *
+     * Solo se guardan los temporales ocupados que la llamada puede destruir
+     * segun el resumen del llamado; los demas siguen en su registro.
+     */
+    private Register call(FunctionCallNode node) {
+        Set<Register> clobbered = callClobbers(node);
+        return clobbering(clobbered, () -> {
+            List<ExpressionNode> args = node.getArguments();
+            Register[] argRegs = Instruction.ARGUMENT_REGISTERS;
+            int inRegisters = Math.min(args.size(), argRegs.length);
+            int onStack = args.size() - inRegisters;
+
+            int padding = (stackDepth + 8 * onStack) % 16 == 0 ? 0 : 8;
+            if (padding > 0) {
+                emit(Opcode.SUB, Width.QUAD, imm(padding), reg(RSP));
+                stackDepth += padding;
+            }
+            for (int i = args.size() - 1; i >= inRegisters; i--) {
+                pushArgument(args.get(i));
+            }
+
+            List<Integer> pending = new ArrayList<>();
+            for (int i = 0; i < inRegisters; i++) {
+                if (containsCall(args.get(i))) {
+                    pushArgument(args.get(i));
+                    pending.add(i);
+                }
+            }
+            for (int i = 0; i < inRegisters; i++) {
+                if (!pending.contains(i)) {
+                    evaluateInto(args.get(i), argRegs[i]);
+                    busy.add(argRegs[i]);
+                }
+            }
+            for (int k = pending.size() - 1; k >= 0; k--) {
+                pop(argRegs[pending.get(k)]);
+            }
+            for (int i = 0; i < inRegisters; i++) {
+                release(argRegs[i]);
+            }
+
+            emit(Instruction.call(node.getFunctionName(), clobbered));
+            int cleanup = 8 * onStack + padding;
+            if (cleanup > 0) {
+                emit(Opcode.ADD, Width.QUAD, imm(cleanup), reg(RSP));
+                stackDepth -= cleanup;
+            }
+        });
+    }
+
+    /**
+     * Registros que destruye la llamada: el resumen del llamado mas los
+     * registros de argumento que se cargan y %rax; todos los caller-saved
+     * si la funcion no tiene resumen.
+     */
+    private Set<Register> callClobbers(FunctionCallNode node) {
+        Set<Register> summary = target.clobbers(node.getFunctionName());
+        if (summary == null) {
+            return allCallerSaved();
+        }
+        Set<Register> clobbered = EnumSet.copyOf(summary);
+        clobbered.add(RAX);
+        int inRegisters = Math.min(node.getArgumentCount(), Instruction.ARGUMENT_REGISTERS.length);
+        for (int i = 0; i < inRegisters; i++) {
+            clobbered.add(Instruction.ARGUMENT_REGISTERS[i]);
+        }
+        return clobbered;
+    }
+
+    private static Set<Register> allCallerSaved() {
+        return EnumSet.copyOf(Arrays.asList(Instruction.CALLER_SAVED));
+    }
+
+    /** Union de los registros que destruyen las llamadas de la expresion. */
+    private Set<Register> clobbersOf(ExpressionNode expression) {
+        Set<Register> clobbered = EnumSet.noneOf(Register.class);
+        if (expression instanceof FunctionCallNode) {
+            clobbered.addAll(callClobbers((FunctionCallNode) expression));
+            for (ExpressionNode arg : ((FunctionCallNode) expression).getArguments()) {
+                clobbered.addAll(clobbersOf(arg));
+            }
+        } else if (expression instanceof BinaryOpNode) {
+            clobbered.addAll(clobbersOf(((BinaryOpNode) expression).getLeft()));
+            clobbered.addAll(clobbersOf(((BinaryOpNode) expression).getRight()));
+        } else if (expression instanceof ComparisonNode) {
+            clobbered.addAll(clobbersOf(((ComparisonNode) expression).getLeft()));
+            clobbered.addAll(clobbersOf(((ComparisonNode) expression).getRight()));
+        } else if (expression instanceof LogicalOpNode) {
+            // Las operaciones logicas las genera el generador con su propia llamada
+            return allCallerSaved();
+        }
+        return clobbered;
+    }
+
+    private void pushArgument(ExpressionNode arg) {
+        // pushq lee 8 bytes: una variable mas angosta pasa por un registro
+        if (isImmediate(arg) || (arg instanceof VariableNode && widthOf(arg) == Width.QUAD)) {
+            push(leafOperand(arg));
+        } else {
+            Register r = toRegister(arg);
+            push(reg(r));
+            release(r);
+        }
+    }
+
+    private static boolean containsCall(ExpressionNode expression) {
+        if (expression instanceof FunctionCallNode) {
+            return true;
+        }
+        if (expression instanceof BinaryOpNode) {
+            BinaryOpNode bin = (BinaryOpNode) expression;
+            return containsCall(bin.getLeft()) || containsCall(bin.getRight());
+        }
+        if (expression instanceof ComparisonNode) {
+            ComparisonNode cmp = (ComparisonNode) expression;
+            return containsCall(cmp.getLeft()) || containsCall(cmp.getRight());
+        }
+        if (expression instanceof LogicalOpNode) {
+            LogicalOpNode logical = (LogicalOpNode) expression;
+            return containsCall(logical.getLeft())
+                    || (!logical.isUnary() && containsCall(logical.getRight()));
+        }
+        return false;
+    }
+
+    /**
+     * Ejecuta codigo que deja su resultado en %rax y puede destruir los
+     * registros indicados: guarda los ocupados de ese conjunto (que quedan
+     * libres mientras tanto), deja ocupados los demas y devuelve el
+     * resultado en un registro libre.
+     */
+    private Register clobbering(Set<Register> clobbered, Runnable body) {
+        Register hint = preferred;
+        preferred = null;
+        List<Register> saved = new ArrayList<>();
+        for (Register r : busy) {
+            if (clobbered.contains(r)) {
+                saved.add(r);
+            }
+        }
+        for (Register r : saved) {
+            push(reg(r));
+        }
+        busy.removeAll(saved);
+        Set<Register> kept = EnumSet.noneOf(Register.class);
+        kept.addAll(busy);
+        preservedAcrossCalls += kept.size();
+        body.run();
+        busy.clear();
+        busy.addAll(kept);
+        busy.addAll(saved);
+        preferred = hint;
+        Register result = allocate();
+        if (result != RAX) {
+            emit(Opcode.MOV, intWidth, reg(RAX), reg(result));
+        }
+        for (int i = saved.size() - 1; i >= 0; i--) {
+            pop(saved.get(i));
+        }
+        return result;
+    }
+
+    private void push(Operand operand) {
+        emit(Opcode.PUSH, Width.QUAD, operand);
+        stackDepth += 8;
+    }
+
+    private void pop(Register register) {
+        emit(Opcode.POP, Width.QUAD, reg(register));
+        stackDepth -= 8;
+    }
+
+    /**
+     * Evalua dos subarboles en registros, primero el que necesita mas
+     * registros. Devuelve { izquierdo, derecho }.
+     */
+    private Register[] evaluateBoth(ExpressionNode left, ExpressionNode right) {
+        boolean rightFirst = need(right) > need(left);
+        ExpressionNode first = rightFirst ? right : left;
+        ExpressionNode second = rightFirst ? left : right;
+
+        // Si el segundo llama a una funcion, el primer resultado la espera
+        // en un registro que la llamada no destruye
+        if (containsCall(second)) {
+            Set<Register> clobbered = clobbersOf(second);
+            for (Register r : SCRATCH) {
+                if (r != RAX && !busy.contains(r) && !clobbered.contains(r)) {
+                    preferred = r;
+                    break;
+                }
+            }
+        }
+        Register a = toRegister(first);
+        Register b;
+        if (free() < need(second)) {
+            // No alcanzan los registros: el primer resultado espera en la pila
+            push(reg(a));
+            release(a);
+            b = toRegister(second);
+            a = allocate();
+            pop(a);
+        } else {
+            b = toRegister(second);
+        }
+        return rightFirst ? new Register[] { b, a } : new Register[] { a, b };
+    }
+
+    /**
+     * Numero de Sethi-Ullman: registros necesarios para evaluar el subarbol.
+     */
+    private int need(ExpressionNode expression) {
+        if (expression instanceof FunctionCallNode) {
+            return needOfCall((FunctionCallNode) expression);
+        }
+        if (expression instanceof BinaryOpNode || expression instanceof ComparisonNode) {
+            ExpressionNode left;
+            ExpressionNode right;
+            if (expression instanceof BinaryOpNode) {
+                left = ((BinaryOpNode) expression).getLeft();
+                right = ((BinaryOpNode) expression).getRight();
+            } else {
+                left = ((ComparisonNode) expression).getLeft();
+                right = ((ComparisonNode) expression).getRight();
+            }
+            int l = need(left);
+            int r = isLeaf(right) ? 0 : need(right);
+            return Math.min(SCRATCH.length, l == r ? l + 1 : Math.max(l, r));
+        }
+        return 1;
+    }
+
+    /**
+     * Una llamada guarda los temporales que destruye, asi que solo necesita
+     * los registros de sus argumentos: el argumento i se evalua con los
+     * anteriores ya cargados; los que contienen llamadas o van a la pila se
+     * evaluan solos.
+     */
+    private int needOfCall(FunctionCallNode node) {
+        List<ExpressionNode> args = node.getArguments();
+        int inRegisters = Math.min(args.size(), Instruction.ARGUMENT_REGISTERS.length);
+        int n = 1;
+        int loaded = 0;
+        for (int i = 0; i < args.size(); i++) {
+            ExpressionNode arg = args.get(i);
+            if (i < inRegisters && !containsCall(arg)) {
+                n = Math.max(n, loaded + need(arg));
+                loaded++;
+            } else {
+                n = Math.max(n, need(arg));
+            }
+        }
+        return Math.min(SCRATCH.length, n);
+    }
+
+    // ------------------------------------------------------------------
+    // Registros y operandos
+
+    private Register allocate() {
+        return allocateExcept();
+    }
+
+    private Register allocateExcept(Register... excluded) {
+        Register hint = preferred;
+        preferred = null;
+        if (hint != null && !busy.contains(hint) && !Arrays.asList(excluded).contains(hint)) {
+            busy.add(hint);
+            return hint;
+        }
+        for (Register r : SCRATCH) {
+            if (!busy.contains(r) && !Arrays.asList(excluded).contains(r)) {
+                busy.add(r);
+                return r;
+            }
+        }
+        throw new RuntimeException("No quedan registros temporales libres");
+    }
+
+    private int free() {
+        return SCRATCH.length - busy.size();
+    }
+
+    private void loadConstant(long value, Register r) {
+        if (value == 0) {
+            emit(Opcode.XOR, Width.LONG, reg(r), reg(r));
+        } else if (value > 0 && value <= 0xFFFFFFFFL) {
+            emit(Opcode.MOV, Width.LONG, imm(value), reg(r));
+        } else {
+            emit(Opcode.MOV, Width.QUAD, imm(value), reg(r));
+        }
+    }
+
+    private static Long constantValue(ExpressionNode expression) {
+        if (expression instanceof NumberNode) {
+            return (long) ((NumberNode) expression).getValue();
+        }
+        if (expression instanceof BooleanNode) {
+            return ((BooleanNode) expression).getValue() ? 1L : 0L;
+        }
+        return null;
+    }
+
+    private static boolean fitsImmediate(long value) {
+        return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+    }
+
+    private static boolean isImmediate(ExpressionNode expression) {
+        Long c = constantValue(expression);
+        return c != null && fitsImmediate(c);
+    }
+
+    /** Hoja que se puede usar directamente como operando (inmediato o memoria). */
+    private boolean isLeaf(ExpressionNode expression) {
+        return isImmediate(expression) || isMemory(expression);
+    }
+
+    /** Variable del ancho de los int, que sirve como operando de memoria. */
+    private boolean isMemory(ExpressionNode expression) {
+        return expression instanceof VariableNode && widthOf(expression) == intWidth;
+    }
+
+    private Width widthOf(ExpressionNode expression) {
+        return target.width(((VariableNode) expression).getIdentifier());
+    }
+
+    /** Carga una variable; un bool de un byte se extiende con movzbl. */
+    private void loadVariable(ExpressionNode expression, Register destination) {
+        if (widthOf(expression) == Width.BYTE) {
+            emit(Opcode.MOVZB, Width.LONG, variableOperand(expression), reg(destination));
+        } else {
+            emit(Opcode.MOV, widthOf(expression), variableOperand(expression), reg(destination));
+        }
+    }
+
+    private Operand leafOperand(ExpressionNode expression) {
+        return isImmediate(expression) ? imm(constantValue(expression)) : variableOperand(expression);
+    }
+
+    private Operand variableOperand(ExpressionNode expression) {
+        return target.variable(((VariableNode) expression).getIdentifier());
+    }
+
+    private static boolean isVariable(ExpressionNode expression, String name) {
+        return expression instanceof VariableNode && ((VariableNode) expression).getIdentifier().equals(name);
+    }
+
+    private void emit(Instruction instruction) {
+        target.emit(instruction);
+    }
+
+    private void emit(Opcode opcode, Width width, Operand source, Operand destination) {
+        target.emit(Instruction.of(opcode, width, source, destination));
+    }
+
+    private void emit(Opcode opcode, Width width, Operand operand) {
+        target.emit(Instruction.unary(opcode, width, operand));
+    }
+}
@@ -0,0 +1,360 @@
+package org.example.codegen;
+
+import java.util.*;
+import org.example.codegen.mir.*;
+
+/**
+ * Jump threading sobre el codigo de maquina.
+ *
+ * Sigue cada salto hasta su destino final cuando el resultado de lo que se
+ * encuentra alli ya se conoce por el camino de entrada:
+ *  - saltos a un jmp incondicional (cadenas de saltos tras un join);
+ *  - saltos a un jcc cuyas banderas son las mismas que decidieron el salto
+ *    (condiciones re-evaluadas despues de un join);
+ *  - saltos tras materializar un 0/1 en %rax hacia un cmpq $0, %rax + jcc
+ *    (booleanos de && / || que se vuelven a comprobar).
+ * Luego elimina los bloques vacios y los que quedan inalcanzables. Los
+ * destinos de una tabla de saltos solo son alcanzables si lo es el bloque
+ * que la carga; las tablas que nadie carga se quitan del programa.
+ */
+public class JumpThreading {
+
+    // Resultado de una comparacion con signo: menor, igual, mayor
+    private static final int LT = 1;
+    private static final int EQ = 2;
+    private static final int GT = 4;
+    private static final int ANY = LT | EQ | GT;
+
+    private static final int MAX_THREAD_STEPS = 16;
+
+    private MachineFunction function;
+    private Map<String, BasicBlock> byLabel;
+    private Set<String> tableTargets;
+    private Liveness liveness;
+    private int threadedJumps;
+    private int removedInstructions;
+
+    public void run(MachineProgram program) {
+        threadedJumps = 0;
+        removedInstructions = 0;
+        for (MachineFunction f : program.getFunctions()) {
+            function = f;
+            removeEmptyBlocks(program);
+            tableTargets = tableTargets(program);
+
+            // Cada cambio recalcula el analisis; el limite evita oscilaciones
+            int budget = 4 * function.instructionCount() + 16;
+            boolean changed = true;
+            while (changed && budget-- > 0) {
+                byLabel = function.blocksByLabel();
+                liveness = new Liveness(function, tableTargets);
+                changed = threadJumps();
+            }
+            removeUnreachable(program);
+        }
+        removeUnusedTables(program);
+    }
+
+    public int getThreadedJumps() { return threadedJumps; }
+    public int getRemovedInstructions() { return removedInstructions; }
+
+    private static Set<String> tableTargets(MachineProgram program) {
+        Set<String> targets = new HashSet<>();
+        for (JumpTable table : program.getJumpTables()) {
+            targets.addAll(table.getTargets());
+        }
+        return targets;
+    }
+
+    /**
+     * Redirige las referencias a bloques vacios hacia el bloque que les
+     * sigue y los elimina.
+     */
+    private void removeEmptyBlocks(MachineProgram program) {
+        List<BasicBlock> blocks = function.getBlocks();
+        Map<String, String> forward = new HashMap<>();
+        for (int i = blocks.size() - 2; i >= 1; i--) {
+            BasicBlock block = blocks.get(i);
+            if (block.isEmpty()) {
+                String next = blocks.get(i + 1).getLabel();
+                forward.put(block.getLabel(), forward.getOrDefault(next, next));
+                blocks.remove(i);
+            }
+        }
+        if (forward.isEmpty()) {
+            return;
+        }
+        for (BasicBlock block : blocks) {
+            Instruction last = block.getLast();
+            if (last != null && last.endsBlock() && forward.containsKey(last.getTarget())) {
+                block.getInstructions().set(block.size() - 1, last.withTarget(forward.get(last.getTarget())));
+            }
+        }
+        for (JumpTable table : program.getJumpTables()) {
+            List<String> targets = table.getTargets();
+            for (int i = 0; i < targets.size(); i++) {
+                targets.set(i, forward.getOrDefault(targets.get(i), targets.get(i)));
+            }
+        }
+    }
+
+    /**
+     * Redirige un salto (o agrega uno en un camino de caida) y devuelve true
+     * en cuanto hace un cambio, para recalcular el analisis de vida.
+     */
+    private boolean threadJumps() {
+        Map<String, Integer> predecessors = countPredecessors();
+        List<BasicBlock> blocks = function.getBlocks();
+
+        for (int b = 0; b < blocks.size(); b++) {
+            BasicBlock block = blocks.get(b);
+            Instruction last = block.getLast();
+            if (last == null) {
+                continue;
+            }
+            int bodyEnd = last.endsBlock() ? block.size() - 1 : block.size();
+            Long rax = constantInRax(block, bodyEnd);
+
+            if (!last.endsBlock()) {
+                // Camino de caida tras cargar una constante en %rax
+                BasicBlock next = function.next(block);
+                if (rax != null && next != null) {
+                    String threaded = resolve(next.getLabel(), ANY, rax);
+                    if (!threaded.equals(next.getLabel())) {
+                        block.add(Instruction.jump(threaded));
+                        threadedJumps++;
+                        return true;
+                    }
+                }
+                continue;
+            }
+
+            String target = last.getTarget();
+            if (target == null || !byLabel.containsKey(target)) {
+                continue;
+            }
+
+            int flags = ANY;
+            if (last.is(Opcode.JCC)) {
+                // Camino tomado de un jcc: las banderas cumplen la condicion
+                flags = outcomes(last.getCondition());
+                if (flags == 0) {
+                    continue;
+                }
+            } else if (b > 0 && !writesFlags(block, bodyEnd)
+                    && predecessors.getOrDefault(block.getLabel(), 0) == 0) {
+                // Solo se llega por la caida de un jcc: la condicion no se cumplio
+                Instruction previous = blocks.get(b - 1).getLast();
+                if (previous != null && previous.is(Opcode.JCC) && outcomes(previous.getCondition()) != 0) {
+                    flags = ANY & ~outcomes(previous.getCondition());
+                }
+            }
+
+            String threaded = resolve(target, flags, rax);
+            if (!threaded.equals(target)) {
+                block.getInstructions().set(block.size() - 1, last.withTarget(threaded));
+                threadedJumps++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Destino final de un salto a 'label' sabiendo que las banderas estan en
+     * 'flags' (conjunto de resultados posibles) y %rax vale 'rax' (o null).
+     */
+    private String resolve(String label, int flags, Long rax) {
+        String current = label;
+        boolean flagsFromSkippedCompare = false;
+        boolean settled = false;
+        Set<String> visited = new HashSet<>();
+
+        for (int step = 0; step < MAX_THREAD_STEPS && visited.add(current); step++) {
+            BasicBlock block = byLabel.get(current);
+            if (block.isEmpty()) {
+                settled = true;
+                break;
+            }
+            Instruction first = block.getInstructions().get(0);
+
+            String next = null;
+            if (first.is(Opcode.JMP) && first.getTarget() != null) {
+                next = first.getTarget();
+            } else if (first.is(Opcode.JCC)) {
+                next = decide(block, 0, flags);
+            } else if (rax != null && isZeroTest(first) && block.size() == 2) {
+                // Se salta la comparacion: las banderas reales ya no coinciden
+                long value = first.getWidth() == Width.LONG ? (int) (long) rax : rax;
+                int known = value == 0 ? EQ : (value < 0 ? LT : GT);
+                String decided = decide(block, 1, known);
+                if (decided != null) {
+                    flags = known;
+                    flagsFromSkippedCompare = true;
+                    next = decided;
+                }
+            }
+
+            if (next == null || !byLabel.containsKey(next)) {
+                settled = true;
+                break;
+            }
+            current = next;
+        }
+
+        // Ciclos o cadenas demasiado largas: no se arriesga el redireccionamiento
+        if (!settled || (flagsFromSkippedCompare && liveness.isFlagsLiveIn(byLabel.get(current)))) {
+            return label;
+        }
+        return current;
+    }
+
+    /**
+     * Si la instruccion en 'index' es un jcc cuyo resultado se deduce de
+     * 'flags', devuelve la etiqueta a la que se llega; si no, null.
+     */
+    private String decide(BasicBlock block, int index, int flags) {
+        Instruction instruction = block.getInstructions().get(index);
+        if (!instruction.is(Opcode.JCC)) {
+            return null;
+        }
+        int taken = outcomes(instruction.getCondition());
+        if (taken == 0) {
+            return null;
+        }
+        if ((flags & ~taken) == 0) {
+            return instruction.getTarget();
+        }
+        BasicBlock next = function.next(block);
+        if ((flags & taken) == 0 && next != null) {
+            return next.getLabel();
+        }
+        return null;
+    }
+
+    /**
+     * Cantidad de saltos (o entradas de tabla) que llegan a cada bloque, sin
+     * contar la caida desde el bloque anterior.
+     */
+    private Map<String, Integer> countPredecessors() {
+        Map<String, Integer> counts = new HashMap<>();
+        for (BasicBlock block : function.getBlocks()) {
+            for (String target : block.getBranchTargets()) {
+                counts.merge(target, 1, Integer::sum);
+            }
+        }
+        for (String target : tableTargets) {
+            counts.merge(target, 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    private void removeUnreachable(MachineProgram program) {
+        Map<String, JumpTable> tables = new HashMap<>();
+        for (JumpTable table : program.getJumpTables()) {
+            tables.put(table.getLabel(), table);
+        }
+        List<BasicBlock> blocks = function.getBlocks();
+        Set<BasicBlock> reachable = new HashSet<>();
+        Deque<BasicBlock> pending = new ArrayDeque<>();
+        pending.push(function.getEntry());
+        Map<String, BasicBlock> labels = function.blocksByLabel();
+        Liveness cfg = new Liveness(function, tableTargets);
+        while (!pending.isEmpty()) {
+            BasicBlock block = pending.pop();
+            if (!reachable.add(block)) {
+                continue;
+            }
+            // El salto indirecto solo llega a los destinos de la tabla que se cargo
+            Instruction last = block.getLast();
+            if (last == null || !last.isIndirectJump()) {
+                for (BasicBlock successor : cfg.successors(block)) {
+                    pending.push(successor);
+                }
+            }
+            for (String data : block.getDataReferences()) {
+                JumpTable table = tables.get(data);
+                if (table == null) {
+                    continue;
+                }
+                for (String target : table.getTargets()) {
+                    if (labels.containsKey(target)) {
+                        pending.push(labels.get(target));
+                    }
+                }
+            }
+        }
+        for (Iterator<BasicBlock> it = blocks.iterator(); it.hasNext(); ) {
+            BasicBlock block = it.next();
+            if (!reachable.contains(block)) {
+                removedInstructions += block.size();
+                it.remove();
+            }
+        }
+    }
+
+    /** Quita las tablas cuyo bloque de despacho se elimino. */
+    private static void removeUnusedTables(MachineProgram program) {
+        Set<String> loaded = new HashSet<>();
+        for (MachineFunction f : program.getFunctions()) {
+            for (BasicBlock block : f.getBlocks()) {
+                loaded.addAll(block.getDataReferences());
+            }
+        }
+        program.getJumpTables().removeIf(table -> !loaded.contains(table.getLabel()));
+    }
+
+    private static boolean writesFlags(BasicBlock block, int end) {
+        for (int i = 0; i < end; i++) {
+            if (block.getInstructions().get(i).getOpcode().writesFlags()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int outcomes(Condition cc) {
+        switch (cc) {
+            case E:  return EQ;
+            case NE: return LT | GT;
+            case L:  return LT;
+            case LE: return LT | EQ;
+            case G:  return GT;
+            case GE: return GT | EQ;
+            default: return 0;
+        }
+    }
+
+    private static boolean isZeroTest(Instruction instruction) {
+        Operand src = instruction.getSource();
+        Operand dst = instruction.getDestination();
+        if (instruction.getWidth() == Width.BYTE || dst == null || !dst.isRegister(Register.RAX)) {
+            return false;
+        }
+        return (instruction.is(Opcode.CMP) && src.isImmediate(0))
+                || (instruction.is(Opcode.TEST) && src.isRegister(Register.RAX));
+    }
+
+    /**
+     * Valor constante que queda en %rax antes de la instruccion 'end' del
+     * bloque, o null si no se conoce.
+     */
+    private static Long constantInRax(BasicBlock block, int end) {
+        for (int i = end - 1; i >= 0; i--) {
+            Instruction instruction = block.getInstructions().get(i);
+            if (!instruction.defs().contains(Register.RAX)) {
+                continue;
+            }
+            Operand src = instruction.getSource();
+            if (instruction.is(Opcode.XOR) && src.isRegister(Register.RAX)
+                    && instruction.getDestination().isRegister(Register.RAX)) {
+                return 0L;
+            }
+            if (instruction.is(Opcode.MOV) && src.isImmediate() && instruction.getWidth() != Width.BYTE) {
+                return instruction.getWidth() == Width.LONG ? src.getValue() & 0xFFFFFFFFL : src.getValue();
+            }
+            return null;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,301 @@
+package org.example.codegen;
+
+import java.util.*;
+import org.example.codegen.mir.*;
+
+import static org.example.codegen.mir.Operand.reg;
+
+/**
+ * Optimizador peephole sobre el codigo de maquina. Recorre cada bloque con
+ * ventanas de instrucciones consecutivas aplicando una tabla de reglas
+ * (PeepholeRule) y luego simplifica los saltos entre bloques vecinos, hasta
+ * que nada vuelve a aplicarse. Cuenta cuantas veces se aplico cada regla.
+ */
+public class PeepholeOptimizer {
+
+    private static final int MAX_ROUNDS = 50;
+
+    private static final String JCC_OVER_JMP = "jcc-over-jmp";
+    private static final String JMP_NEXT_BLOCK = "jmp-next-label";
+
+    private final List<PeepholeRule> rules;
+    private final Map<String, Integer> ruleStats;
+
+    public PeepholeOptimizer() {
+        this.rules = new ArrayList<>(defaultRules());
+        this.ruleStats = new LinkedHashMap<>();
+        for (PeepholeRule rule : rules) {
+            ruleStats.put(rule.getName(), 0);
+        }
+        ruleStats.put(JCC_OVER_JMP, 0);
+        ruleStats.put(JMP_NEXT_BLOCK, 0);
+    }
+
+    public void addRule(PeepholeRule rule) {
+        rules.add(rule);
+        ruleStats.putIfAbsent(rule.getName(), 0);
+    }
+
+    /**
+     * Cantidad de veces que se aplico cada regla, en el orden de la tabla.
+     */
+    public Map<String, Integer> getRuleStats() {
+        return ruleStats;
+    }
+
+    public void optimize(MachineProgram program) {
+        Set<String> tableTargets = new HashSet<>();
+        for (JumpTable table : program.getJumpTables()) {
+            tableTargets.addAll(table.getTargets());
+        }
+        for (MachineFunction function : program.getFunctions()) {
+            for (int round = 0; round < MAX_ROUNDS; round++) {
+                boolean changed = applyRound(function, tableTargets);
+                changed |= simplifyLayout(function, tableTargets);
+                if (!changed) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private boolean applyRound(MachineFunction function, Set<String> tableTargets) {
+        boolean changed = false;
+        Liveness liveness = null;
+        for (BasicBlock block : function.getBlocks()) {
+            List<Instruction> instructions = block.getInstructions();
+            for (int i = 0; i < instructions.size(); i++) {
+                for (PeepholeRule rule : rules) {
+                    int end = i + rule.getWindowSize();
+                    if (end > instructions.size()) {
+                        continue;
+                    }
+                    List<Instruction> replacement = rule.apply(instructions.subList(i, end));
+                    if (replacement == null) {
+                        continue;
+                    }
+                    if (rule.requiresFlagsDead()) {
+                        if (liveness == null) {
+                            liveness = new Liveness(function, tableTargets);
+                        }
+                        if (liveness.flagsLiveAfter(block, end - 1)) {
+                            continue;
+                        }
+                    }
+
+                    List<Instruction> window = instructions.subList(i, end);
+                    window.clear();
+                    window.addAll(replacement);
+                    ruleStats.merge(rule.getName(), 1, Integer::sum);
+                    liveness = null;
+                    changed = true;
+                    // Se vuelve a mirar desde un poco antes para encadenar reglas
+                    i = Math.max(-1, i - 3);
+                    break;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Reglas sobre bloques vecinos: un jcc que salta sobre un bloque que solo
+     * tiene un jmp se invierte, y un jmp al bloque siguiente se elimina.
+     */
+    private boolean simplifyLayout(MachineFunction function, Set<String> tableTargets) {
+        boolean changed = false;
+        List<BasicBlock> blocks = function.getBlocks();
+        for (int b = 0; b < blocks.size(); b++) {
+            BasicBlock block = blocks.get(b);
+            Instruction last = block.getLast();
+            if (last == null || b + 1 >= blocks.size()) {
+                continue;
+            }
+            BasicBlock next = blocks.get(b + 1);
+
+            if (last.is(Opcode.JCC) && b + 2 < blocks.size()
+                    && last.getTarget().equals(blocks.get(b + 2).getLabel())
+                    && next.size() == 1 && next.getLast().is(Opcode.JMP) && next.getLast().getTarget() != null
+                    && !isReferenced(function, next.getLabel(), tableTargets)) {
+                block.getInstructions().set(block.size() - 1,
+                        Instruction.branch(last.getCondition().negate(), next.getLast().getTarget()));
+                blocks.remove(b + 1);
+                ruleStats.merge(JCC_OVER_JMP, 1, Integer::sum);
+                changed = true;
+                last = block.getLast();
+                next = blocks.get(b + 1);
+            }
+
+            if (last.is(Opcode.JMP) && next.getLabel().equals(last.getTarget())) {
+                block.getInstructions().remove(block.size() - 1);
+                ruleStats.merge(JMP_NEXT_BLOCK, 1, Integer::sum);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static boolean isReferenced(MachineFunction function, String label, Set<String> tableTargets) {
+        if (tableTargets.contains(label)) {
+            return true;
+        }
+        for (BasicBlock block : function.getBlocks()) {
+            if (block.getBranchTargets().contains(label)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isMov(Instruction instruction, Width width) {
+        return instruction.is(Opcode.MOV) && instruction.getWidth() == width;
+    }
+
+    private static boolean isRegister(Operand operand) {
+        return operand != null && operand.isRegister();
+    }
+
+    private static boolean isMemory(Operand operand) {
+        return operand != null && operand.isMemory();
+    }
+
+    /**
+     * Instruccion simple que no toca la pila, %rax ni cambia el flujo de control.
+     */
+    private static boolean isStraightLine(Instruction instruction) {
+        switch (instruction.getOpcode()) {
+            case JCC:
+            case JMP:
+            case CALL:
+            case RET:
+            case PUSH:
+            case POP:
+            case CQTO:
+            case CLTD:
+            case IDIV:
+                return false;
+            default:
+                break;
+        }
+        return !instruction.uses().contains(Register.RAX) && !instruction.defs().contains(Register.RAX)
+                && !instruction.uses().contains(Register.RSP) && !instruction.defs().contains(Register.RSP);
+    }
+
+    /**
+     * Ventana mov{1,0} a %eax, test %rax, jcc: el salto ya esta decidido.
+     */
+    private static Boolean knownBoolean(List<Instruction> w) {
+        Instruction load = w.get(0);
+        Instruction test = w.get(1);
+        boolean isTest = test.is(Opcode.TEST) && test.getWidth() != Width.BYTE
+                && test.getSource().isRegister(Register.RAX) && test.getDestination().isRegister(Register.RAX);
+        if (!isTest || !w.get(2).is(Opcode.JCC)) {
+            return null;
+        }
+        if (isMov(load, Width.LONG) && load.getSource().isImmediate(1) && load.getDestination().isRegister(Register.RAX)) {
+            return true;
+        }
+        if (load.is(Opcode.XOR) && load.getWidth() == Width.LONG
+                && load.getSource().isRegister(Register.RAX) && load.getDestination().isRegister(Register.RAX)) {
+            return false;
+        }
+        return null;
+    }
+
+    /**
+     * Tabla de reglas por defecto.
+     */
+    public static List<PeepholeRule> defaultRules() {
+        List<PeepholeRule> table = new ArrayList<>();
+
+        // pushq %rax / popq %rax consecutivos no hacen nada
+        table.add(new PeepholeRule("push-pop", 2, w ->
+                w.get(0).is(Opcode.PUSH) && w.get(1).is(Opcode.POP) && isRegister(w.get(0).getSource())
+                        && w.get(0).getSource().equals(w.get(1).getDestination())
+                        ? List.of() : null));
+
+        // pushq x / popq %reg equivale a un mov
+        table.add(new PeepholeRule("push-pop-mov", 2, w ->
+                w.get(0).is(Opcode.PUSH) && w.get(1).is(Opcode.POP) && isRegister(w.get(1).getDestination())
+                        && !w.get(0).getSource().equals(w.get(1).getDestination())
+                        ? List.of(Instruction.of(Opcode.MOV, Width.QUAD, w.get(0).getSource(), w.get(1).getDestination()))
+                        : null));
+
+        // Guardar %rax alrededor de una instruccion que no lo usa
+        table.add(new PeepholeRule("push-around", 3, w ->
+                w.get(0).is(Opcode.PUSH) && w.get(0).getSource().isRegister(Register.RAX)
+                        && w.get(2).is(Opcode.POP) && w.get(2).getDestination().isRegister(Register.RAX)
+                        && isStraightLine(w.get(1))
+                        ? List.of(w.get(1)) : null));
+
+        // Almacenar y volver a cargar el mismo valor
+        table.add(new PeepholeRule("store-load", 2, w ->
+                w.get(0).is(Opcode.MOV) && isMov(w.get(1), w.get(0).getWidth())
+                        && isRegister(w.get(0).getSource()) && isMemory(w.get(0).getDestination())
+                        && w.get(0).getSource().equals(w.get(1).getDestination())
+                        && w.get(0).getDestination().equals(w.get(1).getSource())
+                        ? List.of(w.get(0)) : null));
+
+        // Cargar y volver a almacenar el mismo valor
+        table.add(new PeepholeRule("load-store", 2, w ->
+                w.get(0).is(Opcode.MOV) && isMov(w.get(1), w.get(0).getWidth())
+                        && isMemory(w.get(0).getSource()) && isRegister(w.get(0).getDestination())
+                        && w.get(0).getSource().equals(w.get(1).getDestination())
+                        && w.get(0).getDestination().equals(w.get(1).getSource())
+                        ? List.of(w.get(0)) : null));
+
+        // Operando derecho cargado en %rax solo para pasarlo a otro registro
+        table.add(new PeepholeRule("load-direct", 3, w -> loadDirect(w, Width.QUAD)));
+        table.add(new PeepholeRule("load-imm-direct", 3, w -> loadDirect(w, Width.LONG)));
+
+        table.add(new PeepholeRule("self-move", 1, w ->
+                isMov(w.get(0), Width.QUAD) && isRegister(w.get(0).getSource())
+                        && w.get(0).getSource().equals(w.get(0).getDestination())
+                        ? List.of() : null));
+
+        // xorl es mas corto que xorq y pone en cero los 64 bits
+        table.add(new PeepholeRule("xor-zero-32", 1, w ->
+                w.get(0).is(Opcode.XOR) && w.get(0).getWidth() == Width.QUAD && isRegister(w.get(0).getSource())
+                        && w.get(0).getSource().equals(w.get(0).getDestination())
+                        ? List.of(Instruction.of(Opcode.XOR, Width.LONG, w.get(0).getSource(), w.get(0).getDestination()))
+                        : null));
+
+        // Comparar contra cero con test (sin inmediato)
+        table.add(new PeepholeRule("cmp-zero-test", 1, w ->
+                w.get(0).is(Opcode.CMP) && w.get(0).getSource().isImmediate(0) && isRegister(w.get(0).getDestination())
+                        ? List.of(Instruction.of(Opcode.TEST, w.get(0).getWidth(),
+                                w.get(0).getDestination(), w.get(0).getDestination()))
+                        : null));
+
+        // Booleano constante que se compara de inmediato
+        table.add(new PeepholeRule("known-true-jne", 3, w ->
+                Boolean.TRUE.equals(knownBoolean(w)) && w.get(2).getCondition() == Condition.NE
+                        ? List.of(w.get(0), Instruction.jump(w.get(2).getTarget())) : null).requiresDeadFlags());
+        table.add(new PeepholeRule("known-true-je", 3, w ->
+                Boolean.TRUE.equals(knownBoolean(w)) && w.get(2).getCondition() == Condition.E
+                        ? List.of(w.get(0)) : null).requiresDeadFlags());
+        table.add(new PeepholeRule("known-false-je", 3, w ->
+                Boolean.FALSE.equals(knownBoolean(w)) && w.get(2).getCondition() == Condition.E
+                        ? List.of(w.get(0), Instruction.jump(w.get(2).getTarget())) : null).requiresDeadFlags());
+        table.add(new PeepholeRule("known-false-jne", 3, w ->
+                Boolean.FALSE.equals(knownBoolean(w)) && w.get(2).getCondition() == Condition.NE
+                        ? List.of(w.get(0)) : null).requiresDeadFlags());
+
+        return table;
+    }
+
+    private static List<Instruction> loadDirect(List<Instruction> w, Width loadWidth) {
+        Instruction load = w.get(0);
+        Instruction move = w.get(1);
+        Instruction pop = w.get(2);
+        if (!isMov(load, loadWidth) || !load.getDestination().isRegister(Register.RAX)
+                || (loadWidth == Width.LONG && !load.getSource().isImmediate())
+                || !isMov(move, Width.QUAD) || !move.getSource().isRegister(Register.RAX)
+                || !isRegister(move.getDestination()) || move.getDestination().isRegister(Register.RAX)
+                || !pop.is(Opcode.POP) || !pop.getDestination().isRegister(Register.RAX)) {
+            return null;
+        }
+        Register target = move.getDestination().getRegister();
+        return List.of(Instruction.of(Opcode.MOV, loadWidth, load.getSource(), reg(target)), pop);
+    }
+}
@@ -0,0 +1,47 @@
+package org.example.codegen;
+
+import java.util.List;
+import java.util.function.Function;
+import org.example.codegen.mir.Instruction;
+
+/**
+ * Regla del optimizador peephole: una ventana de instrucciones
+ * consecutivas de un mismo bloque y una funcion que devuelve las
+ * instrucciones de reemplazo, o null si la ventana no coincide.
+ *
+ *   new PeepholeRule("self-move", 1, w -> isSelfMove(w.get(0)) ? List.of() : null)
+ */
+public class PeepholeRule {
+
+    private final String name;
+    private final int windowSize;
+    private final Function<List<Instruction>, List<Instruction>> rewrite;
+    private boolean flagsMustBeDead;
+
+    public PeepholeRule(String name, int windowSize, Function<List<Instruction>, List<Instruction>> rewrite) {
+        this.name = name;
+        this.windowSize = windowSize;
+        this.rewrite = rewrite;
+    }
+
+    /**
+     * Marca la regla como valida solo si las banderas no se leen despues de
+     * la ventana (elimina o cambia una instruccion que las modifica).
+     */
+    public PeepholeRule requiresDeadFlags() {
+        this.flagsMustBeDead = true;
+        return this;
+    }
+
+    public String getName() { return name; }
+    public int getWindowSize() { return windowSize; }
+    public boolean requiresFlagsDead() { return flagsMustBeDead; }
+
+    /**
+     * Intenta aplicar la regla a la ventana. Devuelve las instrucciones de
+     * reemplazo o null si no coincide.
+     */
+    public List<Instruction> apply(List<Instruction> window) {
+        return rewrite.apply(window);
+    }
+}
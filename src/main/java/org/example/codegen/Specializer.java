@@ -0,0 +1,213 @@
+package org.example.codegen;
+
+import java.util.*;
+import org.example.analysis.CallGraph;
+import org.example.ast.*;
+
+/**
+ * Especializacion de funciones para argumentos constantes.
+ *
+ *   int scale(int x, int k) {                int scale.1(int x) {
+ *       if (k == 0) { return x; }     =>         return x * 2;
+ *       return x * k;                        }
+ *   }                                        ... scale.1(a) en lugar de scale(a, 2)
+ *
+ * Cada combinacion de argumentos constantes de las llamadas (las de mas
+ * llamadas primero) genera una copia "f.N" sin esos parametros, donde se
+ * sustituyen por su valor y se pliega. La copia se queda solo si quedo mas
+ * chica que la original; entonces las llamadas con esa combinacion pasan a
+ * llamarla. Dentro de una copia pueden aparecer llamadas nuevas con
+ * constantes (una recursion con el argumento ya calculado), asi que se
+ * repite hasta que no sale ninguna copia nueva. Cada funcion tiene a lo
+ * sumo MAX_CLONES_PER_FUNCTION copias.
+ */
+public class Specializer {
+
+    public static final int MAX_CLONES_PER_FUNCTION = 4;
+
+    private final AstCopy copier;
+    private final ConstantFolder folder;
+
+    private Map<String, FunctionDeclarationNode> functions;
+    private Map<String, List<String>> clones;
+    private Map<String, String> clonesByKey;
+    private Set<String> rejected;
+
+    // Plegados dentro de las copias que se quedaron
+    private int clonedFolds;
+    private int clonedBranches;
+
+    public Specializer(Map<IfNode, IfNode> origins) {
+        this.copier = new AstCopy(origins);
+        this.folder = new ConstantFolder(copier);
+    }
+
+    public int getFoldedExpressions() { return folder.getFoldedExpressions() + clonedFolds; }
+    public int getRemovedBranches() { return folder.getRemovedBranches() + clonedBranches; }
+
+    public int getClones() {
+        int count = 0;
+        for (List<String> list : clones.values()) {
+            count += list.size();
+        }
+        return count;
+    }
+
+    public ProgramNode run(ProgramNode program) {
+        functions = new LinkedHashMap<>();
+        clones = new LinkedHashMap<>();
+        clonesByKey = new HashMap<>();
+        rejected = new HashSet<>();
+        for (FunctionDeclarationNode function : program.getFunctions()) {
+            functions.put(function.getIdentifier(), function);
+            clones.put(function.getIdentifier(), new ArrayList<>());
+        }
+        MainFunctionNode main = program.getMainFunction();
+        List<StatementNode> mainBody = folder.fold(main.getStatements());
+        for (String name : new ArrayList<>(functions.keySet())) {
+            refold(name);
+        }
+
+        while (specializeRound(mainBody)) {
+            mainBody = folder.fold(mainBody, this::redirect);
+            for (String name : new ArrayList<>(functions.keySet())) {
+                refold(name);
+            }
+        }
+
+        // Cada copia queda a continuacion de su original
+        List<FunctionDeclarationNode> result = new ArrayList<>();
+        for (Map.Entry<String, List<String>> entry : clones.entrySet()) {
+            result.add(functions.get(entry.getKey()));
+            for (String clone : entry.getValue()) {
+                result.add(functions.get(clone));
+            }
+        }
+        return new ProgramNode(program.getReturnType(), result,
+                new MainFunctionNode(main.getDeclarations(), mainBody));
+    }
+
+    private void refold(String name) {
+        FunctionDeclarationNode function = functions.get(name);
+        functions.put(name, new FunctionDeclarationNode(function.getReturnType(), name, function.getParameters(),
+                function.getLocalDeclarations(), folder.fold(function.getBody(), this::redirect)));
+    }
+
+    /** Crea las copias de las combinaciones nuevas; false si no hubo ninguna. */
+    private boolean specializeRound(List<StatementNode> mainBody) {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        Map<String, FunctionCallNode> examples = new HashMap<>();
+        List<List<StatementNode>> bodies = new ArrayList<>();
+        bodies.add(mainBody);
+        for (FunctionDeclarationNode function : functions.values()) {
+            bodies.add(function.getBody());
+        }
+        for (List<StatementNode> body : bodies) {
+            for (FunctionCallNode call : CallGraph.calls(body)) {
+                String key = key(call);
+                if (key != null && !clonesByKey.containsKey(key) && !rejected.contains(key)) {
+                    counts.merge(key, 1, Integer::sum);
+                    examples.putIfAbsent(key, call);
+                }
+            }
+        }
+        List<String> keys = new ArrayList<>(counts.keySet());
+        keys.sort((a, b) -> counts.get(b) - counts.get(a));
+
+        boolean created = false;
+        for (String key : keys) {
+            FunctionCallNode call = examples.get(key);
+            List<String> existing = clones.get(call.getFunctionName());
+            if (existing.size() >= MAX_CLONES_PER_FUNCTION) {
+                continue;
+            }
+            FunctionDeclarationNode clone = specialize(call, call.getFunctionName() + "." + (existing.size() + 1));
+            if (clone == null) {
+                rejected.add(key);
+                continue;
+            }
+            functions.put(clone.getIdentifier(), clone);
+            existing.add(clone.getIdentifier());
+            clonesByKey.put(key, clone.getIdentifier());
+            created = true;
+        }
+        return created;
+    }
+
+    /**
+     * Copia de la funcion llamada con los argumentos constantes de 'call'
+     * sustituidos, o null si plegar no la achica.
+     */
+    private FunctionDeclarationNode specialize(FunctionCallNode call, String name) {
+        FunctionDeclarationNode function = functions.get(call.getFunctionName());
+        Set<String> assigned = AstCopy.assignedVariables(function.getBody());
+        Map<String, ExpressionNode> substitution = new HashMap<>();
+        List<ParameterNode> params = new ArrayList<>();
+        List<DeclarationNode> locals = new ArrayList<>(function.getLocalDeclarations());
+        List<StatementNode> body = new ArrayList<>();
+        for (int i = 0; i < function.getParameters().size(); i++) {
+            ParameterNode param = function.getParameters().get(i);
+            ExpressionNode arg = call.getArguments().get(i);
+            if (!isConstant(arg)) {
+                params.add(param);
+            } else if (assigned.contains(param.getIdentifier())) {
+                // El parametro se modifica: pasa a ser un local que arranca con el valor
+                locals.add(new VariableDeclarationNode(param.getType(), param.getIdentifier()));
+                body.add(new AssignmentNode(param.getIdentifier(), arg));
+            } else {
+                substitution.put(param.getIdentifier(), arg);
+            }
+        }
+        body.addAll(copier.statements(function.getBody(), substitution));
+        ConstantFolder trial = new ConstantFolder(copier);
+        body = trial.fold(body, this::redirect);
+        if (AstCopy.size(body) >= AstCopy.size(function.getBody())) {
+            return null;
+        }
+        clonedFolds += trial.getFoldedExpressions();
+        clonedBranches += trial.getRemovedBranches();
+        return new FunctionDeclarationNode(function.getReturnType(), name, params, locals, body);
+    }
+
+    private FunctionCallNode redirect(FunctionCallNode call) {
+        String key = key(call);
+        String clone = key != null ? clonesByKey.get(key) : null;
+        if (clone == null) {
+            return call;
+        }
+        List<ExpressionNode> args = new ArrayList<>();
+        for (ExpressionNode arg : call.getArguments()) {
+            if (!isConstant(arg)) {
+                args.add(arg);
+            }
+        }
+        return new FunctionCallNode(clone, args);
+    }
+
+    /** "f(_,2,true)" para una llamada a una funcion original con algun argumento constante. */
+    private String key(FunctionCallNode call) {
+        if (!clones.containsKey(call.getFunctionName())) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder(call.getFunctionName()).append('(');
+        boolean constant = false;
+        for (int i = 0; i < call.getArguments().size(); i++) {
+            ExpressionNode arg = call.getArguments().get(i);
+            key.append(i > 0 ? "," : "");
+            if (arg instanceof NumberNode) {
+                key.append(((NumberNode) arg).getValue());
+                constant = true;
+            } else if (arg instanceof BooleanNode) {
+                key.append(((BooleanNode) arg).getValue());
+                constant = true;
+            } else {
+                key.append('_');
+            }
+        }
+        return constant ? key.append(')').toString() : null;
+    }
+
+    private static boolean isConstant(ExpressionNode expression) {
+        return expression instanceof NumberNode || expression instanceof BooleanNode;
+    }
+}
@@ -0,0 +1,355 @@
+package org.example.codegen;
+
+import java.util.*;
+import org.example.codegen.mir.*;
+
+import static org.example.codegen.mir.Operand.*;
+import static org.example.codegen.mir.Register.*;
+
+/**
+ * Asignacion de slots del frame (stack slot coloring).
+ *
+ * El generador le da a cada variable y parametro en registro su propio
+ * slot de 8 bytes. Este pass calcula que slots estan vivos en cada punto
+ * (un slot muere cuando se sobrescribe completo) y construye el grafo de
+ * interferencia: una escritura interfiere con todo slot vivo despues de
+ * ella. Despues asigna posiciones de mayor a menor peso (accesos por la
+ * frecuencia estimada del bloque), cada una en el primer hueco alineado
+ * que no pisa a una variable que interfiere. Asi las variables que nunca
+ * estan vivas a la vez comparten memoria, los bool de un byte se empaquetan
+ * y las mas usadas quedan cerca de la base, con desplazamientos de un byte.
+ *
+ * Con -fomit-frame-pointer los accesos pasan a ser relativos a %rsp, que
+ * queda en el otro extremo del frame: ahi el orden se invierte.
+ *
+ * Si algun acceso a -k(%rbp) no coincide con un slot conocido la funcion
+ * se deja como esta.
+ */
+public class StackSlotColoring {
+
+    private final boolean omitFramePointer;
+
+    private int coloredVariables;
+    private int sharedSlots;
+    private int savedBytes;
+
+    public StackSlotColoring(boolean omitFramePointer) {
+        this.omitFramePointer = omitFramePointer;
+    }
+
+    public int getColoredVariables() { return coloredVariables; }
+    public int getSharedSlots() { return sharedSlots; }
+    public int getSavedBytes() { return savedBytes; }
+
+    /** Un slot original del generador. */
+    private static final class Slot {
+        final String name;
+        final int offset;
+        final int size;
+        final Set<Slot> interferes = new HashSet<>();
+        double weight;
+        int assigned;
+
+        Slot(String name, int offset, int size) {
+            this.name = name;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+
+    public void run(MachineProgram program) {
+        coloredVariables = 0;
+        sharedSlots = 0;
+        savedBytes = 0;
+        Set<String> tableTargets = new LinkedHashSet<>();
+        for (JumpTable table : program.getJumpTables()) {
+            tableTargets.addAll(table.getTargets());
+        }
+        for (MachineFunction function : program.getFunctions()) {
+            color(function, tableTargets);
+        }
+    }
+
+    private void color(MachineFunction function, Set<String> tableTargets) {
+        Map<Integer, Slot> byOffset = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : function.getFrameSlots().entrySet()) {
+            if (entry.getValue() > 0) {
+                Slot slot = new Slot(entry.getKey(), entry.getValue(), function.slotWidth(entry.getKey()).getBytes());
+                byOffset.put(slot.offset, slot);
+            }
+        }
+        Instruction frameSetup = frameSetup(function);
+        if (byOffset.isEmpty() || frameSetup == null || !accessesKnown(function, byOffset)) {
+            return;
+        }
+        long oldFrame = frameSetup.getSource().getValue();
+
+        BlockFrequency estimate = new BlockFrequency(function, tableTargets);
+        buildInterference(function, estimate, byOffset);
+
+        // Primero los mas pesados; empate por el orden del generador
+        List<Slot> slots = new ArrayList<>(byOffset.values());
+        slots.sort((a, b) -> {
+            int byWeight = Double.compare(b.weight, a.weight);
+            return byWeight != 0 ? byWeight : Integer.compare(a.offset, b.offset);
+        });
+        List<Slot> placed = new ArrayList<>();
+        int top = 0;
+        for (Slot slot : slots) {
+            slot.assigned = firstFit(slot, placed);
+            placed.add(slot);
+            top = Math.max(top, slot.assigned);
+        }
+        int frame = (top + 15) & ~15;
+        if (frame > oldFrame) {
+            return;
+        }
+
+        boolean mirror = false;
+        if (omitFramePointer) {
+            // Sin frame pointer la base de los desplazamientos es %rsp, salvo
+            // en una hoja en la red zone, que sigue contando desde arriba
+            Map<String, Integer> probe = new HashMap<>(function.getFrameSlots());
+            for (Slot slot : slots) {
+                probe.put(slot.name, slot.assigned);
+            }
+            mirror = !FramePointerElimination.isRedZoneLeaf(function, probe);
+        }
+        Map<Integer, Integer> relocation = new HashMap<>();
+        for (Slot slot : slots) {
+            if (mirror) {
+                slot.assigned = frame - slot.assigned + slot.size;
+            }
+            relocation.put(slot.offset, slot.assigned);
+        }
+
+        for (BasicBlock block : function.getBlocks()) {
+            List<Instruction> instructions = block.getInstructions();
+            for (int i = 0; i < instructions.size(); i++) {
+                Instruction ins = instructions.get(i);
+                if (ins == frameSetup) {
+                    continue;
+                }
+                instructions.set(i, ins.withOperands(
+                        relocate(ins.getSource(), relocation),
+                        relocate(ins.getDestination(), relocation)));
+            }
+        }
+        List<Instruction> prologue = function.getEntry().getInstructions();
+        int setupIndex = prologue.indexOf(frameSetup);
+        if (frame == 0) {
+            prologue.remove(setupIndex);
+        } else {
+            prologue.set(setupIndex, Instruction.of(Opcode.SUB, Width.QUAD, imm(frame), reg(RSP)));
+        }
+        for (Slot slot : slots) {
+            function.getFrameSlots().put(slot.name, slot.assigned);
+        }
+
+        coloredVariables += slots.size();
+        for (Slot slot : slots) {
+            for (Slot other : slots) {
+                if (other != slot && overlaps(slot.assigned, slot.size, other.assigned, other.size)) {
+                    sharedSlots++;
+                    break;
+                }
+            }
+        }
+        savedBytes += (int) (oldFrame - frame);
+    }
+
+    /** El subq $F, %rsp que sigue a mov %rsp, %rbp en el prologo. */
+    private static Instruction frameSetup(MachineFunction function) {
+        List<Instruction> prologue = function.getEntry().getInstructions();
+        int mov = prologue.indexOf(Instruction.of(Opcode.MOV, Width.QUAD, reg(RSP), reg(RBP)));
+        if (mov < 0) {
+            return null;
+        }
+        for (int i = mov + 1; i < prologue.size(); i++) {
+            Instruction ins = prologue.get(i);
+            if (ins.is(Opcode.SUB) && ins.getSource().isImmediate() && ins.getDestination().isRegister(RSP)) {
+                return ins;
+            }
+            if (ins.defs().contains(RSP) || ins.readsMemory() || ins.writesMemory()) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Cada acceso debajo de %rbp cae exactamente en un slot y con un ancho
+     * que no excede el del slot; %rbp no se usa de otra forma.
+     */
+    private static boolean accessesKnown(MachineFunction function, Map<Integer, Slot> byOffset) {
+        for (BasicBlock block : function.getBlocks()) {
+            for (Instruction ins : block.getInstructions()) {
+                for (Operand operand : new Operand[] { ins.getSource(), ins.getDestination() }) {
+                    if (operand == null || !operand.isMemory()) {
+                        continue;
+                    }
+                    if (operand.getIndex() == RBP) {
+                        return false;
+                    }
+                    if (operand.getRegister() != RBP || operand.getValue() >= 0) {
+                        continue;
+                    }
+                    Slot slot = byOffset.get((int) -operand.getValue());
+                    if (slot == null || operand.getIndex() != null || ins.is(Opcode.LEA)
+                            || accessSize(ins) > slot.size) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void buildInterference(MachineFunction function, BlockFrequency estimate,
+                                          Map<Integer, Slot> byOffset) {
+        Map<BasicBlock, Set<Slot>> liveIn = new HashMap<>();
+        for (BasicBlock block : function.getBlocks()) {
+            liveIn.put(block, new HashSet<>());
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            List<BasicBlock> blocks = function.getBlocks();
+            for (int b = blocks.size() - 1; b >= 0; b--) {
+                BasicBlock block = blocks.get(b);
+                Set<Slot> live = liveOut(block, estimate, liveIn);
+                for (int i = block.size() - 1; i >= 0; i--) {
+                    step(block.getInstructions().get(i), live, byOffset, false);
+                }
+                if (!live.equals(liveIn.get(block))) {
+                    liveIn.put(block, live);
+                    changed = true;
+                }
+            }
+        }
+
+        for (BasicBlock block : function.getBlocks()) {
+            double frequency = estimate.frequency(block);
+            Set<Slot> live = liveOut(block, estimate, liveIn);
+            for (int i = block.size() - 1; i >= 0; i--) {
+                Instruction ins = block.getInstructions().get(i);
+                for (Slot slot : accessed(ins, byOffset)) {
+                    slot.weight += frequency;
+                }
+                step(ins, live, byOffset, true);
+            }
+        }
+        // Los que se leen antes de escribirse comparten el valor inicial
+        Set<Slot> entry = liveIn.get(function.getEntry());
+        for (Slot a : entry) {
+            for (Slot b : entry) {
+                if (a != b) {
+                    a.interferes.add(b);
+                }
+            }
+        }
+    }
+
+    private static Set<Slot> liveOut(BasicBlock block, BlockFrequency estimate, Map<BasicBlock, Set<Slot>> liveIn) {
+        Set<Slot> live = new HashSet<>();
+        if (BlockFrequency.returns(block)) {
+            return live;
+        }
+        for (BasicBlock successor : estimate.successors(block)) {
+            live.addAll(liveIn.get(successor));
+        }
+        return live;
+    }
+
+    /**
+     * Transfiere hacia atras una instruccion sobre los slots vivos; con
+     * 'interfere' registra que la escritura pisa a los vivos despues de ella.
+     */
+    private static void step(Instruction ins, Set<Slot> live, Map<Integer, Slot> byOffset, boolean interfere) {
+        Slot written = slotOf(ins.getDestination(), byOffset);
+        if (written != null && ins.getOpcode().writesDestination()) {
+            if (interfere) {
+                for (Slot other : live) {
+                    if (other != written) {
+                        written.interferes.add(other);
+                        other.interferes.add(written);
+                    }
+                }
+            }
+            if (accessSize(ins) == written.size) {
+                live.remove(written);
+            }
+        }
+        Slot read = slotOf(ins.getSource(), byOffset);
+        if (read != null) {
+            live.add(read);
+        }
+        if (written != null && (ins.getOpcode().readsDestination() || !ins.getOpcode().writesDestination())) {
+            live.add(written);
+        }
+    }
+
+    private static List<Slot> accessed(Instruction ins, Map<Integer, Slot> byOffset) {
+        List<Slot> slots = new ArrayList<>(2);
+        Slot source = slotOf(ins.getSource(), byOffset);
+        Slot destination = slotOf(ins.getDestination(), byOffset);
+        if (source != null) {
+            slots.add(source);
+        }
+        if (destination != null) {
+            slots.add(destination);
+        }
+        return slots;
+    }
+
+    private static Slot slotOf(Operand operand, Map<Integer, Slot> byOffset) {
+        if (operand == null || !operand.isMemory() || operand.getRegister() != RBP || operand.getValue() >= 0) {
+            return null;
+        }
+        return byOffset.get((int) -operand.getValue());
+    }
+
+    /**
+     * Menor desplazamiento k (multiplo del tamano) tal que [-k, -k + size)
+     * no se superpone con ninguna variable ya ubicada que interfiere.
+     */
+    private static int firstFit(Slot slot, List<Slot> placed) {
+        int k = slot.size;
+        while (true) {
+            boolean free = true;
+            for (Slot other : placed) {
+                if (slot.interferes.contains(other) && overlaps(k, slot.size, other.assigned, other.size)) {
+                    free = false;
+                    break;
+                }
+            }
+            if (free) {
+                return k;
+            }
+            k += slot.size;
+        }
+    }
+
+    /** Los bytes [-k, -k + size) de ambas variables se superponen. */
+    static boolean overlaps(int k, int size, int otherK, int otherSize) {
+        return k - size < otherK && otherK - otherSize < k;
+    }
+
+    private static Operand relocate(Operand operand, Map<Integer, Integer> relocation) {
+        if (operand == null || !operand.isMemory() || operand.getRegister() != RBP || operand.getValue() >= 0) {
+            return operand;
+        }
+        return mem(RBP, -relocation.get((int) -operand.getValue()));
+    }
+
+    private static int accessSize(Instruction instruction) {
+        switch (instruction.getOpcode()) {
+            case MOVZB:
+                return 1;
+            case MOVSLQ:
+                return 4;
+            default:
+                return instruction.getWidth() != null ? instruction.getWidth().getBytes() : 8;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.example.codegen;
+
+import java.util.*;
+import org.example.ast.*;
+
+/**
+ * Cadena de if/else que compara una misma variable contra constantes:
+ *
+ *   if (x == 1) {...} else { if (x == 2) {...} else {...} }
+ *
+ * Se reconoce sobre el AST para poder generarla como un switch (tabla de
+ * saltos o arbol de comparaciones) en lugar de una cadena lineal de cmp.
+ */
+public class SwitchCascade {
+
+    // Con menos casos la cadena lineal no es peor que el despacho
+    public static final int MIN_CASES = 4;
+    // Limites para decidir si los casos son lo bastante densos para una tabla
+    public static final int MAX_TABLE_SIZE = 256;
+    public static final int MIN_DENSITY_PERCENT = 40;
+
+    public static class Case {
+        private final long value;
+        private final List<StatementNode> body;
+
+        Case(long value, List<StatementNode> body) {
+            this.value = value;
+            this.body = body;
+        }
+
+        public long getValue() { return value; }
+        public List<StatementNode> getBody() { return body; }
+    }
+
+    private final VariableNode variable;
+    private final List<Case> cases;
+    private final List<StatementNode> defaultBlock;
+
+    private SwitchCascade(VariableNode variable, List<Case> cases, List<StatementNode> defaultBlock) {
+        this.variable = variable;
+        this.cases = cases;
+        this.defaultBlock = defaultBlock;
+    }
+
+    /**
+     * Devuelve la cascada que empieza en el if dado, o null si no tiene la
+     * forma de un switch con al menos MIN_CASES casos distintos.
+     */
+    public static SwitchCascade match(IfNode node) {
+        VariableNode variable = null;
+        List<Case> cases = new ArrayList<>();
+        Set<Long> seen = new HashSet<>();
+        IfNode current = node;
+
+        while (true) {
+            ComparisonNode test = asEqualityTest(current.getCondition());
+            VariableNode tested = test != null ? testedVariable(test) : null;
+            if (tested == null) {
+                return null;
+            }
+            if (variable == null) {
+                variable = tested;
+            } else if (!variable.getIdentifier().equals(tested.getIdentifier())) {
+                return null;
+            }
+
+            // Un valor repetido nunca se alcanza: gana la primera comparacion
+            long value = testedConstant(test);
+            if (seen.add(value)) {
+                cases.add(new Case(value, current.getThenBlock()));
+            }
+
+            IfNode next = nextInCascade(current, variable);
+            if (next == null) {
+                break;
+            }
+            current = next;
+        }
+
+        if (cases.size() < MIN_CASES) {
+            return null;
+        }
+        List<StatementNode> defaultBlock = current.hasElse() ? current.getElseBlock() : new ArrayList<>();
+        return new SwitchCascade(variable, cases, defaultBlock);
+    }
+
+    private static IfNode nextInCascade(IfNode node, VariableNode variable) {
+        if (!node.hasElse() || node.getElseBlock().size() != 1) {
+            return null;
+        }
+        StatementNode only = node.getElseBlock().get(0);
+        if (!(only instanceof IfNode)) {
+            return null;
+        }
+        IfNode next = (IfNode) only;
+        ComparisonNode test = asEqualityTest(next.getCondition());
+        VariableNode tested = test != null ? testedVariable(test) : null;
+        if (tested == null || !tested.getIdentifier().equals(variable.getIdentifier())) {
+            return null;
+        }
+        return next;
+    }
+
+    private static ComparisonNode asEqualityTest(ExpressionNode condition) {
+        if (condition instanceof ComparisonNode && ((ComparisonNode) condition).getOperator().equals("==")) {
+            return (ComparisonNode) condition;
+        }
+        return null;
+    }
+
+    private static VariableNode testedVariable(ComparisonNode test) {
+        if (test.getLeft() instanceof VariableNode && test.getRight() instanceof NumberNode) {
+            return (VariableNode) test.getLeft();
+        }
+        if (test.getLeft() instanceof NumberNode && test.getRight() instanceof VariableNode) {
+            return (VariableNode) test.getRight();
+        }
+        return null;
+    }
+
+    private static long testedConstant(ComparisonNode test) {
+        if (test.getLeft() instanceof NumberNode) {
+            return ((NumberNode) test.getLeft()).getValue();
+        }
+        return ((NumberNode) test.getRight()).getValue();
+    }
+
+    public VariableNode getVariable() { return variable; }
+    public List<Case> getCases() { return cases; }
+    public List<StatementNode> getDefaultBlock() { return defaultBlock; }
+
+    public long getMinValue() {
+        long min = Long.MAX_VALUE;
+        for (Case c : cases) {
+            min = Math.min(min, c.getValue());
+        }
+        return min;
+    }
+
+    public long getMaxValue() {
+        long max = Long.MIN_VALUE;
+        for (Case c : cases) {
+            max = Math.max(max, c.getValue());
+        }
+        return max;
+    }
+
+    /**
+     * Casos suficientemente densos como para usar una tabla de saltos
+     * indexada por (x - min) con una sola comprobacion de limites.
+     */
+    public boolean isDense() {
+        long range = getMaxValue() - getMinValue() + 1;
+        return range <= MAX_TABLE_SIZE && cases.size() * 100L >= range * MIN_DENSITY_PERCENT;
+    }
+
+    /**
+     * Caso que se ejecutaria para el valor dado, o null si va al default.
+     */
+    public Case findCase(long value) {
+        for (Case c : cases) {
+            if (c.getValue() == value) {
+                return c;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,78 @@
+package org.example.codegen;
+
+import java.util.*;
+import org.example.codegen.mir.*;
+
+import static org.example.codegen.mir.Operand.*;
+import static org.example.codegen.mir.Register.*;
+
+/**
+ * Llamadas de cola a saltos.
+ *
+ *     call g                     movq %rbp, %rsp
+ *     movq %rbp, %rsp     =>     popq %rbp
+ *     popq %rbp                  jmp g
+ *     ret
+ *
+ * Si despues del call solo se desarma el frame y se retorna, el llamado
+ * puede usar la direccion de retorno que dejo nuestro llamador: el frame
+ * se libera antes y el call + ret pasa a ser un jmp, asi una cadena de
+ * llamadas de cola (recursion mutua incluida) corre en espacio constante.
+ * Solo se aplica si todos los argumentos van en registros: los de la pila
+ * viven en el frame que se libera.
+ *
+ * Corre al final, despues de verificar los resumenes de registros: el jmp
+ * a otra funcion no es un salto dentro de la funcion para ningun pass.
+ */
+public class TailCallElimination {
+
+    private final Set<String> registerArguments;
+
+    private int replacedCalls;
+
+    /** 'registerArguments': funciones que reciben todos sus argumentos en registros. */
+    public TailCallElimination(Set<String> registerArguments) {
+        this.registerArguments = registerArguments;
+    }
+
+    public int getReplacedCalls() { return replacedCalls; }
+
+    public void run(MachineProgram program) {
+        replacedCalls = 0;
+        for (MachineFunction function : program.getFunctions()) {
+            for (BasicBlock block : function.getBlocks()) {
+                rewrite(block.getInstructions());
+            }
+        }
+    }
+
+    private void rewrite(List<Instruction> instructions) {
+        for (int i = 0; i < instructions.size(); i++) {
+            Instruction call = instructions.get(i);
+            if (!call.is(Opcode.CALL) || !registerArguments.contains(call.getTarget())) {
+                continue;
+            }
+            int ret = i + 1;
+            while (ret < instructions.size() && isEpilogue(instructions.get(ret))) {
+                ret++;
+            }
+            if (ret < instructions.size() && instructions.get(ret).is(Opcode.RET)) {
+                instructions.set(ret, Instruction.jump(call.getTarget()));
+                instructions.remove(i);
+                replacedCalls++;
+            }
+        }
+    }
+
+    /** Instrucciones del epilogo, con o sin frame pointer. */
+    private static boolean isEpilogue(Instruction ins) {
+        if (ins.equals(Instruction.of(Opcode.MOV, Width.QUAD, reg(RBP), reg(RSP)))
+                || ins.equals(Instruction.unary(Opcode.POP, Width.QUAD, reg(RBP)))) {
+            return true;
+        }
+        // leaq k(%rsp), %rsp de -fomit-frame-pointer
+        return ins.is(Opcode.LEA) && ins.getDestination().isRegister(RSP)
+                && ins.getSource().isMemory() && ins.getSource().getRegister() == RSP
+                && ins.getSource().getIndex() == null && ins.getSource().getLabel() == null;
+    }
+}
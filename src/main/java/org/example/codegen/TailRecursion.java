@@ -0,0 +1,357 @@
+package org.example.codegen;
+
+import java.util.*;
+import org.example.analysis.CallGraph;
+import org.example.analysis.FunctionSummaries;
+import org.example.ast.*;
+
+/**
+ * Recursion de cola a lazo sobre el AST.
+ *
+ *   int sum(int n, int acc) {               int sum(int n, int acc) {
+ *       if (n == 0) { return acc; }             while (true) {
+ *       return sum(n - 1, acc + n);     =>          if (n == 0) { return acc; }
+ *   }                                               acc = acc + n;
+ *                                                   n = n - 1;
+ *                                               }
+ *                                           }
+ *
+ * Una llamada a la misma funcion en un return al final de su camino (o como
+ * ultima sentencia de una funcion void) pasa a ser la asignacion de los
+ * argumentos a los parametros y una vuelta mas del lazo, que los passes
+ * siguientes tratan como cualquier otro. Si un argumento lee un parametro
+ * que hay que reasignar antes, su valor pasa por "f.x.N". Los locales que se
+ * leen antes de asignarse se vuelven a poner en cero al principio de cada
+ * vuelta, porque la llamada original los veia recien creados.
+ *
+ * Los caminos que terminaban sin return reciben uno explicito para salir
+ * del lazo. Las funciones con un return dentro de un while no se tocan.
+ *
+ * Una recursion lineal que combina el resultado con + o * tambien se
+ * convierte, con un acumulador "f.acc" que arranca en el neutro:
+ *
+ *   int fact(int n) {                       int fact(int n) {
+ *       if (n == 0) { return 1; }               fact.acc = 1;
+ *       return n * fact(n - 1);         =>      while (true) {
+ *   }                                               if (n == 0) { return fact.acc * 1; }
+ *                                                   fact.acc = fact.acc * n;
+ *                                                   n = n - 1;
+ *                                               }
+ *                                           }
+ *
+ * Vale porque + y * son asociativos y conmutativos tambien con el
+ * desborde de complemento a dos. Hace falta que todas las llamadas a la
+ * funcion esten en esos return, con un solo operador, y que el resto de
+ * la expresion no llame a nada ni pueda dividir por cero (se evalua antes
+ * de la llamada en vez de despues).
+ */
+public class TailRecursion {
+
+    private final AstCopy copier;
+
+    // Funcion que se esta convirtiendo
+    private FunctionDeclarationNode function;
+    private List<DeclarationNode> declarations;
+    private String accumulator;
+    private String operator;
+    private int calls;
+    private int counter;
+
+    private int convertedFunctions;
+    private int convertedCalls;
+    private int accumulatedFunctions;
+
+    public TailRecursion(Map<IfNode, IfNode> origins) {
+        this.copier = new AstCopy(origins);
+    }
+
+    public int getConvertedFunctions() { return convertedFunctions; }
+    public int getConvertedCalls() { return convertedCalls; }
+    public int getAccumulatedFunctions() { return accumulatedFunctions; }
+
+    public ProgramNode run(ProgramNode program) {
+        List<FunctionDeclarationNode> functions = new ArrayList<>();
+        for (FunctionDeclarationNode f : program.getFunctions()) {
+            functions.add(convert(f));
+        }
+        return new ProgramNode(program.getReturnType(), functions, program.getMainFunction());
+    }
+
+    private FunctionDeclarationNode convert(FunctionDeclarationNode f) {
+        List<StatementNode> body = copier.tailReturns(f.getBody());
+        if (body == null || (!isVoid(f) && !FunctionSummaries.alwaysReturns(body))) {
+            return f;
+        }
+        function = f;
+        declarations = new ArrayList<>(f.getLocalDeclarations());
+        calls = 0;
+        operator = isVoid(f) ? null : accumulatorOperator(body);
+        accumulator = operator != null ? f.getIdentifier() + ".acc" : null;
+
+        List<StatementNode> loop = new ArrayList<>();
+        Set<String> needsZero = DefiniteAssignment.readBeforeAssigned(f.getLocalDeclarations(), f.getBody());
+        for (DeclarationNode decl : f.getLocalDeclarations()) {
+            if (needsZero.contains(decl.getIdentifier())) {
+                loop.add(new AssignmentNode(decl.getIdentifier(), decl.getType().equals("bool")
+                        ? new BooleanNode(false) : new NumberNode(0)));
+            }
+        }
+        loop.addAll(closePaths(body));
+        if (calls == 0) {
+            return f;
+        }
+        convertedFunctions++;
+        convertedCalls += calls;
+        List<StatementNode> converted = new ArrayList<>();
+        if (accumulator != null) {
+            declarations.add(new VariableDeclarationNode(f.getReturnType(), accumulator));
+            converted.add(new AssignmentNode(accumulator, new NumberNode(operator.equals("+") ? 0 : 1)));
+            accumulatedFunctions++;
+        }
+        converted.add(new WhileNode(new BooleanNode(true), loop));
+        return new FunctionDeclarationNode(f.getReturnType(), f.getIdentifier(),
+                f.getParameters(), declarations, converted);
+    }
+
+    /**
+     * Cierra cada camino del bloque: una llamada de cola a la funcion vuelve
+     * al principio del lazo y el resto sale con un return.
+     */
+    private List<StatementNode> closePaths(List<StatementNode> statements) {
+        List<StatementNode> result = new ArrayList<>();
+        if (statements != null) {
+            result.addAll(statements);
+        }
+        StatementNode last = result.isEmpty() ? null : result.get(result.size() - 1);
+        FunctionCallNode call = selfCall(last);
+        if (call != null) {
+            result.remove(result.size() - 1);
+            result.addAll(rebind(call));
+            calls++;
+        } else if (accumulator != null && last instanceof ReturnNode) {
+            // return a op f(...) acumula a; cualquier otro return combina con lo acumulado
+            ExpressionNode value = ((ReturnNode) last).getExpression();
+            result.remove(result.size() - 1);
+            List<ExpressionNode> operands = new ArrayList<>();
+            flatten(value, operator, operands);
+            call = recursiveOperand(operands);
+            if (call != null) {
+                operands.remove(call);
+                result.add(new AssignmentNode(accumulator, combine(new VariableNode(accumulator), operands)));
+                result.addAll(rebind(call));
+                calls++;
+            } else {
+                result.add(new ReturnNode(new BinaryOpNode(new VariableNode(accumulator), operator, value)));
+            }
+        } else if (last instanceof IfNode) {
+            IfNode ifNode = (IfNode) last;
+            result.set(result.size() - 1, copier.newIf(ifNode, ifNode.getCondition(),
+                    closePaths(ifNode.getThenBlock()), closePaths(ifNode.getElseBlock())));
+        } else if (!(last instanceof ReturnNode)) {
+            result.add(new ReturnNode(null));
+        }
+        return result;
+    }
+
+    private FunctionCallNode selfCall(StatementNode stmt) {
+        ExpressionNode expression = null;
+        if (stmt instanceof ReturnNode) {
+            expression = ((ReturnNode) stmt).getExpression();
+        } else if (stmt instanceof ExpressionStatementNode && isVoid(function)) {
+            expression = ((ExpressionStatementNode) stmt).getExpression();
+        }
+        if (expression instanceof FunctionCallNode
+                && ((FunctionCallNode) expression).getFunctionName().equals(function.getIdentifier())) {
+            return (FunctionCallNode) expression;
+        }
+        return null;
+    }
+
+    /**
+     * Operador con el que se combinan las llamadas recursivas del cuerpo
+     * ("+" o "*"), o null si no todas estan en un return de esa forma.
+     */
+    private String accumulatorOperator(List<StatementNode> body) {
+        List<ExpressionNode> returned = new ArrayList<>();
+        finalReturns(body, returned);
+        String found = null;
+        int recursive = 0;
+        for (ExpressionNode value : returned) {
+            if (!(value instanceof BinaryOpNode)) {
+                continue;
+            }
+            String op = ((BinaryOpNode) value).getOperator();
+            if (!op.equals("+") && !op.equals("*")) {
+                continue;
+            }
+            List<ExpressionNode> operands = new ArrayList<>();
+            flatten(value, op, operands);
+            FunctionCallNode call = recursiveOperand(operands);
+            if (call == null) {
+                continue;
+            }
+            if (found != null && !found.equals(op)) {
+                return null;
+            }
+            for (ExpressionNode operand : operands) {
+                if (operand != call && AstCopy.mayFault(operand)) {
+                    return null;
+                }
+            }
+            found = op;
+            recursive++;
+        }
+        if (found == null) {
+            return null;
+        }
+        // Ninguna otra llamada a la funcion (ni en los argumentos de estas)
+        int selfCalls = 0;
+        for (FunctionCallNode call : CallGraph.calls(body)) {
+            if (call.getFunctionName().equals(function.getIdentifier())) {
+                selfCalls++;
+            }
+        }
+        int tailCalls = 0;
+        for (ExpressionNode value : returned) {
+            if (value instanceof FunctionCallNode
+                    && ((FunctionCallNode) value).getFunctionName().equals(function.getIdentifier())) {
+                tailCalls++;
+            }
+        }
+        return selfCalls == recursive + tailCalls ? found : null;
+    }
+
+    /** Expresiones de los return con que termina cada camino. */
+    private static void finalReturns(List<StatementNode> statements, List<ExpressionNode> returned) {
+        if (statements == null || statements.isEmpty()) {
+            return;
+        }
+        StatementNode last = statements.get(statements.size() - 1);
+        if (last instanceof ReturnNode && ((ReturnNode) last).getExpression() != null) {
+            returned.add(((ReturnNode) last).getExpression());
+        } else if (last instanceof IfNode) {
+            finalReturns(((IfNode) last).getThenBlock(), returned);
+            finalReturns(((IfNode) last).getElseBlock(), returned);
+        }
+    }
+
+    /** Operandos de una cadena de 'op' (a op b op c), en orden. */
+    private static void flatten(ExpressionNode expression, String op, List<ExpressionNode> operands) {
+        if (expression instanceof BinaryOpNode && ((BinaryOpNode) expression).getOperator().equals(op)) {
+            flatten(((BinaryOpNode) expression).getLeft(), op, operands);
+            flatten(((BinaryOpNode) expression).getRight(), op, operands);
+        } else {
+            operands.add(expression);
+        }
+    }
+
+    /** La unica llamada a la funcion entre los operandos, o null. */
+    private FunctionCallNode recursiveOperand(List<ExpressionNode> operands) {
+        FunctionCallNode call = null;
+        for (ExpressionNode operand : operands) {
+            if (operand instanceof FunctionCallNode
+                    && ((FunctionCallNode) operand).getFunctionName().equals(function.getIdentifier())) {
+                if (call != null) {
+                    return null;
+                }
+                call = (FunctionCallNode) operand;
+            }
+        }
+        return call;
+    }
+
+    private ExpressionNode combine(ExpressionNode left, List<ExpressionNode> operands) {
+        for (ExpressionNode operand : operands) {
+            left = new BinaryOpNode(left, operator, operand);
+        }
+        return left;
+    }
+
+    /**
+     * Asignacion de los argumentos a los parametros con la semantica de la
+     * llamada: cada argumento ve los valores de antes de la vuelta. Se
+     * asigna primero el parametro que ningun otro argumento pendiente lee;
+     * un ciclo (a, b) -> (b, a) se corta con una temporal.
+     */
+    private List<StatementNode> rebind(FunctionCallNode call) {
+        List<ParameterNode> params = function.getParameters();
+        // La propia llamada mas las que haya en los argumentos
+        boolean calls = CallGraph.calls(Collections.singletonList(new ExpressionStatementNode(call))).size() > 1;
+        int id = ++counter;
+
+        List<StatementNode> result = new ArrayList<>();
+        Map<Integer, ExpressionNode> values = new LinkedHashMap<>();
+        for (int i = 0; i < params.size(); i++) {
+            ExpressionNode arg = call.getArguments().get(i);
+            String param = params.get(i).getIdentifier();
+            if (arg instanceof VariableNode && ((VariableNode) arg).getIdentifier().equals(param)) {
+                continue;
+            }
+            // Con llamadas en los argumentos se conserva el orden de evaluacion
+            values.put(i, calls ? temporary(params.get(i), id, arg, result) : arg);
+        }
+        while (!values.isEmpty()) {
+            Integer next = null;
+            Integer cyclic = null;
+            for (Integer i : values.keySet()) {
+                String param = params.get(i).getIdentifier();
+                boolean read = false;
+                for (Map.Entry<Integer, ExpressionNode> other : values.entrySet()) {
+                    if (!other.getKey().equals(i) && reads(other.getValue(), param)) {
+                        read = true;
+                        if (cyclic == null) {
+                            cyclic = other.getKey();
+                        }
+                    }
+                }
+                if (!read) {
+                    next = i;
+                    break;
+                }
+            }
+            if (next == null) {
+                values.put(cyclic, temporary(params.get(cyclic), id, values.get(cyclic), result));
+                continue;
+            }
+            result.add(new AssignmentNode(params.get(next).getIdentifier(), values.remove(next)));
+        }
+        return result;
+    }
+
+    private VariableNode temporary(ParameterNode param, int id, ExpressionNode value, List<StatementNode> result) {
+        String name = function.getIdentifier() + "." + param.getIdentifier() + "." + id;
+        declarations.add(new VariableDeclarationNode(param.getType(), name));
+        result.add(new AssignmentNode(name, value));
+        return new VariableNode(name);
+    }
+
+    private static boolean reads(ExpressionNode expression, String name) {
+        if (expression instanceof VariableNode) {
+            return ((VariableNode) expression).getIdentifier().equals(name);
+        }
+        if (expression instanceof BinaryOpNode) {
+            return reads(((BinaryOpNode) expression).getLeft(), name)
+                    || reads(((BinaryOpNode) expression).getRight(), name);
+        }
+        if (expression instanceof ComparisonNode) {
+            return reads(((ComparisonNode) expression).getLeft(), name)
+                    || reads(((ComparisonNode) expression).getRight(), name);
+        }
+        if (expression instanceof LogicalOpNode) {
+            return reads(((LogicalOpNode) expression).getLeft(), name)
+                    || reads(((LogicalOpNode) expression).getRight(), name);
+        }
+        if (expression instanceof FunctionCallNode) {
+            for (ExpressionNode arg : ((FunctionCallNode) expression).getArguments()) {
+                if (reads(arg, name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isVoid(FunctionDeclarationNode f) {
+        return f.getReturnType().equals("void");
+    }
+}
@@ -1,136 +1,611 @@
 package org.example.codegen;
 
 import java.util.*;
+import org.example.analysis.CallGraph;
+import org.example.analysis.FunctionSummaries;
+import org.example.analysis.FunctionSummary;
 import org.example.ast.*;
+import org.example.codegen.mir.*;
 import org.example.semantic.symboltable.SymbolTable;
 
+import static org.example.codegen.mir.Operand.*;
+import static org.example.codegen.mir.Register.*;
+
 public class X86AssemblyGenerator implements ASTVisitor {
 
-    private StringBuilder code;
-    private StringBuilder simulation;
+    // Entradas de la tabla de memoizacion (potencia de 2) y parametros de las funciones memoizables
+    public static final int MEMO_ENTRIES = 1024;
+    public static final int MEMO_MAX_PARAMS = 3;
+
+    private MachineProgram machineProgram;
+    private MachineFunction function;
+    private BasicBlock block;
+    private InstructionSelector selector;
     private SymbolTable symbolTable;
     private Map<String, Integer> localVariables;
-    private Map<String, FunctionDeclarationNode> functions;
-    private Map<String, Long> variableValues;
-    private Map<String, Long> registers;
-    private Stack<Map<String, Long>> callStack;
+    // Variables bool que ocupan un solo byte en la funcion actual
+    private Set<String> byteVariables;
+    // Variables que alguna lectura puede ver sin asignar (llevan el cero)
+    private Set<String> zeroInitialized;
+    private int elidedInitializations;
     private int stackOffset;
     private int labelCounter;
     private String returnType;
-    private int stepCounter;
-    private boolean executeSimulation;
-    private long lastConditionResult;
+    private BranchProfile branchProfile;
+    // Probabilidad de la rama then de cada if del fuente segun el perfil
+    private Map<IfNode, Double> ifProbabilities;
+    // If del fuente del que sale cada if copiado por las transformaciones
+    private Map<IfNode, IfNode> ifOrigins;
+    // Crecimiento permitido por el inlining (porcentaje; negativo: no expandir)
+    private int inlineGrowth;
+    // Pasos por llamada del evaluador en compilacion (0: no evaluar)
+    private long evalFuel;
+    private Map<String, Integer> optimizationStats;
+    // Funciones que main no alcanza, descartadas en la ultima generacion
+    private int deadFunctions;
+    private boolean omitFramePointer;
+    // Ancho de int (y de los bool que no entran en un byte)
+    private Width intWidth;
+    // Registros que modifica cada funcion del programa ya generada
+    private Map<String, Set<Register>> registerSummaries;
+    // Pureza, terminacion, retorno constante y parametros sin usar
+    private FunctionSummaries functionSummaries;
+    // Tabla de resultados en .bss para las funciones puras recursivas
+    private boolean memoize;
+    private Set<String> memoized;
+    // Tabla y parametros de la funcion actual si esta memoizada
+    private String memoTable;
+    private List<String> memoParams;
 
     public X86AssemblyGenerator(SymbolTable symbolTable) {
-        this.code = new StringBuilder();
-        this.simulation = new StringBuilder();
+        this.machineProgram = new MachineProgram();
         this.symbolTable = symbolTable;
         this.localVariables = new HashMap<>();
-        this.functions = new HashMap<>();
-        this.variableValues = new HashMap<>();
-        this.registers = new HashMap<>();
-        this.callStack = new Stack<>();
+        this.byteVariables = new HashSet<>();
+        this.zeroInitialized = new HashSet<>();
         this.stackOffset = 0;
         this.labelCounter = 0;
-        this.stepCounter = 0;
-        this.executeSimulation = true;
-        this.lastConditionResult = 0;
-        initializeRegisters();
+        this.ifProbabilities = new IdentityHashMap<>();
+        this.ifOrigins = new IdentityHashMap<>();
+        this.inlineGrowth = Inliner.DEFAULT_GROWTH_PERCENT;
+        this.evalFuel = CompileTimeEvaluator.DEFAULT_FUEL;
+        this.optimizationStats = new LinkedHashMap<>();
+        this.intWidth = Width.QUAD;
+        this.registerSummaries = new HashMap<>();
+        this.memoized = new HashSet<>();
+        this.selector = new InstructionSelector(new InstructionSelector.Target() {
+            @Override
+            public void emit(Instruction instruction) {
+                X86AssemblyGenerator.this.emit(instruction);
+            }
+
+            @Override
+            public Operand variable(String name) {
+                return X86AssemblyGenerator.this.variable(name);
+            }
+
+            @Override
+            public Width width(String name) {
+                return byteVariables.contains(name) ? Width.BYTE : intWidth;
+            }
+
+            @Override
+            public void generateOther(ExpressionNode expression) {
+                expression.accept(X86AssemblyGenerator.this);
+            }
+
+            @Override
+            public Set<Register> clobbers(String function) {
+                return registerSummaries.get(function);
+            }
+        });
+    }
+
+    /**
+     * Semantica de int: 64 bits (por defecto) o 32 bits, con aritmetica
+     * "l" que desborda como el int de C y slots de 4 bytes.
+     */
+    public void setIntBits(int bits) {
+        if (bits != 32 && bits != 64) {
+            throw new RuntimeException("Ancho de int no soportado: " + bits);
+        }
+        this.intWidth = bits == 32 ? Width.LONG : Width.QUAD;
+        selector.setIntWidth(intWidth);
+    }
+
+    public void setBranchProfile(BranchProfile branchProfile) {
+        this.branchProfile = branchProfile;
     }
 
-    private void initializeRegisters() {
-        registers.put("rax", 0L);
-        registers.put("rbx", 0L);
-        registers.put("rcx", 0L);
-        registers.put("rdx", 0L);
+    /**
+     * Cuanto puede crecer el programa al expandir funciones, en porcentaje
+     * del tamaño original; un valor negativo desactiva el inlining.
+     */
+    public void setInlineGrowth(int inlineGrowth) {
+        this.inlineGrowth = inlineGrowth;
+    }
+
+    /**
+     * Pasos que puede ejecutar el evaluador en compilacion por cada llamada
+     * pura con argumentos constantes; 0 lo desactiva.
+     */
+    public void setEvalFuel(long evalFuel) {
+        this.evalFuel = evalFuel;
+    }
+
+    /**
+     * Memoiza las funciones puras y recursivas: antes del cuerpo se busca
+     * el resultado en una tabla indexada por los argumentos.
+     */
+    public void setMemoize(boolean memoize) {
+        this.memoize = memoize;
+    }
+
+    /**
+     * Direcciona las variables respecto de %rsp y libera %rbp; las hojas
+     * chicas usan la red zone y no tienen prologo.
+     */
+    public void setOmitFramePointer(boolean omitFramePointer) {
+        this.omitFramePointer = omitFramePointer;
+    }
+
+    /**
+     * Contadores de los passes de optimizacion de la ultima generacion.
+     */
+    public Map<String, Integer> getOptimizationStats() {
+        return optimizationStats;
+    }
+
+    /**
+     * Resumenes por funcion del ultimo programa generado.
+     */
+    public FunctionSummaries getFunctionSummaries() {
+        return functionSummaries;
+    }
+
+    /**
+     * Codigo de maquina de la ultima generacion, ya optimizado.
+     */
+    public MachineProgram getMachineProgram() {
+        return machineProgram;
     }
 
     public String generateCode(ProgramNode program) {
+        ifProbabilities.clear();
+        ifOrigins.clear();
+        // Solo se compila lo que main puede llamar
+        deadFunctions = 0;
+        program = removeDeadFunctions(program);
+        if (branchProfile != null) {
+            // El perfil numera los ifs del fuente, antes de transformar nada
+            recordProbabilities(program.getMainFunction().getStatements(), CallGraph.MAIN);
+            for (FunctionDeclarationNode function : program.getFunctions()) {
+                recordProbabilities(function.getBody(), function.getIdentifier());
+            }
+        }
+
+        TailRecursion tailRecursion = new TailRecursion(ifOrigins);
+        program = tailRecursion.run(program);
+        optimizationStats.put("tail calls: funciones recursivas convertidas en lazo", tailRecursion.getConvertedFunctions());
+        optimizationStats.put("tail calls: llamadas recursivas convertidas en salto", tailRecursion.getConvertedCalls());
+        optimizationStats.put("tail calls: recursiones con acumulador", tailRecursion.getAccumulatedFunctions());
+
+        int foldedExpressions = 0;
+        int removedBranches = 0;
+        if (evalFuel > 0) {
+            CompileTimeEvaluator evaluator = new CompileTimeEvaluator(evalFuel, intWidth == Width.LONG ? 32 : 64, ifOrigins);
+            program = evaluator.run(program);
+            optimizationStats.put("evaluacion en compilacion: llamadas reemplazadas", evaluator.getEvaluatedCalls());
+            optimizationStats.put("evaluacion en compilacion: sin combustible", evaluator.getExhaustedCalls());
+            optimizationStats.put("evaluacion en compilacion: llamadas de retorno constante", evaluator.getConstantCalls());
+            foldedExpressions += evaluator.getFoldedExpressions();
+            removedBranches += evaluator.getRemovedBranches();
+        }
+
+        Specializer specializer = new Specializer(ifOrigins);
+        program = specializer.run(program);
+        optimizationStats.put("especializacion: copias por argumentos constantes", specializer.getClones());
+        optimizationStats.put("constantes: expresiones plegadas", foldedExpressions + specializer.getFoldedExpressions());
+        optimizationStats.put("constantes: ramas eliminadas", removedBranches + specializer.getRemovedBranches());
+
+        // Las originales cuyas llamadas pasaron todas a copias
+        program = removeDeadFunctions(program);
+        DeadArgumentElimination deadArguments = new DeadArgumentElimination(ifOrigins);
+        program = deadArguments.run(program);
+        optimizationStats.put("argumentos muertos: parametros eliminados", deadArguments.getRemovedParameters());
+        optimizationStats.put("argumentos muertos: funciones que pasan a void", deadArguments.getVoidFunctions());
+
+        if (inlineGrowth >= 0) {
+            Inliner inliner = new Inliner(inlineGrowth, ifOrigins);
+            program = inliner.run(program);
+            optimizationStats.put("inlining: llamadas expandidas", inliner.getInlinedCalls());
+            optimizationStats.put("inlining: funciones eliminadas", inliner.getRemovedFunctions());
+            optimizationStats.put("inlining: nodos agregados", inliner.getGrowth());
+        }
+
+        program = removeDeadFunctions(program);
+        optimizationStats.put("funciones muertas: eliminadas", deadFunctions);
+
         program.accept(this);
+        recordSummaryStats();
+        if (memoize) {
+            optimizationStats.put("memoizacion: funciones con tabla", memoized.size());
+        }
+        optimizationStats.put("definite assignment: inicializaciones eliminadas", elidedInitializations);
+        int customConventions = 0;
+        for (MachineFunction f : machineProgram.getFunctions()) {
+            if (!f.getName().equals(CallGraph.MAIN)
+                    && !registerSummaries.get(f.getName()).containsAll(Arrays.asList(Instruction.CALLER_SAVED))) {
+                customConventions++;
+            }
+        }
+        optimizationStats.put("interprocedural: funciones con convencion propia", customConventions);
+        optimizationStats.put("interprocedural: temporales preservados sin push", selector.getPreservedAcrossCalls());
+
+        JumpThreading threading = new JumpThreading();
+        threading.run(machineProgram);
+        optimizationStats.put("jump threading: saltos redirigidos", threading.getThreadedJumps());
+        optimizationStats.put("jump threading: instrucciones inalcanzables", threading.getRemovedInstructions());
+
+        BlockPlacement placement = new BlockPlacement();
+        placement.run(machineProgram);
+        optimizationStats.put("block placement: bloques movidos", placement.getMovedBlocks());
+        optimizationStats.put("block placement: bloques frios al final", placement.getColdBlocks());
+        optimizationStats.put("block placement: lazos rotados", placement.getRotatedLoops());
+        optimizationStats.put("block placement: cabeceras de lazo alineadas", placement.getAlignedLoops());
+
+        PeepholeOptimizer peephole = new PeepholeOptimizer();
+        peephole.optimize(machineProgram);
+        for (Map.Entry<String, Integer> entry : peephole.getRuleStats().entrySet()) {
+            optimizationStats.put("peephole: " + entry.getKey(), entry.getValue());
+        }
+
+        InstructionScheduler scheduler = new InstructionScheduler();
+        scheduler.run(machineProgram);
+        optimizationStats.put("scheduler: bloques reordenados", scheduler.getReorderedBlocks());
+        optimizationStats.put("scheduler: ciclos estimados ahorrados", scheduler.getSavedCycles());
+        optimizationStats.put("scheduler: pares cmp/jcc fusionables", scheduler.getFusedPairs());
+
+        StackSlotColoring slotColoring = new StackSlotColoring(omitFramePointer);
+        slotColoring.run(machineProgram);
+        optimizationStats.put("stack slots: variables ubicadas", slotColoring.getColoredVariables());
+        optimizationStats.put("stack slots: variables que comparten slot", slotColoring.getSharedSlots());
+        optimizationStats.put("stack slots: bytes de frame ahorrados", slotColoring.getSavedBytes());
+
+        if (omitFramePointer) {
+            FramePointerElimination frames = new FramePointerElimination();
+            frames.run(machineProgram);
+            optimizationStats.put("frame pointer: funciones sin %rbp", frames.getOmittedFrames());
+            optimizationStats.put("frame pointer: hojas en la red zone", frames.getRedZoneLeaves());
+        }
+        verifyRegisterSummaries();
+
+        Set<String> registerArguments = new HashSet<>();
+        for (FunctionDeclarationNode function : program.getFunctions()) {
+            if (function.getParameters().size() <= Instruction.ARGUMENT_REGISTERS.length) {
+                registerArguments.add(function.getIdentifier());
+            }
+        }
+        TailCallElimination tailCalls = new TailCallElimination(registerArguments);
+        tailCalls.run(machineProgram);
+        optimizationStats.put("tail calls: call + ret reemplazados por jmp", tailCalls.getReplacedCalls());
+
+        IdenticalCodeFolding folding = new IdenticalCodeFolding();
+        folding.run(machineProgram);
+        optimizationStats.put("icf: funciones plegadas", folding.getFoldedFunctions());
+        optimizationStats.put("icf: instrucciones ahorradas", folding.getSavedInstructions());
+
         StringBuilder output = new StringBuilder();
         output.append("# x86-64 Assembly code con  operadores lógicos\n");
-        output.append(".section .text\n");
-        output.append(".global main\n\n");
-        output.append(code.toString());
-        output.append("\n");
+        output.append(new AsmPrinter().print(machineProgram));
         output.append(generateSimulationTrace());
         return output.toString();
     }
 
-    private void addSimulationStep(String instruction, String description) {
-        if (executeSimulation) {
-            stepCounter++;
-            simulation.append(String.format("Step %d: %-40s # %s\n", stepCounter, instruction, description));
+    private ProgramNode removeDeadFunctions(ProgramNode program) {
+        ProgramNode reachable = CallGraph.reachableProgram(program);
+        deadFunctions += program.getFunctions().size() - reachable.getFunctions().size();
+        return reachable;
+    }
+
+    private void emit(Instruction instruction) {
+        // Lo que sigue a un salto va en un bloque nuevo (el de caida de un jcc)
+        if (block.isTerminated()) {
+            block = function.addBlock(generateLabel());
         }
+        block.add(instruction);
+    }
+
+    private void emit(Opcode opcode, Width width, Operand source, Operand destination) {
+        emit(Instruction.of(opcode, width, source, destination));
+    }
+
+    private void emit(Opcode opcode, Operand operand) {
+        emit(Instruction.unary(opcode, Width.QUAD, operand));
+    }
+
+    private void placeLabel(String label) {
+        block = function.addBlock(label);
     }
 
-    private void updateRegister(String reg, long value) {
-        if (executeSimulation) {
-            registers.put(reg, value);
+    private void beginFunction(String name) {
+        function = new MachineFunction(name);
+        machineProgram.getFunctions().add(function);
+        block = function.addBlock(name);
+    }
+
+    private Operand variable(String name) {
+        Integer offset = localVariables.get(name);
+        if (offset == null) {
+            throw new RuntimeException("Variable no encontrada: " + name);
         }
+        return mem(RBP, -offset);
     }
 
-    private long getRegister(String reg) {
-        return registers.getOrDefault(reg, 0L);
+    private void emitEpilogue() {
+        emit(Opcode.MOV, Width.QUAD, reg(RBP), reg(RSP));
+        emit(Opcode.POP, reg(RBP));
+        emit(Instruction.nullary(Opcode.RET));
     }
 
+    /**
+     * Genera las funciones de abajo hacia arriba en el grafo de llamadas:
+     * al generar una llamada ya se conoce que registros modifica el llamado
+     * y los temporales que no toca quedan en su registro sin push/pop.
+     * Despues se restaura el orden del fuente (funciones y main al final).
+     */
     @Override
     public void visit(ProgramNode node) {
         this.returnType = node.getReturnType();
-        simulation.append("#simulacion - Programa con tipo de retorno: ").append(returnType).append("\n");
-        simulation.append("# " + "=".repeat(60) + "\n\n");
+        registerSummaries.clear();
 
-        // Registrar todas las funciones primero
+        Map<String, ASTNode> declarations = new HashMap<>();
         for (FunctionDeclarationNode func : node.getFunctions()) {
-            functions.put(func.getIdentifier(), func);
+            declarations.put(func.getIdentifier(), func);
+        }
+        declarations.put(CallGraph.MAIN, node.getMainFunction());
+
+        CallGraph callGraph = CallGraph.build(node);
+        functionSummaries = FunctionSummaries.compute(node, callGraph);
+        memoized = memoize ? memoCandidates(node) : new HashSet<>();
+        for (List<String> component : callGraph.getComponents()) {
+            generateComponent(component, callGraph, declarations);
         }
 
-        // Generar código para cada función
+        List<MachineFunction> ordered = new ArrayList<>();
+        for (String name : callGraph.getFunctions()) {
+            ordered.add(machineProgram.getFunction(name));
+        }
+        machineProgram.getFunctions().clear();
+        machineProgram.getFunctions().addAll(ordered);
+    }
+
+    /**
+     * Genera una componente del grafo de llamadas y deja el resumen de
+     * registros de cada miembro. En una componente recursiva las llamadas
+     * internas usan un resumen supuesto (al principio solo %rax); si el
+     * codigo generado modifica mas registros se agranda el supuesto y se
+     * vuelve a generar la componente, hasta que el supuesto cubre al codigo.
+     */
+    private void generateComponent(List<String> component, CallGraph callGraph,
+                                   Map<String, ASTNode> declarations) {
+        boolean recursive = callGraph.isRecursive(component.get(0));
+        for (String name : component) {
+            registerSummaries.put(name, EnumSet.of(RAX));
+        }
+        int functionCount = machineProgram.getFunctions().size();
+        int tableCount = machineProgram.getJumpTables().size();
+        int savedLabelCounter = labelCounter;
+        int savedElided = elidedInitializations;
+        int savedPreserved = selector.getPreservedAcrossCalls();
+        while (true) {
+            for (String name : component) {
+                declarations.get(name).accept(this);
+            }
+            boolean covered = true;
+            Map<String, Set<Register>> clobbered = new HashMap<>();
+            for (String name : component) {
+                clobbered.put(name, clobberedRegisters(machineProgram.getFunction(name)));
+                if (!registerSummaries.get(name).containsAll(clobbered.get(name))) {
+                    registerSummaries.get(name).addAll(clobbered.get(name));
+                    covered = false;
+                }
+            }
+            if (covered || !recursive) {
+                // Lo que realmente modifica el codigo (un subconjunto del supuesto)
+                registerSummaries.putAll(clobbered);
+                return;
+            }
+            List<MachineFunction> functions = machineProgram.getFunctions();
+            functions.subList(functionCount, functions.size()).clear();
+            List<JumpTable> tables = machineProgram.getJumpTables();
+            tables.subList(tableCount, tables.size()).clear();
+            labelCounter = savedLabelCounter;
+            elidedInitializations = savedElided;
+            selector.setPreservedAcrossCalls(savedPreserved);
+        }
+    }
+
+    /**
+     * Funciones puras y recursivas que devuelven algo, con 1 a
+     * MEMO_MAX_PARAMS parametros que el cuerpo nunca asigna: al llegar al
+     * return los slots todavia tienen los argumentos de la llamada.
+     */
+    private Set<String> memoCandidates(ProgramNode node) {
+        Set<String> candidates = new LinkedHashSet<>();
         for (FunctionDeclarationNode func : node.getFunctions()) {
-            func.accept(this);
+            FunctionSummary summary = functionSummaries.get(func.getIdentifier());
+            int params = func.getParameters().size();
+            if (!summary.isRecursive() || !summary.isPure() || func.getReturnType().equals("void")
+                    || params == 0 || params > MEMO_MAX_PARAMS) {
+                continue;
+            }
+            Set<String> assigned = AstCopy.assignedVariables(func.getBody());
+            boolean readOnly = true;
+            for (ParameterNode param : func.getParameters()) {
+                readOnly &= !assigned.contains(param.getIdentifier());
+            }
+            if (readOnly) {
+                candidates.add(func.getIdentifier());
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Deja en 'entry' la direccion de la entrada de la tabla que corresponde
+     * a los argumentos actuales (h = h * 31 + p, modulo MEMO_ENTRIES); usa
+     * 'scratch'. Cada entrada tiene valida, las claves y el valor, de 8 bytes.
+     */
+    private void emitMemoEntry(Register entry, Register scratch) {
+        emit(Opcode.MOV, intWidth, variable(memoParams.get(0)), reg(entry));
+        for (int i = 1; i < memoParams.size(); i++) {
+            emit(Opcode.IMUL, Width.QUAD, imm(31), reg(entry));
+            emit(Opcode.MOV, intWidth, variable(memoParams.get(i)), reg(scratch));
+            emit(Opcode.ADD, Width.QUAD, reg(scratch), reg(entry));
         }
+        emit(Opcode.AND, Width.QUAD, imm(MEMO_ENTRIES - 1), reg(entry));
+        emit(Opcode.SAL, Width.QUAD, imm(Long.numberOfTrailingZeros(memoEntryBytes())), reg(entry));
+        emit(Opcode.LEA, Width.QUAD, ripRelative(memoTable, 0), reg(scratch));
+        emit(Opcode.ADD, Width.QUAD, reg(scratch), reg(entry));
+    }
+
+    /** Bytes por entrada: valida + claves + valor, redondeado a potencia de 2. */
+    private int memoEntryBytes() {
+        return Integer.highestOneBit(8 * (memoParams.size() + 2) - 1) << 1;
+    }
+
+    /** Si la entrada es valida y sus claves coinciden, retorna el valor guardado. */
+    private void emitMemoLookup() {
+        String miss = generateLabel();
+        emitMemoEntry(RCX, RDX);
+        emit(Opcode.CMP, Width.QUAD, imm(0), mem(RCX, 0));
+        emit(Instruction.branch(Condition.E, miss));
+        for (int i = 0; i < memoParams.size(); i++) {
+            emit(Opcode.MOV, intWidth, variable(memoParams.get(i)), reg(RDX));
+            emit(Opcode.CMP, intWidth, reg(RDX), mem(RCX, 8 * (i + 1)));
+            emit(Instruction.branch(Condition.NE, miss));
+        }
+        emit(Opcode.MOV, Width.QUAD, mem(RCX, 8 * (memoParams.size() + 1)), reg(RAX));
+        emitEpilogue();
+        placeLabel(miss);
+    }
+
+    /** Guarda %rax en la entrada de los argumentos actuales. */
+    private void emitMemoStore() {
+        emitMemoEntry(RCX, RDX);
+        for (int i = 0; i < memoParams.size(); i++) {
+            emit(Opcode.MOV, intWidth, variable(memoParams.get(i)), reg(RDX));
+            emit(Opcode.MOV, intWidth, reg(RDX), mem(RCX, 8 * (i + 1)));
+        }
+        emit(Opcode.MOV, Width.QUAD, reg(RAX), mem(RCX, 8 * (memoParams.size() + 1)));
+        emit(Opcode.MOV, Width.QUAD, imm(1), mem(RCX, 0));
+    }
+
+    private void recordSummaryStats() {
+        int recursive = 0;
+        int pure = 0;
+        int terminating = 0;
+        int constant = 0;
+        int unusedParameters = 0;
+        for (FunctionSummary summary : functionSummaries.all()) {
+            if (summary.getName().equals(CallGraph.MAIN)) {
+                continue;
+            }
+            recursive += summary.isRecursive() ? 1 : 0;
+            pure += summary.isPure() ? 1 : 0;
+            terminating += summary.alwaysTerminates() ? 1 : 0;
+            constant += summary.getConstantReturn() != null ? 1 : 0;
+            unusedParameters += summary.getUnusedParameters().size();
+        }
+        optimizationStats.put("call graph: funciones recursivas", recursive);
+        optimizationStats.put("call graph: funciones puras", pure);
+        optimizationStats.put("call graph: funciones que siempre terminan", terminating);
+        optimizationStats.put("call graph: funciones de retorno constante", constant);
+        optimizationStats.put("call graph: parametros sin usar", unusedParameters);
+    }
+
+    /** Registros que escribe la funcion, incluidos los que destruyen sus llamadas. */
+    private static Set<Register> clobberedRegisters(MachineFunction function) {
+        Set<Register> clobbered = EnumSet.noneOf(Register.class);
+        for (BasicBlock b : function.getBlocks()) {
+            for (Instruction ins : b.getInstructions()) {
+                clobbered.addAll(ins.defs());
+            }
+        }
+        clobbered.remove(RSP);
+        clobbered.remove(RBP);
+        return clobbered;
+    }
 
-        // Generar main
-        node.getMainFunction().accept(this);
+    /**
+     * Los passes posteriores no pueden hacer que una funcion escriba
+     * registros fuera de su resumen: sus llamadores cuentan con eso.
+     */
+    private void verifyRegisterSummaries() {
+        for (MachineFunction f : machineProgram.getFunctions()) {
+            Set<Register> clobbered = clobberedRegisters(f);
+            clobbered.removeAll(registerSummaries.get(f.getName()));
+            if (!clobbered.isEmpty()) {
+                throw new RuntimeException("Resumen de registros violado en " + f.getName() + ": " + clobbered);
+            }
+        }
     }
 
     @Override
     public void visit(FunctionDeclarationNode node) {
-        simulation.append("\n# --- FUNCIÓN: " + node.getIdentifier() + " ---\n");
-        
-        code.append(node.getIdentifier()).append(":\n");
-        code.append("    pushq %rbp\n");
-        code.append("    movq %rsp, %rbp\n");
-        
-        addSimulationStep("pushq %rbp", "Guardar frame pointer (función " + node.getIdentifier() + ")");
-        addSimulationStep("movq %rsp, %rbp", "Establecer nuevo frame pointer");
+
+        beginFunction(node.getIdentifier());
+        emit(Opcode.PUSH, reg(RBP));
+        emit(Opcode.MOV, Width.QUAD, reg(RSP), reg(RBP));
 
         // Guardar estado de variables locales anterior
         Map<String, Integer> savedLocalVars = new HashMap<>(localVariables);
+        Set<String> savedByteVars = byteVariables;
+        Set<String> savedZeroInit = zeroInitialized;
         int savedStackOffset = stackOffset;
-        
+
         localVariables.clear();
+        byteVariables = byteBooleans(node.getLocalDeclarations(), node.getBody());
+        zeroInitialized = DefiniteAssignment.readBeforeAssigned(node.getLocalDeclarations(), node.getBody());
         stackOffset = 0;
 
-        // Procesar parámetros (están en la pila o registros según convención)
-        int paramOffset = 16; // Después de rbp y return address
-        for (int i = 0; i < node.getParameters().size(); i++) {
-            ParameterNode param = node.getParameters().get(i);
-            localVariables.put(param.getIdentifier(), paramOffset + (i * 8));
-            
-            if (executeSimulation) {
-                // Para simulación, asumimos valores pasados
-                variableValues.put(param.getIdentifier(), 0L);
+        // Parámetros según System V: los seis primeros llegan en registros y
+        // se copian a un slot del frame; el resto queda en la pila del
+        // llamador, encima de la dirección de retorno
+        List<ParameterNode> params = node.getParameters();
+        Register[] argRegs = Instruction.ARGUMENT_REGISTERS;
+        int inRegisters = Math.min(params.size(), argRegs.length);
+        for (int i = 0; i < params.size(); i++) {
+            String name = params.get(i).getIdentifier();
+            if (i < inRegisters) {
+                stackOffset += 8;
+                localVariables.put(name, stackOffset);
+            } else {
+                localVariables.put(name, -(16 + 8 * (i - inRegisters)));
             }
         }
 
-        // Reservar espacio para variables locales
-        int localVarCount = node.getLocalDeclarations().size();
-        if (localVarCount > 0) {
-            int stackSpace = ((localVarCount * 8) + 15) & ~15;
-            code.append("    subq $").append(stackSpace).append(", %rsp\n\n");
-            addSimulationStep("subq $" + stackSpace + ", %rsp",
-                    "Reservar espacio para " + localVarCount + " variable(s) local(es)");
+        // Reservar espacio para parámetros en registro y variables locales
+        int slotCount = inRegisters + node.getLocalDeclarations().size();
+        if (slotCount > 0) {
+            int stackSpace = ((slotCount * 8) + 15) & ~15;
+            emit(Opcode.SUB, Width.QUAD, imm(stackSpace), reg(RSP));
+        }
+        for (int i = 0; i < inRegisters; i++) {
+            emit(Opcode.MOV, intWidth, reg(argRegs[i]), variable(params.get(i).getIdentifier()));
+        }
+
+        // Memoizacion: buscar el resultado antes de inicializar los locales
+        memoTable = null;
+        if (memoized.contains(node.getIdentifier())) {
+            memoTable = node.getIdentifier() + ".memo";
+            memoParams = new ArrayList<>();
+            for (ParameterNode param : params) {
+                memoParams.add(param.getIdentifier());
+            }
+            machineProgram.getZeroData().put(memoTable, MEMO_ENTRIES * memoEntryBytes());
+            emitMemoLookup();
         }
 
         // Procesar declaraciones locales
@@ -144,12 +619,14 @@ public class X86AssemblyGenerator implements ASTVisitor {
         }
 
         // Epílogo de función
-        code.append("\n    movq %rbp, %rsp\n");
-        code.append("    popq %rbp\n");
-        code.append("    ret\n\n");
+        emitEpilogue();
+        recordFrameSlots();
+        memoTable = null;
 
         // Restaurar estado
         localVariables = savedLocalVars;
+        byteVariables = savedByteVars;
+        zeroInitialized = savedZeroInit;
         stackOffset = savedStackOffset;
     }
 
@@ -160,95 +637,23 @@ public class X86AssemblyGenerator implements ASTVisitor {
 
     @Override
     public void visit(FunctionCallNode node) {
-        simulation.append("# --- LLAMADA A FUNCIÓN: " + node.getFunctionName() + " ---\n");
-
-        // Evaluar argumentos de derecha a izquierda y ponerlos en la pila
-        List<ExpressionNode> args = node.getArguments();
-        List<Long> argValues = new ArrayList<>();
-        
-        for (int i = args.size() - 1; i >= 0; i--) {
-            args.get(i).accept(this);
-            long argValue = getRegister("rax");
-            argValues.add(0, argValue);
-            
-            code.append("    pushq %rax\n");
-            addSimulationStep("pushq %rax", "Guardar argumento " + (i+1) + " = " + argValue);
-        }
-
-        // Llamar a la función
-        code.append("    call ").append(node.getFunctionName()).append("\n");
-        addSimulationStep("call " + node.getFunctionName(), 
-                         "Llamar función con " + args.size() + " argumento(s)");
-
-        // Limpiar argumentos de la pila
-        if (args.size() > 0) {
-            int stackCleanup = args.size() * 8;
-            code.append("    addq $").append(stackCleanup).append(", %rsp\n");
-            addSimulationStep("addq $" + stackCleanup + ", %rsp", "Limpiar argumentos");
-        }
-
-        // Simular ejecución de función
-        if (executeSimulation && functions.containsKey(node.getFunctionName())) {
-            FunctionDeclarationNode func = functions.get(node.getFunctionName());
-            
-            // Guardar contexto actual
-            callStack.push(new HashMap<>(variableValues));
-            
-            // Crear nuevo contexto con parámetros
-            variableValues.clear();
-            for (int i = 0; i < func.getParameters().size() && i < argValues.size(); i++) {
-                ParameterNode param = func.getParameters().get(i);
-                variableValues.put(param.getIdentifier(), argValues.get(i));
-                simulation.append("         >> Parámetro " + param.getIdentifier() + 
-                               " = " + argValues.get(i) + "\n");
-            }
-            
-            // Ejecutar cuerpo (simplificado para simulación)
-            long returnValue = simulateFunctionExecution(func);
-            updateRegister("rax", returnValue);
-            
-            // Restaurar contexto
-            variableValues = callStack.pop();
-            
-            simulation.append("         >> Retorno: " + returnValue + "\n\n");
-        }
-
-        if (executeSimulation) {
-            simulation.append("         >> rax (resultado) = " + getRegister("rax") + "\n\n");
-        }
-    }
-
-    private long simulateFunctionExecution(FunctionDeclarationNode func) {
-        // Simulación simplificada: buscar return statement
-        for (StatementNode stmt : func.getBody()) {
-            if (stmt instanceof ReturnNode) {
-                ReturnNode ret = (ReturnNode) stmt;
-                if (ret.hasExpression()) {
-                    ret.getExpression().accept(this);
-                    return getRegister("rax");
-                }
-            }
-        }
-        return 0;
+        selector.evaluateInto(node, RAX);
     }
 
     @Override
     public void visit(MainFunctionNode node) {
-        simulation.append("\n# --- FUNCIÓN MAIN ---\n");
-        
-        code.append("main:\n");
-        code.append("    pushq %rbp\n");
-        code.append("    movq %rsp, %rbp\n");
-        addSimulationStep("pushq %rbp", "Guardar frame pointer anterior");
-        addSimulationStep("movq %rsp, %rbp", "Establecer nuevo frame pointer");
+
+        beginFunction("main");
+        emit(Opcode.PUSH, reg(RBP));
+        emit(Opcode.MOV, Width.QUAD, reg(RSP), reg(RBP));
 
         int localVarCount = node.getDeclarations().size();
+        byteVariables = byteBooleans(node.getDeclarations(), node.getStatements());
+        zeroInitialized = DefiniteAssignment.readBeforeAssigned(node.getDeclarations(), node.getStatements());
 
         if (localVarCount > 0) {
             int stackSpace = ((localVarCount * 8) + 15) & ~15;
-            code.append("    subq $").append(stackSpace).append(", %rsp\n\n");
-            addSimulationStep("subq $" + stackSpace + ", %rsp",
-                    "Reservar " + stackSpace + " bytes para " + localVarCount + " variable(s)");
+            emit(Opcode.SUB, Width.QUAD, imm(stackSpace), reg(RSP));
         }
 
         for (DeclarationNode decl : node.getDeclarations()) {
@@ -259,9 +664,76 @@ public class X86AssemblyGenerator implements ASTVisitor {
             stmt.accept(this);
         }
 
-        code.append("\n    movq %rbp, %rsp\n");
-        code.append("    popq %rbp\n");
-        code.append("    ret\n");
+        emitEpilogue();
+        recordFrameSlots();
+    }
+
+    private void recordFrameSlots() {
+        function.getFrameSlots().putAll(localVariables);
+        for (String name : localVariables.keySet()) {
+            Width width = byteVariables.contains(name) ? Width.BYTE : intWidth;
+            if (width != Width.QUAD) {
+                function.getSlotWidths().put(name, width);
+            }
+        }
+    }
+
+    /**
+     * Variables bool que pueden vivir en un byte: todas sus asignaciones
+     * dan 0 o 1 (literal, comparacion, operacion logica u otro bool de un
+     * byte). El analisis semantico no impide asignar un int a un bool, y
+     * en ese caso la variable conserva sus 8 bytes.
+     */
+    private static Set<String> byteBooleans(List<DeclarationNode> declarations, List<StatementNode> body) {
+        Set<String> candidates = new HashSet<>();
+        for (DeclarationNode decl : declarations) {
+            if ("bool".equals(decl.getType())) {
+                candidates.add(decl.getIdentifier());
+            }
+        }
+        List<AssignmentNode> assignments = new ArrayList<>();
+        collectAssignments(body, assignments);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (AssignmentNode assignment : assignments) {
+                if (candidates.contains(assignment.getIdentifier())
+                        && !isBooleanValue(assignment.getExpression(), candidates)) {
+                    candidates.remove(assignment.getIdentifier());
+                    changed = true;
+                }
+            }
+        }
+        return candidates;
+    }
+
+    private static void collectAssignments(List<StatementNode> block, List<AssignmentNode> assignments) {
+        if (block == null) {
+            return;
+        }
+        for (StatementNode stmt : block) {
+            if (stmt instanceof AssignmentNode) {
+                assignments.add((AssignmentNode) stmt);
+            } else if (stmt instanceof IfNode) {
+                collectAssignments(((IfNode) stmt).getThenBlock(), assignments);
+                collectAssignments(((IfNode) stmt).getElseBlock(), assignments);
+            } else if (stmt instanceof WhileNode) {
+                collectAssignments(((WhileNode) stmt).getBody(), assignments);
+            }
+        }
+    }
+
+    private static boolean isBooleanValue(ExpressionNode expression, Set<String> booleans) {
+        if (expression instanceof BooleanNode || expression instanceof ComparisonNode
+                || expression instanceof LogicalOpNode) {
+            return true;
+        }
+        if (expression instanceof NumberNode) {
+            int value = ((NumberNode) expression).getValue();
+            return value == 0 || value == 1;
+        }
+        return expression instanceof VariableNode
+                && booleans.contains(((VariableNode) expression).getIdentifier());
     }
 
     @Override
@@ -269,429 +741,334 @@ public class X86AssemblyGenerator implements ASTVisitor {
         stackOffset += 8;
         localVariables.put(node.getIdentifier(), stackOffset);
 
-        if (executeSimulation) {
-            variableValues.put(node.getIdentifier(), 0L);
+        // Solo si alguna lectura puede ver el valor por defecto
+        if (!zeroInitialized.contains(node.getIdentifier())) {
+            elidedInitializations++;
+            return;
         }
-
-        code.append("    movq $0, -").append(stackOffset).append("(%rbp)\n");
-        addSimulationStep("movq $0, -" + stackOffset + "(%rbp)",
-                "Inicializar variable '" + node.getIdentifier() + "' = 0");
+        Width width = byteVariables.contains(node.getIdentifier()) ? Width.BYTE : intWidth;
+        emit(Opcode.MOV, width, imm(0), variable(node.getIdentifier()));
     }
 
     @Override
     public void visit(AssignmentNode node) {
-        node.getExpression().accept(this);
+        selector.assign(node.getIdentifier(), node.getExpression());
+    }
 
-        Integer offset = localVariables.get(node.getIdentifier());
-        if (offset == null) {
-            throw new RuntimeException("Variable no encontrada: " + node.getIdentifier());
+    @Override
+    public void visit(IfNode node) {
+        // if/else en cascada sobre una misma variable: se despacha como switch
+        SwitchCascade cascade = SwitchCascade.match(node);
+        if (cascade != null) {
+            generateSwitch(cascade);
+            return;
         }
 
-        code.append("    movq %rax, -").append(offset).append("(%rbp)\n");
-
-        if (executeSimulation) {
-            long value = getRegister("rax");
-            variableValues.put(node.getIdentifier(), value);
-
-            addSimulationStep("movq %rax, -" + offset + "(%rbp)",
-                    "Almacenar " + value + " en variable '" + node.getIdentifier() + "'");
-
-            simulation.append("         >> ").append(node.getIdentifier()).append(" = ").append(value).append("\n\n");
+        // Diamantes y triangulos de asignaciones puras: cmov en vez de salto
+        IfConversion conversion = IfConversion.match(node, thenProbability(node));
+        if (conversion != null) {
+            generateSelect(conversion);
+            return;
         }
-    }
 
-    @Override
-    public void visit(IfNode node) {
         String elseLabel = generateLabel();
         String endLabel = generateLabel();
 
-        simulation.append("# --- IF STATEMENT ---\n");
-
-        node.getCondition().accept(this);
-        lastConditionResult = getRegister("rax");
+        // La condicion salta directamente al bloque falso (cmp + jcc)
+        String falseLabel = node.hasElse() ? elseLabel : endLabel;
+        generateBranch(node.getCondition(), false, falseLabel);
 
-        code.append("    cmpq $0, %rax\n");
-        if (node.hasElse()) {
-            code.append("    je ").append(elseLabel).append("\n");
-            addSimulationStep("je " + elseLabel, "Saltar a ELSE si condición es falsa");
-        } else {
-            code.append("    je ").append(endLabel).append("\n");
-            addSimulationStep("je " + endLabel, "Saltar al final si condición es falsa");
+        for (StatementNode stmt : node.getThenBlock()) {
+            stmt.accept(this);
         }
 
-        if (lastConditionResult != 0) {
-            simulation.append("# --- THEN BLOCK (Ejecutado) ---\n");
-            executeSimulation = true;
-            for (StatementNode stmt : node.getThenBlock()) {
+        if (node.hasElse()) {
+            emit(Instruction.jump(endLabel));
+            placeLabel(elseLabel);
+            for (StatementNode stmt : node.getElseBlock()) {
                 stmt.accept(this);
             }
+        }
 
-            if (node.hasElse()) {
-                code.append("    jmp ").append(endLabel).append("\n");
-                addSimulationStep("jmp " + endLabel, "Saltar al final (skip else)");
+        placeLabel(endLabel);
+    }
 
-                code.append(elseLabel).append(":\n");
-                simulation.append("# --- ELSE BLOCK (NO ejecutado) ---\n");
+    private void recordProbabilities(List<StatementNode> body, String function) {
+        for (Map.Entry<IfNode, Integer> entry : BranchProfile.numberIfs(body).entrySet()) {
+            ifProbabilities.put(entry.getKey(), branchProfile.getThenProbability(function, entry.getValue()));
+        }
+    }
 
-                executeSimulation = false;
-                for (StatementNode stmt : node.getElseBlock()) {
-                    stmt.accept(this);
-                }
-                executeSimulation = true;
-            }
-        } else {
-            simulation.append("# --- THEN BLOCK (NO ejecutado) ---\n");
+    private Double thenProbability(IfNode node) {
+        if (branchProfile == null) {
+            return null;
+        }
+        IfNode original = ifOrigins.get(node);
+        return ifProbabilities.get(original != null ? original : node);
+    }
 
-            executeSimulation = false;
-            for (StatementNode stmt : node.getThenBlock()) {
-                stmt.accept(this);
+    /**
+     * Evalua los valores de ambas ramas, fija las banderas con la
+     * comparacion y elige cada resultado con cmovcc sin saltar.
+     */
+    private void generateSelect(IfConversion conversion) {
+        // Un bool de un byte que recibe true en una rama y false en la otra
+        // se escribe con setcc directo en memoria
+        List<String> variables = new ArrayList<>();
+        Map<String, Boolean> flags = new LinkedHashMap<>();
+        for (String var : conversion.getVariables()) {
+            Integer whenTrue = booleanConstant(conversion.getThenValue(var));
+            Integer whenFalse = booleanConstant(conversion.getElseValue(var));
+            if (byteVariables.contains(var) && whenTrue != null && whenFalse != null && !whenTrue.equals(whenFalse)) {
+                flags.put(var, whenTrue == 1);
+            } else {
+                variables.add(var);
             }
-            executeSimulation = true;
+        }
+        List<Operand> thenValues = new ArrayList<>();
+        List<Register> results = new ArrayList<>();
 
-            if (node.hasElse()) {
-                code.append("    jmp ").append(endLabel).append("\n");
-                code.append(elseLabel).append(":\n");
+        for (String var : variables) {
+            thenValues.add(selector.evaluateOperand(conversion.getThenValue(var)));
+        }
+        for (String var : variables) {
+            results.add(selector.evaluate(conversion.getElseValue(var)));
+        }
 
-                simulation.append("# --- ELSE BLOCK (Ejecutado) ---\n");
-                for (StatementNode stmt : node.getElseBlock()) {
-                    stmt.accept(this);
-                }
-            }
+        Condition cc = selector.compare(conversion.getCondition());
+        if (conversion.isNegated()) {
+            cc = cc.negate();
         }
 
-        code.append(endLabel).append(":\n");
-        simulation.append("# --- END IF ---\n\n");
+        for (int i = 0; i < variables.size(); i++) {
+            emit(Instruction.cmov(cc, intWidth, thenValues.get(i), results.get(i)));
+            selector.store(results.get(i), variables.get(i));
+            selector.release(thenValues.get(i));
+            selector.release(results.get(i));
+        }
+        for (Map.Entry<String, Boolean> flag : flags.entrySet()) {
+            emit(Instruction.set(flag.getValue() ? cc : cc.negate(), variable(flag.getKey())));
+        }
     }
 
-    @Override
-    public void visit(WhileNode node) {
-        String loopLabel = generateLabel();
-        String endLabel = generateLabel();
-
-        simulation.append("# --- WHILE LOOP ---\n");
-
-        code.append(loopLabel).append(":\n");
-
-        node.getCondition().accept(this);
-        lastConditionResult = getRegister("rax");
+    /** 0 o 1 si la expresion es un literal booleano (o 0/1), si no null. */
+    private static Integer booleanConstant(ExpressionNode expression) {
+        if (expression instanceof BooleanNode) {
+            return ((BooleanNode) expression).getValue() ? 1 : 0;
+        }
+        if (expression instanceof NumberNode) {
+            int value = ((NumberNode) expression).getValue();
+            return value == 0 || value == 1 ? value : null;
+        }
+        return null;
+    }
 
-        code.append("    cmpq $0, %rax\n");
-        code.append("    je ").append(endLabel).append("\n");
-        addSimulationStep("je " + endLabel, "Salir del loop si condición es falsa");
+    private void generateSwitch(SwitchCascade cascade) {
+        // El valor a despachar queda en %rax durante todas las comparaciones
+        selector.evaluateInto(cascade.getVariable(), RAX);
 
-        int iterationCount = 0;
-        int maxIterations = 1000;
+        String defaultLabel = generateLabel();
+        String endLabel = generateLabel();
+        Map<SwitchCascade.Case, String> caseLabels = new HashMap<>();
+        for (SwitchCascade.Case c : cascade.getCases()) {
+            caseLabels.put(c, generateLabel());
+        }
 
-        while (lastConditionResult != 0 && iterationCount < maxIterations) {
-            if (iterationCount > 0) {
-                simulation.append("# --- Iteración " + (iterationCount + 1) + " ---\n");
-            }
+        if (cascade.isDense()) {
+            generateJumpTable(cascade, caseLabels, defaultLabel);
+        } else {
+            List<SwitchCascade.Case> sorted = new ArrayList<>(cascade.getCases());
+            sorted.sort(Comparator.comparingLong(SwitchCascade.Case::getValue));
+            generateDecisionTree(sorted, 0, sorted.size() - 1, caseLabels, defaultLabel);
+        }
 
-            for (StatementNode stmt : node.getBody()) {
+        for (SwitchCascade.Case c : cascade.getCases()) {
+            placeLabel(caseLabels.get(c));
+            for (StatementNode stmt : c.getBody()) {
                 stmt.accept(this);
             }
-
-            node.getCondition().accept(this);
-            lastConditionResult = getRegister("rax");
-
-            iterationCount++;
+            emit(Instruction.jump(endLabel));
         }
 
-        code.append("    jmp ").append(loopLabel).append("\n");
-        addSimulationStep("jmp " + loopLabel, "Volver al inicio del loop");
+        placeLabel(defaultLabel);
+        for (StatementNode stmt : cascade.getDefaultBlock()) {
+            stmt.accept(this);
+        }
 
-        code.append(endLabel).append(":\n");
-        simulation.append("# --- END WHILE (Total iteraciones: " + iterationCount + ") ---\n\n");
+        placeLabel(endLabel);
     }
 
-    @Override
-    public void visit(ComparisonNode node) {
-        node.getLeft().accept(this);
-        long leftValue = getRegister("rax");
-
-        code.append("    pushq %rax\n");
-        addSimulationStep("pushq %rax", "Guardar operando izquierdo (" + leftValue + ")");
-
-        node.getRight().accept(this);
-        long rightValue = getRegister("rax");
+    /**
+     * Tabla de saltos en .rodata con entradas relativas a la propia tabla,
+     * precedida de una unica comprobacion de limites sin signo.
+     */
+    private void generateJumpTable(SwitchCascade cascade, Map<SwitchCascade.Case, String> caseLabels,
+                                   String defaultLabel) {
+        long min = cascade.getMinValue();
+        long max = cascade.getMaxValue();
+        JumpTable table = new JumpTable(generateLabel());
+
+        if (min != 0) {
+            emit(Opcode.SUB, intWidth, imm(min), reg(RAX));
+        }
+        emit(Opcode.CMP, intWidth, imm(max - min), reg(RAX));
+        emit(Instruction.branch(Condition.A, defaultLabel));
+        emit(Opcode.LEA, Width.QUAD, ripRelative(table.getLabel(), 0), reg(RDX));
+        emit(Opcode.MOVSLQ, Width.QUAD, mem(RDX, RAX, 4, 0), reg(RAX));
+        emit(Opcode.ADD, Width.QUAD, reg(RDX), reg(RAX));
+        emit(Instruction.jumpIndirect(RAX));
+
+        for (long v = min; v <= max; v++) {
+            SwitchCascade.Case c = cascade.findCase(v);
+            table.getTargets().add(c != null ? caseLabels.get(c) : defaultLabel);
+        }
+        machineProgram.getJumpTables().add(table);
+    }
 
-        code.append("    movq %rax, %rbx\n");
-        code.append("    popq %rax\n");
+    /**
+     * Arbol binario de comparaciones sobre los casos ordenados: O(log n)
+     * comparaciones en vez de una por caso.
+     */
+    private void generateDecisionTree(List<SwitchCascade.Case> sorted, int lo, int hi,
+                                      Map<SwitchCascade.Case, String> caseLabels, String defaultLabel) {
+        if (hi - lo + 1 <= 3) {
+            for (int i = lo; i <= hi; i++) {
+                SwitchCascade.Case c = sorted.get(i);
+                emit(Opcode.CMP, intWidth, imm(c.getValue()), reg(RAX));
+                emit(Instruction.branch(Condition.E, caseLabels.get(c)));
+            }
+            emit(Instruction.jump(defaultLabel));
+            return;
+        }
 
-        updateRegister("rbx", rightValue);
-        updateRegister("rax", leftValue);
+        int mid = (lo + hi) >>> 1;
+        SwitchCascade.Case pivot = sorted.get(mid);
+        String lessLabel = generateLabel();
 
-        addSimulationStep("movq %rax, %rbx", "Operando derecho a rbx (" + rightValue + ")");
-        addSimulationStep("popq %rax", "Restaurar operando izquierdo (" + leftValue + ")");
+        emit(Opcode.CMP, intWidth, imm(pivot.getValue()), reg(RAX));
+        emit(Instruction.branch(Condition.E, caseLabels.get(pivot)));
+        emit(Instruction.branch(Condition.L, lessLabel));
+        generateDecisionTree(sorted, mid + 1, hi, caseLabels, defaultLabel);
+        placeLabel(lessLabel);
+        generateDecisionTree(sorted, lo, mid - 1, caseLabels, defaultLabel);
+    }
 
-        code.append("    cmpq %rbx, %rax\n");
+    @Override
+    public void visit(WhileNode node) {
+        String loopLabel = generateLabel();
+        String endLabel = generateLabel();
 
-        long result = 0;
-        String operation = "";
+        placeLabel(loopLabel);
+        generateBranch(node.getCondition(), false, endLabel);
 
-        switch (node.getOperator()) {
-            case "==":
-                code.append("    sete %al\n");
-                code.append("    movzbl %al, %eax\n");
-                result = (leftValue == rightValue) ? 1 : 0;
-                operation = leftValue + " == " + rightValue + " → " + (result == 1 ? "true" : "false");
-                break;
+        for (StatementNode stmt : node.getBody()) {
+            stmt.accept(this);
+        }
 
-            case "!=":
-                code.append("    setne %al\n");
-                code.append("    movzbl %al, %eax\n");
-                result = (leftValue != rightValue) ? 1 : 0;
-                operation = leftValue + " != " + rightValue + " → " + (result == 1 ? "true" : "false");
-                break;
+        emit(Instruction.jump(loopLabel));
+        placeLabel(endLabel);
+    }
 
-            case "<":
-                code.append("    setl %al\n");
-                code.append("    movzbl %al, %eax\n");
-                result = (leftValue < rightValue) ? 1 : 0;
-                operation = leftValue + " < " + rightValue + " → " + (result == 1 ? "true" : "false");
-                break;
+    /**
+     * Genera el salto de una condicion: salta a 'target' cuando la condicion
+     * vale 'jumpWhen' y cae al codigo siguiente en caso contrario. Las
+     * comparaciones se consumen con cmp + jcc, '!' invierte el sentido del
+     * salto y '&&'/'||' se generan como flujo de control, de modo que nunca
+     * se materializa un 0/1 en %rax.
+     */
+    private void generateBranch(ExpressionNode condition, boolean jumpWhen, String target) {
+        if (condition instanceof ComparisonNode) {
+            Condition cc = selector.compare((ComparisonNode) condition);
+            emit(Instruction.branch(jumpWhen ? cc : cc.negate(), target));
+            return;
+        }
 
-            case ">":
-                code.append("    setg %al\n");
-                code.append("    movzbl %al, %eax\n");
-                result = (leftValue > rightValue) ? 1 : 0;
-                operation = leftValue + " > " + rightValue + " → " + (result == 1 ? "true" : "false");
-                break;
+        if (condition instanceof LogicalOpNode) {
+            LogicalOpNode logical = (LogicalOpNode) condition;
+            if (logical.isUnary()) {
+                generateBranch(logical.getLeft(), !jumpWhen, target);
+                return;
+            }
 
-            case "<=":
-                code.append("    setle %al\n");
-                code.append("    movzbl %al, %eax\n");
-                result = (leftValue <= rightValue) ? 1 : 0;
-                operation = leftValue + " <= " + rightValue + " → " + (result == 1 ? "true" : "false");
-                break;
+            boolean isAnd = logical.getOperator().equals("&&");
+            if (isAnd != jumpWhen) {
+                // && que salta si es falso / || que salta si es verdadero:
+                // cualquiera de los dos operandos decide el salto al mismo destino
+                generateBranch(logical.getLeft(), jumpWhen, target);
+                generateBranch(logical.getRight(), jumpWhen, target);
+            } else {
+                // El operando izquierdo cortocircuita hacia el codigo siguiente
+                String skipLabel = generateLabel();
+                generateBranch(logical.getLeft(), !isAnd, skipLabel);
+                generateBranch(logical.getRight(), jumpWhen, target);
+                placeLabel(skipLabel);
+            }
+            return;
+        }
 
-            case ">=":
-                code.append("    setge %al\n");
-                code.append("    movzbl %al, %eax\n");
-                result = (leftValue >= rightValue) ? 1 : 0;
-                operation = leftValue + " >= " + rightValue + " → " + (result == 1 ? "true" : "false");
-                break;
+        if (condition instanceof BooleanNode) {
+            if (((BooleanNode) condition).getValue() == jumpWhen) {
+                emit(Instruction.jump(target));
+            }
+            return;
         }
 
-        updateRegister("rax", result);
-        addSimulationStep("Comparación", operation);
+        // Cualquier otra expresion se evalua y se compara contra 0
+        Condition cc = selector.test(condition);
+        emit(Instruction.branch(jumpWhen ? cc : cc.negate(), target));
+    }
 
-        if (executeSimulation) {
-            simulation.append("         >> rax = ").append(result).append("\n\n");
-        }
+    @Override
+    public void visit(ComparisonNode node) {
+        // Solo se materializa el booleano cuando el valor se usa como dato
+        selector.evaluateInto(node, RAX);
     }
 
     @Override
     public void visit(LogicalOpNode node) {
-        if (node.isUnary()) {
-            // Operador NOT (!)
-            node.getLeft().accept(this);
-            long operandValue = getRegister("rax");
-
-            code.append("    cmpq $0, %rax\n");
-            code.append("    sete %al\n");
-            code.append("    movzbl %al, %eax\n");
-
-            long result = (operandValue == 0) ? 1 : 0;
-            updateRegister("rax", result);
-
-            addSimulationStep("NOT operation", "!" + operandValue + " → " + result);
-            if (executeSimulation) {
-                simulation.append("         >> rax = ").append(result).append("\n\n");
-            }
-        } else {
-            // Operadores binarios (&&, ||)
-            node.getLeft().accept(this);
-            long leftValue = getRegister("rax");
-
-            String shortCircuitLabel = generateLabel();
-            String endLabel = generateLabel();
-
-            if (node.getOperator().equals("&&")) {
-                // AND: si left es falso, skip right
-                code.append("    cmpq $0, %rax\n");
-                code.append("    je ").append(shortCircuitLabel).append("\n");
-                addSimulationStep("je " + shortCircuitLabel, "Short-circuit AND si left es falso");
-
-                if (leftValue != 0) {
-                    node.getRight().accept(this);
-                    long rightValue = getRegister("rax");
-                    long result = (rightValue != 0) ? 1 : 0;
-                    updateRegister("rax", result);
-                    addSimulationStep("AND operation", leftValue + " && " + rightValue + " → " + result);
-                } else {
-                    updateRegister("rax", 0);
-                    addSimulationStep("AND short-circuit", leftValue + " && ? → false");
-                }
-
-                code.append("    jmp ").append(endLabel).append("\n");
-                code.append(shortCircuitLabel).append(":\n");
-                code.append("    xorq %rax, %rax\n");
-                code.append(endLabel).append(":\n");
-
-            } else if (node.getOperator().equals("||")) {
-                // OR: si left es verdadero, skip right
-                code.append("    cmpq $0, %rax\n");
-                code.append("    jne ").append(shortCircuitLabel).append("\n");
-                addSimulationStep("jne " + shortCircuitLabel, "Short-circuit OR si left es verdadero");
-
-                if (leftValue == 0) {
-                    node.getRight().accept(this);
-                    long rightValue = getRegister("rax");
-                    long result = (rightValue != 0) ? 1 : 0;
-                    updateRegister("rax", result);
-                    addSimulationStep("OR operation", leftValue + " || " + rightValue + " → " + result);
-                } else {
-                    updateRegister("rax", 1);
-                    addSimulationStep("OR short-circuit", leftValue + " || ? → true");
-                }
-
-                code.append("    jmp ").append(endLabel).append("\n");
-                code.append(shortCircuitLabel).append(":\n");
-                code.append("    movl $1, %eax\n");
-                code.append(endLabel).append(":\n");
-            }
+        // Materializacion de un booleano: la condicion se genera como saltos
+        String falseLabel = generateLabel();
+        String endLabel = generateLabel();
 
-            if (executeSimulation) {
-                simulation.append("         >> rax = ").append(getRegister("rax")).append("\n\n");
-            }
-        }
+        generateBranch(node, false, falseLabel);
+        emit(Opcode.MOV, Width.LONG, imm(1), reg(RAX));
+        emit(Instruction.jump(endLabel));
+        placeLabel(falseLabel);
+        emit(Opcode.XOR, Width.QUAD, reg(RAX), reg(RAX));
+        placeLabel(endLabel);
     }
 
     @Override
     public void visit(ReturnNode node) {
         if (node.hasExpression()) {
-            node.getExpression().accept(this);
-            long returnValue = getRegister("rax");
-
-            addSimulationStep("# Return statement", "Valor de retorno = " + returnValue);
-
-            if (executeSimulation) {
-                simulation.append("         >> RETURN VALUE: ").append(returnValue).append("\n\n");
-            }
+            selector.evaluateInto(node.getExpression(), RAX);
         } else {
-            code.append("    xorq %rax, %rax\n");
-            updateRegister("rax", 0);
+            emit(Opcode.XOR, Width.QUAD, reg(RAX), reg(RAX));
         }
-
-        code.append("    movq %rbp, %rsp\n");
-        code.append("    popq %rbp\n");
-        code.append("    ret\n");
+        if (memoTable != null) {
+            emitMemoStore();
+        }
+        emitEpilogue();
     }
 
     @Override
     public void visit(BinaryOpNode node) {
-        node.getLeft().accept(this);
-        long leftValue = getRegister("rax");
-
-        code.append("    pushq %rax\n");
-        addSimulationStep("pushq %rax", "Guardar operando izquierdo (" + leftValue + ")");
-
-        node.getRight().accept(this);
-        long rightValue = getRegister("rax");
-
-        code.append("    movq %rax, %rbx\n");
-        code.append("    popq %rax\n");
-
-        updateRegister("rbx", rightValue);
-        updateRegister("rax", leftValue);
-
-        addSimulationStep("movq %rax, %rbx", "Mover operando derecho a rbx (" + rightValue + ")");
-        addSimulationStep("popq %rax", "Restaurar operando izquierdo (" + leftValue + ")");
-
-        long result = 0;
-        String operation = "";
-
-        switch (node.getOperator()) {
-            case "+":
-                code.append("    addq %rbx, %rax\n");
-                result = leftValue + rightValue;
-                operation = leftValue + " + " + rightValue + " = " + result;
-                addSimulationStep("addq %rbx, %rax", operation);
-                break;
-
-            case "-":
-                code.append("    subq %rbx, %rax\n");
-                result = leftValue - rightValue;
-                operation = leftValue + " - " + rightValue + " = " + result;
-                addSimulationStep("subq %rbx, %rax", operation);
-                break;
-
-            case "*":
-                code.append("    imulq %rbx, %rax\n");
-                result = leftValue * rightValue;
-                operation = leftValue + " * " + rightValue + " = " + result;
-                addSimulationStep("imulq %rbx, %rax", operation);
-                break;
-
-            case "/":
-                if (rightValue == 0) {
-                    throw new RuntimeException("División por cero");
-                }
-                code.append("    cqto\n");
-                code.append("    idivq %rbx\n");
-                result = leftValue / rightValue;
-                operation = leftValue + " / " + rightValue + " = " + result;
-                addSimulationStep("idivq %rbx", operation);
-                break;
-        }
-
-        updateRegister("rax", result);
-
-        if (executeSimulation) {
-            simulation.append("         >> rax = ").append(result).append("\n\n");
-        }
+        selector.evaluateInto(node, RAX);
     }
 
     @Override
     public void visit(NumberNode node) {
-        long value = node.getValue();
-
-        if (value == 0) {
-            code.append("    xorq %rax, %rax\n");
-            addSimulationStep("xorq %rax, %rax", "Cargar 0 en rax (optimizado)");
-        } else if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
-            code.append("    movl $").append(value).append(", %eax\n");
-            addSimulationStep("movl $" + value + ", %eax", "Cargar constante " + value);
-        } else {
-            code.append("    movq $").append(value).append(", %rax\n");
-            addSimulationStep("movq $" + value + ", %rax", "Cargar constante " + value);
-        }
-
-        updateRegister("rax", value);
+        selector.evaluateInto(node, RAX);
     }
 
     @Override
     public void visit(BooleanNode node) {
-        int value = node.getValue() ? 1 : 0;
-
-        if (value == 0) {
-            code.append("    xorq %rax, %rax\n");
-            addSimulationStep("xorq %rax, %rax", "Cargar false (0)");
-        } else {
-            code.append("    movl $1, %eax\n");
-            addSimulationStep("movl $1, %eax", "Cargar true (1)");
-        }
-
-        updateRegister("rax", value);
+        selector.evaluateInto(node, RAX);
     }
 
     @Override
     public void visit(VariableNode node) {
-        Integer offset = localVariables.get(node.getIdentifier());
-        if (offset == null) {
-            throw new RuntimeException("Variable no encontrada: " + node.getIdentifier());
-        }
-
-        code.append("    movq -").append(offset).append("(%rbp), %rax\n");
-
-        if (executeSimulation) {
-            long value = variableValues.getOrDefault(node.getIdentifier(), 0L);
-            updateRegister("rax", value);
-
-            addSimulationStep("movq -" + offset + "(%rbp), %rax",
-                    "Cargar variable '" + node.getIdentifier() + "' = " + value);
-        }
+        selector.evaluateInto(node, RAX);
     }
 
     @Override
@@ -705,26 +1082,53 @@ public class X86AssemblyGenerator implements ASTVisitor {
         return ".L" + (labelCounter++);
     }
 
+    /**
+     * Traza de ejecucion obtenida simulando el codigo de maquina final.
+     */
     private String generateSimulationTrace() {
+        MirSimulator simulator = new MirSimulator(machineProgram);
+        simulator.run();
+
         StringBuilder trace = new StringBuilder();
         trace.append("#\n# " + "=".repeat(60) + "\n");
         trace.append("# TRAZA DE Ejecucion\n");
         trace.append("# " + "=".repeat(60) + "\n");
-        trace.append(simulation.toString());
+        trace.append("#simulacion - Programa con tipo de retorno: ").append(returnType).append("\n");
+        trace.append("# " + "=".repeat(60) + "\n\n");
+        trace.append(simulator.getTrace());
+        if (!simulator.isFinished()) {
+            trace.append("# Simulación detenida: ").append(simulator.getStopReason()).append("\n");
+        }
         trace.append("# " + "=".repeat(60) + "\n");
         trace.append("# ESTADO FINAL\n");
         trace.append("# " + "=".repeat(60) + "\n");
         trace.append("# Registros:\n");
-        trace.append("#   rax = ").append(getRegister("rax")).append("\n");
-        trace.append("#   rbx = ").append(getRegister("rbx")).append("\n");
-        trace.append("#   rcx = ").append(getRegister("rcx")).append("\n");
-        trace.append("#   rdx = ").append(getRegister("rdx")).append("\n");
+        trace.append("#   rax = ").append(simulator.getRegister(RAX)).append("\n");
+        trace.append("#   rbx = ").append(simulator.getRegister(RBX)).append("\n");
+        trace.append("#   rcx = ").append(simulator.getRegister(RCX)).append("\n");
+        trace.append("#   rdx = ").append(simulator.getRegister(RDX)).append("\n");
         trace.append("#\n# Variables:\n");
-        for (Map.Entry<String, Long> entry : variableValues.entrySet()) {
-            trace.append("#   ").append(entry.getKey()).append(" = ").append(entry.getValue()).append("\n");
+        // Una variable que comparte slot muestra lo ultimo escrito en el
+        MachineFunction main = machineProgram.getFunction("main");
+        Map<String, Integer> slots = main.getFrameSlots();
+        for (Map.Entry<String, Long> entry : simulator.getMainVariables().entrySet()) {
+            String name = entry.getKey();
+            trace.append("#   ").append(name).append(" = ").append(entry.getValue());
+            for (String other : slots.keySet()) {
+                if (!other.equals(name) && StackSlotColoring.overlaps(slots.get(name),
+                        main.slotWidth(name).getBytes(), slots.get(other), main.slotWidth(other).getBytes())) {
+                    trace.append("  (slot compartido)");
+                    break;
+                }
+            }
+            trace.append("\n");
         }
         trace.append("#\n");
-        trace.append("# RESULTADO FINAL (return value): ").append(getRegister("rax")).append("\n");
+        long result = simulator.getRegister(RAX);
+        if (intWidth == Width.LONG) {
+            result = (int) result;
+        }
+        trace.append("# RESULTADO FINAL (return value): ").append(result).append("\n");
         trace.append("# " + "=".repeat(60) + "\n");
         return trace.toString();
     }
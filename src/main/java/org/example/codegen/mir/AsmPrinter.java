@@ -0,0 +1,88 @@
+package org.example.codegen.mir;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Escribe un MachineProgram como ensamblador AT&T. Es el unico lugar donde
+ * las instrucciones se convierten en texto; las etiquetas de bloques que
+ * nadie referencia no se imprimen.
+ */
+public class AsmPrinter {
+
+    public String print(MachineProgram program) {
+        Set<String> referenced = referencedLabels(program);
+        StringBuilder out = new StringBuilder();
+        out.append(".section .text\n");
+        out.append(".global main\n\n");
+
+        for (MachineFunction function : program.getFunctions()) {
+            boolean first = true;
+            for (BasicBlock block : function.getBlocks()) {
+                if (block.getAlignment() > 0) {
+                    out.append("    .p2align ").append(block.getAlignment()).append('\n');
+                }
+                if (first || referenced.contains(block.getLabel())) {
+                    out.append(block.getLabel()).append(":\n");
+                }
+                first = false;
+                for (Instruction instruction : block.getInstructions()) {
+                    out.append("    ").append(instruction).append('\n');
+                }
+            }
+            out.append('\n');
+        }
+        for (Map.Entry<String, String> alias : program.getAliases().entrySet()) {
+            out.append(".set ").append(alias.getKey()).append(", ").append(alias.getValue()).append('\n');
+        }
+        if (!program.getAliases().isEmpty()) {
+            out.append('\n');
+        }
+
+        if (!program.getJumpTables().isEmpty()) {
+            out.append(".section .rodata\n");
+            for (JumpTable table : program.getJumpTables()) {
+                out.append("    .p2align 2\n");
+                out.append(table.getLabel()).append(":\n");
+                for (String target : table.getTargets()) {
+                    out.append("    .long ").append(target).append(" - ").append(table.getLabel()).append('\n');
+                }
+            }
+        }
+        if (!program.getZeroData().isEmpty()) {
+            out.append(".section .bss\n");
+            for (Map.Entry<String, Integer> data : program.getZeroData().entrySet()) {
+                out.append("    .p2align 4\n");
+                out.append(data.getKey()).append(":\n");
+                out.append("    .zero ").append(data.getValue()).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Etiquetas usadas por saltos, llamadas, direcciones %rip o tablas.
+     */
+    public static Set<String> referencedLabels(MachineProgram program) {
+        Set<String> labels = new HashSet<>();
+        for (MachineFunction function : program.getFunctions()) {
+            for (BasicBlock block : function.getBlocks()) {
+                for (Instruction instruction : block.getInstructions()) {
+                    addLabel(instruction.getSource(), labels);
+                    addLabel(instruction.getDestination(), labels);
+                }
+            }
+        }
+        for (JumpTable table : program.getJumpTables()) {
+            labels.addAll(table.getTargets());
+        }
+        return labels;
+    }
+
+    private static void addLabel(Operand operand, Set<String> labels) {
+        if (operand != null && operand.getLabel() != null) {
+            labels.add(operand.getLabel());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.example.codegen.mir;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Bloque basico: una etiqueta y una secuencia de instrucciones en la que
+ * solo la ultima puede ser un salto o un ret. Si la ultima instruccion no
+ * es un jmp/ret la ejecucion cae al bloque siguiente de la funcion.
+ */
+public class BasicBlock {
+
+    private String label;
+    private final List<Instruction> instructions;
+    private int alignment;
+
+    public BasicBlock(String label) {
+        this.label = label;
+        this.instructions = new ArrayList<>();
+    }
+
+    public String getLabel() { return label; }
+    public void setLabel(String label) { this.label = label; }
+    public List<Instruction> getInstructions() { return instructions; }
+
+    /** Alineacion como potencia de dos para .p2align (0 = sin alinear). */
+    public int getAlignment() { return alignment; }
+    public void setAlignment(int alignment) { this.alignment = alignment; }
+
+    public void add(Instruction instruction) {
+        instructions.add(instruction);
+    }
+
+    public boolean isEmpty() {
+        return instructions.isEmpty();
+    }
+
+    public int size() {
+        return instructions.size();
+    }
+
+    public Instruction getLast() {
+        return instructions.isEmpty() ? null : instructions.get(instructions.size() - 1);
+    }
+
+    /** La ultima instruccion es un salto o ret: no se puede agregar codigo detras. */
+    public boolean isTerminated() {
+        Instruction last = getLast();
+        return last != null && last.endsBlock();
+    }
+
+    /** La ejecucion puede continuar en el bloque siguiente. */
+    public boolean fallsThrough() {
+        Instruction last = getLast();
+        return last == null || !last.getOpcode().isUnconditionalTransfer();
+    }
+
+    /** Etiquetas a las que salta explicitamente el bloque. */
+    public List<String> getBranchTargets() {
+        List<String> targets = new ArrayList<>();
+        Instruction last = getLast();
+        if (last != null && last.endsBlock() && last.getTarget() != null) {
+            targets.add(last.getTarget());
+        }
+        return targets;
+    }
+
+    /** Simbolos de datos (label(%rip)) que usa el bloque, p. ej. la tabla de un switch. */
+    public Set<String> getDataReferences() {
+        Set<String> labels = new LinkedHashSet<>();
+        for (Instruction instruction : instructions) {
+            addDataReference(instruction.getSource(), labels);
+            addDataReference(instruction.getDestination(), labels);
+        }
+        return labels;
+    }
+
+    private static void addDataReference(Operand operand, Set<String> labels) {
+        if (operand != null && operand.isMemory() && operand.getLabel() != null) {
+            labels.add(operand.getLabel());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return label + " (" + instructions.size() + " instrucciones)";
+    }
+}
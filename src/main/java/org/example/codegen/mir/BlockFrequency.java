@@ -0,0 +1,258 @@
+package org.example.codegen.mir;
+
+import java.util.*;
+
+/**
+ * Frecuencia estimada de los bloques de una funcion, relativa a una
+ * ejecucion de la entrada.
+ *
+ * Estima la probabilidad de cada arista con heuristicas clasicas (el salto
+ * hacia atras de un lazo se toma, salir de un lazo o retornar temprano es
+ * improbable, una igualdad suele ser falsa) y propaga esas probabilidades
+ * desde la entrada. Tambien deja a mano los lazos naturales encontrados.
+ */
+public class BlockFrequency {
+
+    private static final double LOOP_TAKEN = 0.88;
+    private static final double RETURN_TAKEN = 0.28;
+    private static final double EQUALITY_TAKEN = 0.375;
+
+    private static final int MAX_FREQUENCY_ROUNDS = 1000;
+
+    private final MachineFunction function;
+    private final Map<String, BasicBlock> byLabel;
+    private final Collection<String> indirectTargets;
+    private final Map<BasicBlock, List<BasicBlock>> successors;
+    private final Map<BasicBlock, List<Double>> probabilities;
+    private final Map<BasicBlock, BasicBlock> fallThrough;
+    private final Map<BasicBlock, Set<BasicBlock>> loopOf;
+    private final Set<BasicBlock> headers;
+    private Map<BasicBlock, Double> frequency;
+
+    /**
+     * @param indirectTargets etiquetas a las que puede llegar un salto
+     *                        indirecto (entradas de tablas de saltos)
+     */
+    public BlockFrequency(MachineFunction function, Collection<String> indirectTargets) {
+        this.function = function;
+        this.byLabel = function.blocksByLabel();
+        this.indirectTargets = indirectTargets;
+        this.successors = new HashMap<>();
+        this.probabilities = new HashMap<>();
+        this.fallThrough = new HashMap<>();
+        this.loopOf = new HashMap<>();
+        this.headers = new HashSet<>();
+        buildGraph();
+        findLoops();
+        estimateProbabilities();
+        estimateFrequencies();
+    }
+
+    /** Sucesores sin repetir; la caida, si existe, va despues de los saltos. */
+    public List<BasicBlock> successors(BasicBlock block) { return successors.get(block); }
+
+    /** Probabilidad de cada arista, en el orden de successors(block). */
+    public List<Double> probabilities(BasicBlock block) { return probabilities.get(block); }
+
+    /** Bloque al que cae 'block' sin saltar, o null. */
+    public BasicBlock fallThrough(BasicBlock block) { return fallThrough.get(block); }
+
+    /** Lazo natural mas interno que contiene al bloque, o null. */
+    public Set<BasicBlock> loopOf(BasicBlock block) { return loopOf.get(block); }
+
+    public Set<BasicBlock> getHeaders() { return headers; }
+
+    public double frequency(BasicBlock block) { return frequency.get(block); }
+
+    /** El bloque termina la funcion (epilogo con ret). */
+    public static boolean returns(BasicBlock block) {
+        Instruction last = block.getLast();
+        return last != null && last.is(Opcode.RET);
+    }
+
+    private void buildGraph() {
+        for (BasicBlock block : function.getBlocks()) {
+            List<BasicBlock> succ = new ArrayList<>();
+            Instruction last = block.getLast();
+            if (last != null && last.isIndirectJump()) {
+                for (String label : indirectTargets) {
+                    BasicBlock target = byLabel.get(label);
+                    if (target != null && !succ.contains(target)) {
+                        succ.add(target);
+                    }
+                }
+            } else {
+                for (String label : block.getBranchTargets()) {
+                    BasicBlock target = byLabel.get(label);
+                    if (target != null && !succ.contains(target)) {
+                        succ.add(target);
+                    }
+                }
+                BasicBlock next = function.next(block);
+                if (block.fallsThrough() && next != null) {
+                    fallThrough.put(block, next);
+                    if (!succ.contains(next)) {
+                        succ.add(next);
+                    }
+                }
+            }
+            successors.put(block, succ);
+        }
+    }
+
+    /**
+     * Busca las aristas hacia atras con un DFS desde la entrada; cada una
+     * define un lazo natural (la cabecera mas los bloques que llegan a la
+     * cola sin pasar por ella). Guarda para cada bloque su lazo mas interno.
+     */
+    private void findLoops() {
+        Map<BasicBlock, Integer> state = new HashMap<>();
+        List<BasicBlock[]> backEdges = new ArrayList<>();
+        Deque<BasicBlock> stack = new ArrayDeque<>();
+        Deque<Iterator<BasicBlock>> iterators = new ArrayDeque<>();
+        BasicBlock entry = function.getEntry();
+        stack.push(entry);
+        iterators.push(successors.get(entry).iterator());
+        state.put(entry, 1);
+        while (!stack.isEmpty()) {
+            BasicBlock block = stack.peek();
+            Iterator<BasicBlock> it = iterators.peek();
+            if (it.hasNext()) {
+                BasicBlock succ = it.next();
+                Integer s = state.get(succ);
+                if (s == null) {
+                    state.put(succ, 1);
+                    stack.push(succ);
+                    iterators.push(successors.get(succ).iterator());
+                } else if (s == 1) {
+                    backEdges.add(new BasicBlock[] { block, succ });
+                }
+            } else {
+                state.put(block, 2);
+                stack.pop();
+                iterators.pop();
+            }
+        }
+
+        Map<BasicBlock, List<BasicBlock>> predecessors = new HashMap<>();
+        for (BasicBlock block : function.getBlocks()) {
+            for (BasicBlock succ : successors.get(block)) {
+                predecessors.computeIfAbsent(succ, k -> new ArrayList<>()).add(block);
+            }
+        }
+        // Varias aristas hacia la misma cabecera forman un solo lazo
+        Map<BasicBlock, Set<BasicBlock>> loops = new LinkedHashMap<>();
+        for (BasicBlock[] edge : backEdges) {
+            BasicBlock header = edge[1];
+            headers.add(header);
+            Set<BasicBlock> body = loops.computeIfAbsent(header, k -> new HashSet<>(Collections.singleton(k)));
+            Deque<BasicBlock> work = new ArrayDeque<>();
+            if (body.add(edge[0])) {
+                work.push(edge[0]);
+            }
+            while (!work.isEmpty()) {
+                for (BasicBlock pred : predecessors.getOrDefault(work.pop(), Collections.emptyList())) {
+                    if (body.add(pred)) {
+                        work.push(pred);
+                    }
+                }
+            }
+        }
+        for (Set<BasicBlock> body : loops.values()) {
+            for (BasicBlock block : body) {
+                Set<BasicBlock> current = loopOf.get(block);
+                if (current == null || current.size() > body.size()) {
+                    loopOf.put(block, body);
+                }
+            }
+        }
+    }
+
+    /** Combina dos estimaciones independientes (Dempster-Shafer). */
+    private static double combine(double p, double q) {
+        return p * q / (p * q + (1 - p) * (1 - q));
+    }
+
+    private void estimateProbabilities() {
+        for (BasicBlock block : function.getBlocks()) {
+            List<BasicBlock> succ = successors.get(block);
+            List<Double> probs = new ArrayList<>();
+            Instruction last = block.getLast();
+            if (succ.size() == 2 && last != null && last.is(Opcode.JCC)) {
+                BasicBlock taken = byLabel.get(last.getTarget());
+                BasicBlock other = succ.get(0) == taken ? succ.get(1) : succ.get(0);
+                double p = takenProbability(block, last, taken, other);
+                for (BasicBlock s : succ) {
+                    probs.add(s == taken ? p : 1 - p);
+                }
+            } else {
+                for (int i = 0; i < succ.size(); i++) {
+                    probs.add(1.0 / succ.size());
+                }
+            }
+            probabilities.put(block, probs);
+        }
+    }
+
+    private double takenProbability(BasicBlock block, Instruction jump, BasicBlock taken, BasicBlock other) {
+        double p = 0.5;
+        Set<BasicBlock> loop = loopOf.get(block);
+        if (loop != null) {
+            boolean takenStays = loop.contains(taken);
+            boolean otherStays = loop.contains(other);
+            if (takenStays != otherStays) {
+                p = combine(p, takenStays ? LOOP_TAKEN : 1 - LOOP_TAKEN);
+            }
+        }
+        boolean takenReturns = returns(taken);
+        boolean otherReturns = returns(other);
+        if (takenReturns != otherReturns) {
+            p = combine(p, takenReturns ? RETURN_TAKEN : 1 - RETURN_TAKEN);
+        }
+        Condition cc = jump.getCondition();
+        if (cc == Condition.E) {
+            p = combine(p, EQUALITY_TAKEN);
+        } else if (cc == Condition.NE) {
+            p = combine(p, 1 - EQUALITY_TAKEN);
+        }
+        return p;
+    }
+
+    /**
+     * Frecuencia relativa a la entrada, propagando las probabilidades hasta
+     * que se estabiliza (con la probabilidad del salto hacia atras cada lazo
+     * multiplica por 1 / (1 - 0.88), unas 8 vueltas).
+     */
+    private void estimateFrequencies() {
+        frequency = new HashMap<>();
+        List<BasicBlock> blocks = function.getBlocks();
+        for (BasicBlock block : blocks) {
+            frequency.put(block, 0.0);
+        }
+        BasicBlock entry = function.getEntry();
+        for (int round = 0; round < MAX_FREQUENCY_ROUNDS; round++) {
+            Map<BasicBlock, Double> next = new HashMap<>();
+            for (BasicBlock block : blocks) {
+                next.put(block, block == entry ? 1.0 : 0.0);
+            }
+            for (BasicBlock block : blocks) {
+                List<BasicBlock> succ = successors.get(block);
+                List<Double> probs = probabilities.get(block);
+                for (int i = 0; i < succ.size(); i++) {
+                    BasicBlock s = succ.get(i);
+                    if (s != entry) {
+                        next.merge(s, frequency.get(block) * probs.get(i), Double::sum);
+                    }
+                }
+            }
+            double delta = 0;
+            for (BasicBlock block : blocks) {
+                delta = Math.max(delta, Math.abs(next.get(block) - frequency.get(block)));
+            }
+            frequency = next;
+            if (delta < 1e-9) {
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.example.codegen.mir;
+
+/**
+ * Codigos de condicion de jcc, setcc y cmovcc.
+ */
+public enum Condition {
+    E("e"), NE("ne"),
+    L("l"), LE("le"), G("g"), GE("ge"),
+    A("a"), AE("ae"), B("b"), BE("be");
+
+    private final String suffix;
+
+    Condition(String suffix) {
+        this.suffix = suffix;
+    }
+
+    public String getSuffix() { return suffix; }
+
+    public Condition negate() {
+        switch (this) {
+            case E:  return NE;
+            case NE: return E;
+            case L:  return GE;
+            case GE: return L;
+            case G:  return LE;
+            case LE: return G;
+            case A:  return BE;
+            case BE: return A;
+            case B:  return AE;
+            default: return B;
+        }
+    }
+
+    /**
+     * Condicion equivalente al intercambiar los operandos de la comparacion.
+     */
+    public Condition swap() {
+        switch (this) {
+            case L:  return G;
+            case G:  return L;
+            case LE: return GE;
+            case GE: return LE;
+            case A:  return B;
+            case B:  return A;
+            case AE: return BE;
+            case BE: return AE;
+            default: return this;
+        }
+    }
+
+    public static Condition fromOperator(String operator) {
+        switch (operator) {
+            case "==": return E;
+            case "!=": return NE;
+            case "<":  return L;
+            case ">":  return G;
+            case "<=": return LE;
+            case ">=": return GE;
+            default:
+                throw new RuntimeException("Operador de comparación desconocido: " + operator);
+        }
+    }
+
+    /**
+     * Evalua la condicion sobre el resultado de comparar a con b (cmp b, a).
+     */
+    public boolean holds(long a, long b) {
+        switch (this) {
+            case E:  return a == b;
+            case NE: return a != b;
+            case L:  return a < b;
+            case LE: return a <= b;
+            case G:  return a > b;
+            case GE: return a >= b;
+            case A:  return Long.compareUnsigned(a, b) > 0;
+            case AE: return Long.compareUnsigned(a, b) >= 0;
+            case B:  return Long.compareUnsigned(a, b) < 0;
+            default: return Long.compareUnsigned(a, b) <= 0;
+        }
+    }
+}
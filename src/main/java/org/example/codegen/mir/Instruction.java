@@ -0,0 +1,306 @@
+package org.example.codegen.mir;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Instruccion de maquina en orden AT&T: opcode origen, destino.
+ *
+ * Las instrucciones de un solo operando lo guardan como destino si lo
+ * escriben (pop, inc, setcc, ...) y como origen si solo lo leen (push,
+ * idiv, saltos, call). Son inmutables: los passes reemplazan instrucciones
+ * en lugar de modificarlas.
+ */
+public final class Instruction {
+
+    /** Registros que los argumentos de una llamada pueden ocupar (System V). */
+    public static final Register[] ARGUMENT_REGISTERS = {
+            Register.RDI, Register.RSI, Register.RDX, Register.RCX, Register.R8, Register.R9 };
+
+    /** Registros que una llamada puede modificar (System V). */
+    public static final Register[] CALLER_SAVED = {
+            Register.RAX, Register.RCX, Register.RDX, Register.RSI, Register.RDI,
+            Register.R8, Register.R9, Register.R10, Register.R11 };
+
+    private final Opcode opcode;
+    private final Width width;
+    private final Condition condition;
+    private final Operand source;
+    private final Operand destination;
+    // Registros que modifica un call a una funcion del programa (null: CALLER_SAVED)
+    private final Set<Register> clobbers;
+
+    public Instruction(Opcode opcode, Width width, Condition condition, Operand source, Operand destination) {
+        this(opcode, width, condition, source, destination, null);
+    }
+
+    private Instruction(Opcode opcode, Width width, Condition condition, Operand source, Operand destination,
+                        Set<Register> clobbers) {
+        this.opcode = opcode;
+        this.width = width;
+        this.condition = condition;
+        this.source = source;
+        this.destination = destination;
+        this.clobbers = clobbers;
+    }
+
+    public static Instruction of(Opcode opcode, Width width, Operand source, Operand destination) {
+        return new Instruction(opcode, width, null, source, destination);
+    }
+
+    public static Instruction unary(Opcode opcode, Width width, Operand operand) {
+        return opcode.writesDestination()
+                ? new Instruction(opcode, width, null, null, operand)
+                : new Instruction(opcode, width, null, operand, null);
+    }
+
+    public static Instruction nullary(Opcode opcode) {
+        return new Instruction(opcode, Width.QUAD, null, null, null);
+    }
+
+    public static Instruction jump(String label) {
+        return new Instruction(Opcode.JMP, Width.QUAD, null, Operand.label(label), null);
+    }
+
+    public static Instruction jumpIndirect(Register register) {
+        return new Instruction(Opcode.JMP, Width.QUAD, null, Operand.reg(register), null);
+    }
+
+    public static Instruction branch(Condition condition, String label) {
+        return new Instruction(Opcode.JCC, Width.QUAD, condition, Operand.label(label), null);
+    }
+
+    public static Instruction call(String function) {
+        return new Instruction(Opcode.CALL, Width.QUAD, null, Operand.label(function), null);
+    }
+
+    /**
+     * Llamada a una funcion cuyo resumen dice que registros modifica; los
+     * demas registros caller-saved sobreviven a la llamada.
+     */
+    public static Instruction call(String function, Set<Register> clobbers) {
+        return new Instruction(Opcode.CALL, Width.QUAD, null, Operand.label(function), null,
+                Collections.unmodifiableSet(EnumSet.copyOf(clobbers)));
+    }
+
+    public static Instruction set(Condition condition, Register register) {
+        return set(condition, Operand.reg(register));
+    }
+
+    /** setcc sobre un registro de 8 bits o un byte de memoria. */
+    public static Instruction set(Condition condition, Operand destination) {
+        return new Instruction(Opcode.SETCC, Width.BYTE, condition, null, destination);
+    }
+
+    public static Instruction cmov(Condition condition, Width width, Operand source, Register register) {
+        return new Instruction(Opcode.CMOVCC, width, condition, source, Operand.reg(register));
+    }
+
+    public Opcode getOpcode() { return opcode; }
+    public Width getWidth() { return width; }
+    public Condition getCondition() { return condition; }
+    public Operand getSource() { return source; }
+    public Operand getDestination() { return destination; }
+
+    public boolean is(Opcode op) {
+        return opcode == op;
+    }
+
+    public boolean endsBlock() {
+        return opcode.endsBlock();
+    }
+
+    /** Etiqueta destino de un jmp/jcc/call directo, o null. */
+    public String getTarget() {
+        if ((opcode == Opcode.JMP || opcode == Opcode.JCC || opcode == Opcode.CALL)
+                && source != null && source.isLabel()) {
+            return source.getLabel();
+        }
+        return null;
+    }
+
+    public boolean isIndirectJump() {
+        return opcode == Opcode.JMP && source != null && !source.isLabel();
+    }
+
+    public Instruction withCondition(Condition newCondition) {
+        return new Instruction(opcode, width, newCondition, source, destination, clobbers);
+    }
+
+    public Instruction withTarget(String label) {
+        return new Instruction(opcode, width, condition, Operand.label(label), destination, clobbers);
+    }
+
+    public Instruction withOperands(Operand newSource, Operand newDestination) {
+        return new Instruction(opcode, width, condition, newSource, newDestination, clobbers);
+    }
+
+    public boolean readsMemory() {
+        return (source != null && source.isMemory() && opcode != Opcode.LEA)
+                || (destination != null && destination.isMemory() && opcode.readsDestination())
+                || opcode == Opcode.POP || opcode == Opcode.RET || opcode == Opcode.CALL;
+    }
+
+    public boolean writesMemory() {
+        return (destination != null && destination.isMemory() && opcode.writesDestination())
+                || opcode == Opcode.PUSH || opcode == Opcode.CALL;
+    }
+
+    /** Registros que la instruccion lee, incluidos los implicitos. */
+    public Set<Register> uses() {
+        Set<Register> regs = EnumSet.noneOf(Register.class);
+        if (source != null) {
+            addAddressRegisters(source, regs);
+            if (source.isRegister()) {
+                regs.add(source.getRegister());
+            }
+        }
+        if (destination != null) {
+            addAddressRegisters(destination, regs);
+            if (destination.isRegister() && (opcode.readsDestination() || width == Width.BYTE)) {
+                regs.add(destination.getRegister());
+            }
+        }
+        switch (opcode) {
+            case PUSH:
+            case POP:
+            case RET:
+                regs.add(Register.RSP);
+                if (opcode == Opcode.RET) {
+                    regs.add(Register.RAX);
+                }
+                break;
+            case CALL:
+                regs.add(Register.RSP);
+                for (Register r : ARGUMENT_REGISTERS) {
+                    regs.add(r);
+                }
+                break;
+            case IDIV:
+                regs.add(Register.RAX);
+                regs.add(Register.RDX);
+                break;
+            case CQTO:
+            case CLTD:
+                regs.add(Register.RAX);
+                break;
+            default:
+                break;
+        }
+        // xor r, r no depende del valor previo de r
+        if (opcode == Opcode.XOR && source != null && source.isRegister() && source.equals(destination)) {
+            regs.remove(source.getRegister());
+        }
+        return regs;
+    }
+
+    /** Registros que la instruccion escribe, incluidos los implicitos. */
+    public Set<Register> defs() {
+        Set<Register> regs = EnumSet.noneOf(Register.class);
+        if (destination != null && destination.isRegister() && opcode.writesDestination()) {
+            regs.add(destination.getRegister());
+        }
+        switch (opcode) {
+            case PUSH:
+            case POP:
+            case RET:
+                regs.add(Register.RSP);
+                break;
+            case CALL:
+                regs.add(Register.RSP);
+                if (clobbers != null) {
+                    regs.addAll(clobbers);
+                } else {
+                    for (Register r : CALLER_SAVED) {
+                        regs.add(r);
+                    }
+                }
+                break;
+            case IDIV:
+                regs.add(Register.RAX);
+                regs.add(Register.RDX);
+                break;
+            case CQTO:
+            case CLTD:
+                regs.add(Register.RDX);
+                break;
+            default:
+                break;
+        }
+        return regs;
+    }
+
+    private static void addAddressRegisters(Operand operand, Set<Register> regs) {
+        if (operand.isMemory()) {
+            if (operand.getRegister() != Register.RIP) {
+                regs.add(operand.getRegister());
+            }
+            if (operand.getIndex() != null) {
+                regs.add(operand.getIndex());
+            }
+        }
+    }
+
+    public String mnemonic() {
+        switch (opcode) {
+            case JCC:
+            case SETCC:
+            case CMOVCC:
+                return opcode.getMnemonic() + condition.getSuffix();
+            default:
+                return opcode.isSized() ? opcode.getMnemonic() + width.getSuffix() : opcode.getMnemonic();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(mnemonic());
+        if (source != null) {
+            sb.append(' ');
+            if (isIndirectJump()) {
+                sb.append('*');
+            }
+            sb.append(source.format(sourceWidth()));
+        }
+        if (destination != null) {
+            sb.append(source != null ? ", " : " ").append(destination.format(width));
+        }
+        return sb.toString();
+    }
+
+    private Width sourceWidth() {
+        switch (opcode) {
+            case MOVZB:
+                return Width.BYTE;
+            case MOVSLQ:
+                return Width.LONG;
+            case SAL:
+            case SAR:
+            case SHR:
+                return source.isRegister() ? Width.BYTE : width;
+            case JMP:
+            case PUSH:
+                return Width.QUAD;
+            default:
+                return width;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Instruction)) {
+            return false;
+        }
+        Instruction other = (Instruction) o;
+        return opcode == other.opcode && width == other.width && condition == other.condition
+                && Objects.equals(source, other.source)
+                && Objects.equals(destination, other.destination);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(opcode, width, condition, source, destination);
+    }
+}
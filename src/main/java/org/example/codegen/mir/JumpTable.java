@@ -0,0 +1,22 @@
+package org.example.codegen.mir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tabla de saltos en .rodata: entradas de 32 bits con la distancia de cada
+ * destino a la propia tabla.
+ */
+public class JumpTable {
+
+    private final String label;
+    private final List<String> targets;
+
+    public JumpTable(String label) {
+        this.label = label;
+        this.targets = new ArrayList<>();
+    }
+
+    public String getLabel() { return label; }
+    public List<String> getTargets() { return targets; }
+}
@@ -0,0 +1,162 @@
+package org.example.codegen.mir;
+
+import java.util.*;
+
+/**
+ * Analisis de vida de registros y banderas sobre los bloques de una
+ * funcion (iteracion hacia atras hasta punto fijo).
+ *
+ * Al retornar se consideran vivos %rax, %rsp y los registros que la
+ * convencion obliga a preservar; las banderas nunca estan vivas despues
+ * de un ret o un call.
+ */
+public class Liveness {
+
+    private static final Set<Register> LIVE_AT_RETURN = EnumSet.of(
+            Register.RAX, Register.RSP, Register.RBP, Register.RBX,
+            Register.R12, Register.R13, Register.R14, Register.R15);
+
+    private final MachineFunction function;
+    private final Map<String, BasicBlock> byLabel;
+    private final Collection<String> indirectTargets;
+    private final Map<BasicBlock, Set<Register>> liveIn;
+    private final Map<BasicBlock, Boolean> flagsIn;
+
+    /**
+     * @param indirectTargets etiquetas a las que puede llegar un salto
+     *                        indirecto (entradas de tablas de saltos)
+     */
+    public Liveness(MachineFunction function, Collection<String> indirectTargets) {
+        this.function = function;
+        this.byLabel = function.blocksByLabel();
+        this.indirectTargets = indirectTargets;
+        this.liveIn = new HashMap<>();
+        this.flagsIn = new HashMap<>();
+        compute();
+    }
+
+    /** Bloques a los que puede pasar el control al salir de 'block'. */
+    public List<BasicBlock> successors(BasicBlock block) {
+        List<BasicBlock> result = new ArrayList<>();
+        Instruction last = block.getLast();
+        if (last != null && last.isIndirectJump()) {
+            for (String label : indirectTargets) {
+                BasicBlock target = byLabel.get(label);
+                if (target != null && !result.contains(target)) {
+                    result.add(target);
+                }
+            }
+            return result;
+        }
+        for (String label : block.getBranchTargets()) {
+            BasicBlock target = byLabel.get(label);
+            if (target != null) {
+                result.add(target);
+            }
+        }
+        if (block.fallsThrough()) {
+            BasicBlock next = function.next(block);
+            if (next != null && !result.contains(next)) {
+                result.add(next);
+            }
+        }
+        return result;
+    }
+
+    private void compute() {
+        for (BasicBlock block : function.getBlocks()) {
+            liveIn.put(block, EnumSet.noneOf(Register.class));
+            flagsIn.put(block, false);
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            List<BasicBlock> blocks = function.getBlocks();
+            for (int b = blocks.size() - 1; b >= 0; b--) {
+                BasicBlock block = blocks.get(b);
+                Set<Register> live = liveOut(block);
+                boolean flags = flagsOut(block);
+                for (int i = block.size() - 1; i >= 0; i--) {
+                    Instruction instruction = block.getInstructions().get(i);
+                    flags = step(instruction, live, flags);
+                }
+                if (!live.equals(liveIn.get(block)) || flags != flagsIn.get(block)) {
+                    liveIn.put(block, live);
+                    flagsIn.put(block, flags);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private Set<Register> liveOut(BasicBlock block) {
+        Set<Register> live = EnumSet.noneOf(Register.class);
+        Instruction last = block.getLast();
+        if (last != null && last.is(Opcode.RET)) {
+            return live;
+        }
+        for (BasicBlock successor : successors(block)) {
+            live.addAll(liveIn.get(successor));
+        }
+        return live;
+    }
+
+    private boolean flagsOut(BasicBlock block) {
+        for (BasicBlock successor : successors(block)) {
+            if (flagsIn.get(successor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Transfiere hacia atras el efecto de una instruccion sobre el conjunto
+     * de registros vivos; devuelve si las banderas quedan vivas antes de ella.
+     */
+    private static boolean step(Instruction instruction, Set<Register> live, boolean flags) {
+        if (instruction.is(Opcode.RET)) {
+            live.clear();
+            live.addAll(LIVE_AT_RETURN);
+        }
+        Set<Register> defs = instruction.defs();
+        // Una escritura parcial (8 bits) conserva el resto del registro
+        if (instruction.getWidth() != Width.BYTE || !instruction.getOpcode().writesDestination()) {
+            live.removeAll(defs);
+        }
+        live.addAll(instruction.uses());
+
+        Opcode op = instruction.getOpcode();
+        if (op.writesFlags() && !op.readsFlags()) {
+            flags = false;
+        }
+        return flags || op.readsFlags();
+    }
+
+    public Set<Register> getLiveIn(BasicBlock block) {
+        return liveIn.get(block);
+    }
+
+    public boolean isFlagsLiveIn(BasicBlock block) {
+        return flagsIn.get(block);
+    }
+
+    /** Registros vivos justo despues de la instruccion 'index' del bloque. */
+    public Set<Register> liveAfter(BasicBlock block, int index) {
+        Set<Register> live = liveOut(block);
+        for (int i = block.size() - 1; i > index; i--) {
+            step(block.getInstructions().get(i), live, false);
+        }
+        return live;
+    }
+
+    /** Indica si las banderas se leen despues de la instruccion 'index'. */
+    public boolean flagsLiveAfter(BasicBlock block, int index) {
+        boolean flags = flagsOut(block);
+        Set<Register> scratch = EnumSet.noneOf(Register.class);
+        for (int i = block.size() - 1; i > index; i--) {
+            flags = step(block.getInstructions().get(i), scratch, flags);
+        }
+        return flags;
+    }
+}
@@ -0,0 +1,75 @@
+package org.example.codegen.mir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Codigo de maquina de una funcion: sus bloques en el orden en que se
+ * imprimen (el primero es la entrada y lleva el nombre de la funcion) y la
+ * ubicacion de sus variables en el frame.
+ */
+public class MachineFunction {
+
+    private final String name;
+    private final List<BasicBlock> blocks;
+    private final Map<String, Integer> frameSlots;
+    private final Map<String, Width> slotWidths;
+
+    public MachineFunction(String name) {
+        this.name = name;
+        this.blocks = new ArrayList<>();
+        this.frameSlots = new LinkedHashMap<>();
+        this.slotWidths = new HashMap<>();
+    }
+
+    public String getName() { return name; }
+    public List<BasicBlock> getBlocks() { return blocks; }
+
+    public BasicBlock getEntry() {
+        return blocks.get(0);
+    }
+
+    public BasicBlock addBlock(String label) {
+        BasicBlock block = new BasicBlock(label);
+        blocks.add(block);
+        return block;
+    }
+
+    /**
+     * Variables del frame como nombre -> desplazamiento bajo el frame base
+     * (el valor de %rbp tras el prologo: la variable vive en -offset).
+     */
+    public Map<String, Integer> getFrameSlots() { return frameSlots; }
+
+    /** Tamano de las variables que no ocupan 8 bytes (bool en un byte). */
+    public Map<String, Width> getSlotWidths() { return slotWidths; }
+
+    public Width slotWidth(String name) {
+        return slotWidths.getOrDefault(name, Width.QUAD);
+    }
+
+    public Map<String, BasicBlock> blocksByLabel() {
+        Map<String, BasicBlock> map = new HashMap<>();
+        for (BasicBlock block : blocks) {
+            map.put(block.getLabel(), block);
+        }
+        return map;
+    }
+
+    /** Bloque que sigue a 'block' en el orden de impresion, o null. */
+    public BasicBlock next(BasicBlock block) {
+        int i = blocks.indexOf(block);
+        return i >= 0 && i + 1 < blocks.size() ? blocks.get(i + 1) : null;
+    }
+
+    public int instructionCount() {
+        int count = 0;
+        for (BasicBlock block : blocks) {
+            count += block.size();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,41 @@
+package org.example.codegen.mir;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Programa completo en representacion de maquina: funciones en orden de
+ * emision, datos de solo lectura y datos que arrancan en cero (.bss).
+ */
+public class MachineProgram {
+
+    private final List<MachineFunction> functions;
+    private final List<JumpTable> jumpTables;
+    // Etiqueta -> tamano en bytes de cada zona de .bss
+    private final Map<String, Integer> zeroData;
+    // Nombre de una funcion plegada -> funcion identica que la reemplaza
+    private final Map<String, String> aliases;
+
+    public MachineProgram() {
+        this.functions = new ArrayList<>();
+        this.jumpTables = new ArrayList<>();
+        this.zeroData = new LinkedHashMap<>();
+        this.aliases = new LinkedHashMap<>();
+    }
+
+    public List<MachineFunction> getFunctions() { return functions; }
+    public List<JumpTable> getJumpTables() { return jumpTables; }
+    public Map<String, Integer> getZeroData() { return zeroData; }
+    public Map<String, String> getAliases() { return aliases; }
+
+    public MachineFunction getFunction(String name) {
+        for (MachineFunction function : functions) {
+            if (function.getName().equals(name)) {
+                return function;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,534 @@
+package org.example.codegen.mir;
+
+import java.util.*;
+
+/**
+ * Ejecuta un MachineProgram instruccion por instruccion para producir la
+ * traza de ejecucion que acompaña al ensamblador generado.
+ *
+ * Simula registros, banderas, una pila y los datos de .rodata y .bss, de modo que
+ * la traza corresponde exactamente al codigo emitido (despues de todas las
+ * optimizaciones). La ejecucion empieza en main y termina cuando main
+ * retorna, cuando ocurre una excepcion (division por cero) o al alcanzar el
+ * limite de pasos.
+ */
+public class MirSimulator {
+
+    public static final int MAX_TRACE_STEPS = 2000;
+    public static final long MAX_STEPS = 5_000_000L;
+
+    private static final long CODE_BASE = 0x401000L;
+    private static final long DATA_BASE = 0x600000L;
+    private static final long STACK_TOP = 0x7ffff000L;
+    private static final long EXIT_ADDRESS = 0;
+    private static final int PAGE_SIZE = 4096;
+
+    private final MachineProgram program;
+    private final List<BasicBlock> blocks;
+    private final List<MachineFunction> owners;
+    private final Map<String, Integer> blockIndex;
+    private final TreeMap<Long, Integer> blockAt;
+    private final long[] blockAddress;
+    private final Map<String, Long> symbols;
+    private final Map<Long, byte[]> pages;
+    private final long[] registers;
+    private boolean zf, sf, of, cf;
+
+    private int currentBlock;
+    private int pc;
+    private long steps;
+    private boolean finished;
+    private String stopReason;
+    private long mainFrameBase;
+    private final StringBuilder trace;
+
+    public MirSimulator(MachineProgram program) {
+        this.program = program;
+        this.blocks = new ArrayList<>();
+        this.owners = new ArrayList<>();
+        this.blockIndex = new HashMap<>();
+        this.blockAt = new TreeMap<>();
+        this.symbols = new HashMap<>();
+        this.pages = new HashMap<>();
+        this.registers = new long[Register.values().length];
+        this.trace = new StringBuilder();
+
+        for (MachineFunction function : program.getFunctions()) {
+            for (BasicBlock block : function.getBlocks()) {
+                blockIndex.put(block.getLabel(), blocks.size());
+                blocks.add(block);
+                owners.add(function);
+            }
+        }
+
+        // Direcciones ficticias: una unidad por instruccion (y una extra por bloque)
+        this.blockAddress = new long[blocks.size()];
+        long address = CODE_BASE;
+        for (int i = 0; i < blocks.size(); i++) {
+            blockAddress[i] = address;
+            blockAt.put(address, i);
+            symbols.put(blocks.get(i).getLabel(), address);
+            address += blocks.get(i).size() + 1;
+        }
+        for (Map.Entry<String, String> alias : program.getAliases().entrySet()) {
+            symbols.put(alias.getKey(), symbols.get(alias.getValue()));
+        }
+
+        long data = DATA_BASE;
+        for (JumpTable table : program.getJumpTables()) {
+            symbols.put(table.getLabel(), data);
+            data += 4L * table.getTargets().size();
+        }
+        for (Map.Entry<String, Integer> zero : program.getZeroData().entrySet()) {
+            data = (data + 15) & ~15L;
+            symbols.put(zero.getKey(), data);
+            data += zero.getValue();
+        }
+        for (JumpTable table : program.getJumpTables()) {
+            long base = symbols.get(table.getLabel());
+            for (int i = 0; i < table.getTargets().size(); i++) {
+                Long target = symbols.get(table.getTargets().get(i));
+                store(base + 4L * i, 4, target != null ? target - base : 0);
+            }
+        }
+    }
+
+    /** Excepcion de la maquina simulada (detiene la simulacion). */
+    private static class Fault extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Fault(String message) {
+            super(message);
+        }
+    }
+
+    public void run() {
+        MachineFunction main = program.getFunction("main");
+        if (main == null) {
+            stopReason = "no existe la función main";
+            return;
+        }
+        registers[Register.RSP.ordinal()] = STACK_TOP;
+        push(EXIT_ADDRESS);
+        // El frame base de main es %rsp a la entrada menos el %rbp guardado
+        mainFrameBase = STACK_TOP - 16;
+        currentBlock = blockIndex.get(main.getEntry().getLabel());
+        pc = 0;
+
+        while (!finished) {
+            if (steps >= MAX_STEPS) {
+                stopReason = "se alcanzó el límite de " + MAX_STEPS + " pasos";
+                return;
+            }
+            BasicBlock block = blocks.get(currentBlock);
+            if (pc >= block.size()) {
+                if (currentBlock + 1 >= blocks.size() || owners.get(currentBlock + 1) != owners.get(currentBlock)) {
+                    stopReason = "la ejecución cae fuera de la función " + owners.get(currentBlock).getName();
+                    return;
+                }
+                currentBlock++;
+                pc = 0;
+                continue;
+            }
+
+            Instruction instruction = block.getInstructions().get(pc);
+            steps++;
+            String description;
+            try {
+                description = execute(instruction);
+            } catch (Fault fault) {
+                stopReason = fault.getMessage();
+                addStep(instruction, "excepción: " + fault.getMessage());
+                return;
+            }
+            addStep(instruction, description);
+            // Un jmp a otra funcion es una llamada de cola
+            if ((instruction.is(Opcode.CALL) || instruction.is(Opcode.JMP) && program.getFunction(instruction.getTarget()) != null)
+                    && !finished) {
+                appendTrace("# --- FUNCIÓN: " + instruction.getTarget() + " ---\n");
+            }
+        }
+    }
+
+    private void addStep(Instruction instruction, String description) {
+        appendTrace(String.format("# Step %d: %-40s # %s\n", steps, instruction, description));
+    }
+
+    private void appendTrace(String text) {
+        if (steps <= MAX_TRACE_STEPS) {
+            trace.append(text);
+        }
+    }
+
+    public String getTrace() {
+        if (steps > MAX_TRACE_STEPS) {
+            return trace + "# ... (traza truncada, " + steps + " pasos en total)\n";
+        }
+        return trace.toString();
+    }
+
+    public boolean isFinished() { return finished; }
+    public String getStopReason() { return stopReason; }
+    public long getSteps() { return steps; }
+
+    public long getRegister(Register register) {
+        return registers[register.ordinal()];
+    }
+
+    /**
+     * Valores finales de las variables de main segun sus slots del frame.
+     */
+    public Map<String, Long> getMainVariables() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        MachineFunction main = program.getFunction("main");
+        if (main != null) {
+            for (Map.Entry<String, Integer> slot : main.getFrameSlots().entrySet()) {
+                int bytes = main.slotWidth(slot.getKey()).getBytes();
+                values.put(slot.getKey(), load(mainFrameBase - slot.getValue(), bytes));
+            }
+        }
+        return values;
+    }
+
+    private String execute(Instruction ins) {
+        Width w = ins.getWidth();
+        Operand src = ins.getSource();
+        Operand dst = ins.getDestination();
+        pc++;
+
+        switch (ins.getOpcode()) {
+            case MOV:
+                return write(dst, w, read(src, w));
+            case MOVZB:
+                return write(dst, w, read(src, Width.BYTE) & 0xFF);
+            case MOVSLQ:
+                return write(dst, Width.QUAD, read(src, Width.LONG));
+            case LEA:
+                return write(dst, w, address(src));
+            case ADD: {
+                long a = read(dst, w);
+                long b = read(src, w);
+                setAddFlags(a, b, w);
+                return write(dst, w, a + b);
+            }
+            case SUB: {
+                long a = read(dst, w);
+                long b = read(src, w);
+                setSubFlags(a, b, w);
+                return write(dst, w, a - b);
+            }
+            case IMUL: {
+                long a = read(dst, w);
+                long b = read(src, w);
+                long r = a * b;
+                boolean overflow = w == Width.QUAD
+                        ? Math.multiplyHigh(a, b) != (r >> 63)
+                        : r != signExtend(r, w);
+                setResultFlags(r, w);
+                cf = of = overflow;
+                return write(dst, w, r);
+            }
+            case AND:
+            case OR:
+            case XOR: {
+                long a = read(dst, w);
+                long b = read(src, w);
+                long r = ins.is(Opcode.AND) ? a & b : ins.is(Opcode.OR) ? a | b : a ^ b;
+                setLogicFlags(r, w);
+                return write(dst, w, r);
+            }
+            case SAL:
+            case SAR:
+            case SHR: {
+                long a = read(dst, w);
+                int count = (int) (read(src, Width.BYTE) & (w == Width.QUAD ? 63 : 31));
+                long r;
+                if (ins.is(Opcode.SAL)) {
+                    r = a << count;
+                } else if (ins.is(Opcode.SAR)) {
+                    r = a >> count;
+                } else {
+                    r = zeroExtend(a, w) >>> count;
+                }
+                if (count != 0) {
+                    setLogicFlags(r, w);
+                }
+                return write(dst, w, r);
+            }
+            case INC:
+            case DEC: {
+                long a = read(dst, w);
+                boolean savedCarry = cf;
+                if (ins.is(Opcode.INC)) {
+                    setAddFlags(a, 1, w);
+                } else {
+                    setSubFlags(a, 1, w);
+                }
+                cf = savedCarry;
+                return write(dst, w, ins.is(Opcode.INC) ? a + 1 : a - 1);
+            }
+            case NEG: {
+                long a = read(dst, w);
+                setSubFlags(0, a, w);
+                return write(dst, w, -a);
+            }
+            case CMP: {
+                long a = read(dst, w);
+                long b = read(src, w);
+                setSubFlags(a, b, w);
+                return "comparar " + a + " con " + b;
+            }
+            case TEST: {
+                long a = read(dst, w);
+                long b = read(src, w);
+                setLogicFlags(a & b, w);
+                return "probar " + (a & b) + (zf ? " (cero)" : " (distinto de cero)");
+            }
+            case IDIV: {
+                long divisor = read(src, w);
+                long dividend = signExtend(registers[Register.RAX.ordinal()], w);
+                if (divisor == 0) {
+                    throw new Fault("división por cero");
+                }
+                long quotient = dividend / divisor;
+                if ((w == Width.QUAD && dividend == Long.MIN_VALUE && divisor == -1)
+                        || quotient != signExtend(quotient, w)) {
+                    throw new Fault("desbordamiento en la división");
+                }
+                writeRegister(Register.RAX, w, quotient);
+                writeRegister(Register.RDX, w, dividend % divisor);
+                return "cociente " + quotient + ", resto " + (dividend % divisor);
+            }
+            case CQTO:
+                registers[Register.RDX.ordinal()] = registers[Register.RAX.ordinal()] < 0 ? -1 : 0;
+                return "extender signo de %rax a %rdx";
+            case CLTD:
+                writeRegister(Register.RDX, Width.LONG, (int) registers[Register.RAX.ordinal()] < 0 ? -1 : 0);
+                return "extender signo de %eax a %edx";
+            case PUSH: {
+                long v = read(src, Width.QUAD);
+                push(v);
+                return "apilar " + v;
+            }
+            case POP:
+                return write(dst, Width.QUAD, pop());
+            case SETCC:
+                return write(dst, Width.BYTE, holds(ins.getCondition()) ? 1 : 0);
+            case CMOVCC:
+                if (holds(ins.getCondition())) {
+                    return write(dst, w, read(src, w)) + " (condición verdadera)";
+                }
+                if (w == Width.LONG) {
+                    write(dst, w, read(dst, w));
+                }
+                return "sin cambios (condición falsa)";
+            case JCC:
+                if (holds(ins.getCondition())) {
+                    jumpTo(ins.getTarget());
+                    return "salto tomado a " + ins.getTarget();
+                }
+                return "salto no tomado";
+            case JMP:
+                if (ins.isIndirectJump()) {
+                    long target = read(src, Width.QUAD);
+                    jumpToAddress(target);
+                    return "saltar a " + blocks.get(currentBlock).getLabel();
+                }
+                jumpTo(ins.getTarget());
+                return "saltar a " + ins.getTarget();
+            case CALL: {
+                Integer entry = blockIndex.get(ins.getTarget());
+                if (entry == null) {
+                    throw new Fault("función desconocida " + ins.getTarget());
+                }
+                push(blockAddress[currentBlock] + pc);
+                currentBlock = entry;
+                pc = 0;
+                return "llamar a " + ins.getTarget();
+            }
+            case RET: {
+                long returnAddress = pop();
+                String value = "retornar (rax = " + registers[Register.RAX.ordinal()] + ")";
+                if (returnAddress == EXIT_ADDRESS) {
+                    finished = true;
+                } else {
+                    jumpToAddress(returnAddress);
+                }
+                return value;
+            }
+            default:
+                throw new Fault("instrucción no soportada: " + ins);
+        }
+    }
+
+    private boolean holds(Condition condition) {
+        switch (condition) {
+            case E:  return zf;
+            case NE: return !zf;
+            case L:  return sf != of;
+            case GE: return sf == of;
+            case LE: return zf || sf != of;
+            case G:  return !zf && sf == of;
+            case B:  return cf;
+            case AE: return !cf;
+            case BE: return cf || zf;
+            default: return !cf && !zf;
+        }
+    }
+
+    private void setResultFlags(long result, Width w) {
+        long r = signExtend(result, w);
+        zf = r == 0;
+        sf = r < 0;
+    }
+
+    private void setLogicFlags(long result, Width w) {
+        setResultFlags(result, w);
+        cf = false;
+        of = false;
+    }
+
+    private void setAddFlags(long a, long b, Width w) {
+        long sa = signExtend(a, w);
+        long sb = signExtend(b, w);
+        long r = sa + sb;
+        setResultFlags(r, w);
+        if (w == Width.QUAD) {
+            of = ((sa ^ r) & (sb ^ r)) < 0;
+            cf = Long.compareUnsigned(r, sa) < 0;
+        } else {
+            of = r != signExtend(r, w);
+            cf = zeroExtend(sa, w) + zeroExtend(sb, w) > mask(w);
+        }
+    }
+
+    private void setSubFlags(long a, long b, Width w) {
+        long sa = signExtend(a, w);
+        long sb = signExtend(b, w);
+        long r = sa - sb;
+        setResultFlags(r, w);
+        if (w == Width.QUAD) {
+            of = ((sa ^ sb) & (sa ^ r)) < 0;
+        } else {
+            of = r != signExtend(r, w);
+        }
+        cf = Long.compareUnsigned(zeroExtend(sa, w), zeroExtend(sb, w)) < 0;
+    }
+
+    private static long mask(Width w) {
+        return w == Width.QUAD ? -1L : (1L << (8 * w.getBytes())) - 1;
+    }
+
+    private static long zeroExtend(long value, Width w) {
+        return value & mask(w);
+    }
+
+    private static long signExtend(long value, Width w) {
+        int shift = 64 - 8 * w.getBytes();
+        return (value << shift) >> shift;
+    }
+
+    private long read(Operand operand, Width w) {
+        switch (operand.getKind()) {
+            case IMMEDIATE:
+                return signExtend(operand.getValue(), w);
+            case REGISTER:
+                return signExtend(registers[operand.getRegister().ordinal()], w);
+            case MEMORY:
+                return load(address(operand), w.getBytes());
+            default:
+                Long address = symbols.get(operand.getLabel());
+                if (address == null) {
+                    throw new Fault("etiqueta desconocida " + operand.getLabel());
+                }
+                return address;
+        }
+    }
+
+    private String write(Operand operand, Width w, long value) {
+        if (operand.isRegister()) {
+            writeRegister(operand.getRegister(), w, value);
+            Register r = operand.getRegister();
+            return r + " = " + registers[r.ordinal()];
+        }
+        store(address(operand), w.getBytes(), value);
+        return operand.format(w) + " = " + signExtend(value, w);
+    }
+
+    private void writeRegister(Register register, Width w, long value) {
+        int r = register.ordinal();
+        switch (w) {
+            case BYTE:
+                registers[r] = (registers[r] & ~0xFFL) | (value & 0xFF);
+                break;
+            case LONG:
+                registers[r] = value & 0xFFFFFFFFL;
+                break;
+            default:
+                registers[r] = value;
+        }
+    }
+
+    private long address(Operand operand) {
+        if (operand.getRegister() == Register.RIP) {
+            Long base = symbols.get(operand.getLabel());
+            if (base == null) {
+                throw new Fault("etiqueta desconocida " + operand.getLabel());
+            }
+            return base + operand.getValue();
+        }
+        long address = registers[operand.getRegister().ordinal()] + operand.getValue();
+        if (operand.getIndex() != null) {
+            address += registers[operand.getIndex().ordinal()] * operand.getScale();
+        }
+        return address;
+    }
+
+    private void jumpTo(String label) {
+        Integer index = blockIndex.get(label);
+        if (index == null) {
+            throw new Fault("etiqueta desconocida " + label);
+        }
+        currentBlock = index;
+        pc = 0;
+    }
+
+    private void jumpToAddress(long address) {
+        Map.Entry<Long, Integer> entry = blockAt.floorEntry(address);
+        if (entry == null || address - entry.getKey() > blocks.get(entry.getValue()).size()) {
+            throw new Fault("salto a una dirección inválida 0x" + Long.toHexString(address));
+        }
+        currentBlock = entry.getValue();
+        pc = (int) (address - entry.getKey());
+    }
+
+    private void push(long value) {
+        registers[Register.RSP.ordinal()] -= 8;
+        store(registers[Register.RSP.ordinal()], 8, value);
+    }
+
+    private long pop() {
+        long value = load(registers[Register.RSP.ordinal()], 8);
+        registers[Register.RSP.ordinal()] += 8;
+        return value;
+    }
+
+    private long load(long address, int bytes) {
+        long value = 0;
+        for (int i = bytes - 1; i >= 0; i--) {
+            value = (value << 8) | (page(address + i)[(int) Math.floorMod(address + i, (long) PAGE_SIZE)] & 0xFF);
+        }
+        int shift = 64 - 8 * bytes;
+        return (value << shift) >> shift;
+    }
+
+    private void store(long address, int bytes, long value) {
+        for (int i = 0; i < bytes; i++) {
+            page(address + i)[(int) Math.floorMod(address + i, (long) PAGE_SIZE)] = (byte) (value >> (8 * i));
+        }
+    }
+
+    private byte[] page(long address) {
+        return pages.computeIfAbsent(Math.floorDiv(address, (long) PAGE_SIZE), k -> new byte[PAGE_SIZE]);
+    }
+}
@@ -0,0 +1,71 @@
+package org.example.codegen.mir;
+
+/**
+ * Operaciones de la representacion de maquina. Cada opcode sabe como se
+ * escribe en AT&T y que efectos tiene sobre su destino y las banderas, de
+ * modo que los passes no necesitan interpretar texto.
+ */
+public enum Opcode {
+    MOV("mov", Flags.SIZED | Flags.WRITES_DEST),
+    MOVZB("movzb", Flags.SIZED | Flags.WRITES_DEST),
+    MOVSLQ("movslq", Flags.WRITES_DEST),
+    LEA("lea", Flags.SIZED | Flags.WRITES_DEST),
+    ADD("add", Flags.SIZED | Flags.READS_DEST | Flags.WRITES_DEST | Flags.WRITES_FLAGS),
+    SUB("sub", Flags.SIZED | Flags.READS_DEST | Flags.WRITES_DEST | Flags.WRITES_FLAGS),
+    IMUL("imul", Flags.SIZED | Flags.READS_DEST | Flags.WRITES_DEST | Flags.WRITES_FLAGS),
+    AND("and", Flags.SIZED | Flags.READS_DEST | Flags.WRITES_DEST | Flags.WRITES_FLAGS),
+    OR("or", Flags.SIZED | Flags.READS_DEST | Flags.WRITES_DEST | Flags.WRITES_FLAGS),
+    XOR("xor", Flags.SIZED | Flags.READS_DEST | Flags.WRITES_DEST | Flags.WRITES_FLAGS),
+    SAL("sal", Flags.SIZED | Flags.READS_DEST | Flags.WRITES_DEST | Flags.WRITES_FLAGS),
+    SAR("sar", Flags.SIZED | Flags.READS_DEST | Flags.WRITES_DEST | Flags.WRITES_FLAGS),
+    SHR("shr", Flags.SIZED | Flags.READS_DEST | Flags.WRITES_DEST | Flags.WRITES_FLAGS),
+    INC("inc", Flags.SIZED | Flags.READS_DEST | Flags.WRITES_DEST | Flags.WRITES_FLAGS),
+    DEC("dec", Flags.SIZED | Flags.READS_DEST | Flags.WRITES_DEST | Flags.WRITES_FLAGS),
+    NEG("neg", Flags.SIZED | Flags.READS_DEST | Flags.WRITES_DEST | Flags.WRITES_FLAGS),
+    CMP("cmp", Flags.SIZED | Flags.READS_DEST | Flags.WRITES_FLAGS),
+    TEST("test", Flags.SIZED | Flags.READS_DEST | Flags.WRITES_FLAGS),
+    IDIV("idiv", Flags.SIZED | Flags.WRITES_FLAGS),
+    CQTO("cqto", 0),
+    CLTD("cltd", 0),
+    PUSH("push", Flags.SIZED),
+    POP("pop", Flags.SIZED | Flags.WRITES_DEST),
+    SETCC("set", Flags.WRITES_DEST | Flags.READS_FLAGS | Flags.CONDITIONAL),
+    CMOVCC("cmov", Flags.READS_DEST | Flags.WRITES_DEST | Flags.READS_FLAGS | Flags.CONDITIONAL),
+    JCC("j", Flags.READS_FLAGS | Flags.CONDITIONAL | Flags.ENDS_BLOCK),
+    JMP("jmp", Flags.ENDS_BLOCK | Flags.NO_FALLTHROUGH),
+    CALL("call", Flags.WRITES_FLAGS),
+    RET("ret", Flags.ENDS_BLOCK | Flags.NO_FALLTHROUGH);
+
+    private static final class Flags {
+        static final int SIZED = 1;
+        static final int READS_DEST = 2;
+        static final int WRITES_DEST = 4;
+        static final int WRITES_FLAGS = 8;
+        static final int READS_FLAGS = 16;
+        static final int CONDITIONAL = 32;
+        static final int ENDS_BLOCK = 64;
+        static final int NO_FALLTHROUGH = 128;
+    }
+
+    private final String mnemonic;
+    private final int flags;
+
+    Opcode(String mnemonic, int flags) {
+        this.mnemonic = mnemonic;
+        this.flags = flags;
+    }
+
+    public String getMnemonic() { return mnemonic; }
+
+    /** El mnemonico lleva el sufijo de ancho (movq, addl, ...). */
+    public boolean isSized() { return (flags & Flags.SIZED) != 0; }
+    public boolean readsDestination() { return (flags & Flags.READS_DEST) != 0; }
+    public boolean writesDestination() { return (flags & Flags.WRITES_DEST) != 0; }
+    public boolean writesFlags() { return (flags & Flags.WRITES_FLAGS) != 0; }
+    public boolean readsFlags() { return (flags & Flags.READS_FLAGS) != 0; }
+    public boolean isConditional() { return (flags & Flags.CONDITIONAL) != 0; }
+    /** Termina un bloque basico (saltos y ret). */
+    public boolean endsBlock() { return (flags & Flags.ENDS_BLOCK) != 0; }
+    /** Nunca continua con la instruccion siguiente (jmp y ret). */
+    public boolean isUnconditionalTransfer() { return (flags & Flags.NO_FALLTHROUGH) != 0; }
+}
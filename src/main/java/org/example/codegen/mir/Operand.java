@@ -0,0 +1,138 @@
+package org.example.codegen.mir;
+
+import java.util.Objects;
+
+/**
+ * Operando de una instruccion: registro, inmediato, memoria o etiqueta.
+ *
+ * La memoria se expresa como desplazamiento(base,indice,escala) o como
+ * etiqueta(%rip) para datos en .rodata/.bss. Los operandos son inmutables y
+ * se comparan por valor, lo que permite a los passes reconocer el mismo
+ * slot de pila en dos instrucciones distintas.
+ */
+public final class Operand {
+
+    public enum Kind { REGISTER, IMMEDIATE, MEMORY, LABEL }
+
+    private final Kind kind;
+    private final Register register;
+    private final Register index;
+    private final int scale;
+    private final long value;
+    private final String label;
+
+    private Operand(Kind kind, Register register, Register index, int scale, long value, String label) {
+        this.kind = kind;
+        this.register = register;
+        this.index = index;
+        this.scale = scale;
+        this.value = value;
+        this.label = label;
+    }
+
+    public static Operand reg(Register register) {
+        return new Operand(Kind.REGISTER, register, null, 0, 0, null);
+    }
+
+    public static Operand imm(long value) {
+        return new Operand(Kind.IMMEDIATE, null, null, 0, value, null);
+    }
+
+    public static Operand mem(Register base, long displacement) {
+        return new Operand(Kind.MEMORY, base, null, 0, displacement, null);
+    }
+
+    public static Operand mem(Register base, Register index, int scale, long displacement) {
+        return new Operand(Kind.MEMORY, base, index, scale, displacement, null);
+    }
+
+    /** Direccion relativa a %rip de un simbolo de datos: label+desplazamiento(%rip). */
+    public static Operand ripRelative(String label, long displacement) {
+        return new Operand(Kind.MEMORY, Register.RIP, null, 0, displacement, label);
+    }
+
+    /** Destino de un salto o llamada. */
+    public static Operand label(String label) {
+        return new Operand(Kind.LABEL, null, null, 0, 0, label);
+    }
+
+    public Kind getKind() { return kind; }
+    public boolean isRegister() { return kind == Kind.REGISTER; }
+    public boolean isImmediate() { return kind == Kind.IMMEDIATE; }
+    public boolean isMemory() { return kind == Kind.MEMORY; }
+    public boolean isLabel() { return kind == Kind.LABEL; }
+
+    /** Registro de un operando registro, o base de un operando de memoria. */
+    public Register getRegister() { return register; }
+    public Register getIndex() { return index; }
+    public int getScale() { return scale; }
+    /** Valor de un inmediato, o desplazamiento de un operando de memoria. */
+    public long getValue() { return value; }
+    public String getLabel() { return label; }
+
+    public boolean isRegister(Register r) {
+        return kind == Kind.REGISTER && register == r;
+    }
+
+    public boolean isImmediate(long v) {
+        return kind == Kind.IMMEDIATE && value == v;
+    }
+
+    /** Indica si el operando lee o escribe el registro (incluida la direccion). */
+    public boolean mentions(Register r) {
+        return register == r || index == r;
+    }
+
+    public Operand withDisplacement(long displacement) {
+        return new Operand(kind, register, index, scale, displacement, label);
+    }
+
+    public String format(Width width) {
+        switch (kind) {
+            case REGISTER:
+                return register.getName(width);
+            case IMMEDIATE:
+                return "$" + value;
+            case LABEL:
+                return label;
+            default:
+                StringBuilder sb = new StringBuilder();
+                if (label != null) {
+                    sb.append(label);
+                    if (value != 0) {
+                        sb.append(value > 0 ? "+" : "").append(value);
+                    }
+                } else if (value != 0) {
+                    sb.append(value);
+                }
+                sb.append('(').append(register);
+                if (index != null) {
+                    sb.append(',').append(index).append(',').append(scale);
+                }
+                return sb.append(')').toString();
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Operand)) {
+            return false;
+        }
+        Operand other = (Operand) o;
+        return kind == other.kind && register == other.register && index == other.index
+                && scale == other.scale && value == other.value && Objects.equals(label, other.label);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(kind, register, index, scale, value, label);
+    }
+
+    @Override
+    public String toString() {
+        return format(Width.QUAD);
+    }
+}
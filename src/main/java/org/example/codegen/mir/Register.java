@@ -0,0 +1,47 @@
+package org.example.codegen.mir;
+
+/**
+ * Registros de proposito general de x86-64 con sus nombres por ancho.
+ */
+public enum Register {
+    RAX("rax", "eax", "al"),
+    RBX("rbx", "ebx", "bl"),
+    RCX("rcx", "ecx", "cl"),
+    RDX("rdx", "edx", "dl"),
+    RSI("rsi", "esi", "sil"),
+    RDI("rdi", "edi", "dil"),
+    RBP("rbp", "ebp", "bpl"),
+    RSP("rsp", "esp", "spl"),
+    R8("r8", "r8d", "r8b"),
+    R9("r9", "r9d", "r9b"),
+    R10("r10", "r10d", "r10b"),
+    R11("r11", "r11d", "r11b"),
+    R12("r12", "r12d", "r12b"),
+    R13("r13", "r13d", "r13b"),
+    R14("r14", "r14d", "r14b"),
+    R15("r15", "r15d", "r15b"),
+    RIP("rip", "eip", "");
+
+    private final String quadName;
+    private final String longName;
+    private final String byteName;
+
+    Register(String quadName, String longName, String byteName) {
+        this.quadName = quadName;
+        this.longName = longName;
+        this.byteName = byteName;
+    }
+
+    public String getName(Width width) {
+        switch (width) {
+            case BYTE: return "%" + byteName;
+            case LONG: return "%" + longName;
+            default:   return "%" + quadName;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "%" + quadName;
+    }
+}
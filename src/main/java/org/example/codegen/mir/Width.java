@@ -0,0 +1,21 @@
+package org.example.codegen.mir;
+
+/**
+ * Ancho de operando de una instruccion (sufijo AT&T).
+ */
+public enum Width {
+    BYTE(1, "b"),
+    LONG(4, "l"),
+    QUAD(8, "q");
+
+    private final int bytes;
+    private final String suffix;
+
+    Width(int bytes, String suffix) {
+        this.bytes = bytes;
+        this.suffix = suffix;
+    }
+
+    public int getBytes() { return bytes; }
+    public String getSuffix() { return suffix; }
+}
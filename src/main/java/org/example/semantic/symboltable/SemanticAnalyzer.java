@@ -4,7 +4,9 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import org.example.analysis.CallGraph;
 import org.example.ast.*;
 
 public class SemanticAnalyzer implements ASTVisitor {
@@ -14,6 +16,8 @@ public class SemanticAnalyzer implements ASTVisitor {
     private boolean hasErrors;
     private Map<String, FunctionInfo> functions;
     private String currentFunctionReturnType;
+    // Funciones que main no alcanza y por lo tanto no se analizaron
+    private int skippedFunctions;
 
     private static class FunctionInfo {
         String returnType;
@@ -36,6 +40,7 @@ public class SemanticAnalyzer implements ASTVisitor {
         errors.clear();
         hasErrors = false;
         functions.clear();
+        skippedFunctions = 0;
 
         if (program != null) {
             program.accept(this);
@@ -53,6 +58,10 @@ public class SemanticAnalyzer implements ASTVisitor {
         return !hasErrors;
     }
 
+    public int getSkippedFunctions() {
+        return skippedFunctions;
+    }
+
     private void addError(String message) {
         errors.add(message);
         hasErrors = true;
@@ -77,9 +86,15 @@ public class SemanticAnalyzer implements ASTVisitor {
             }
         }
 
-        // Segunda pasada: analizar cada función
+        // Segunda pasada: analizar las funciones que main puede llamar; las
+        // demas no se generan, solo cuenta su firma
+        Set<String> reachable = CallGraph.build(node).reachableFrom(CallGraph.MAIN);
         for (FunctionDeclarationNode func : node.getFunctions()) {
-            func.accept(this);
+            if (reachable.contains(func.getIdentifier())) {
+                func.accept(this);
+            } else {
+                skippedFunctions++;
+            }
         }
 
         // Analizar main